@@ -12,6 +12,16 @@
   creation date.  A newer date is often from editing, such as rotating a photo
   to be upright.
 
+  Other file formats are recognized by their first few bytes.  Camera RAW files
+  based on TIFF (CR2, DNG, NEF, ARW, etc) are searched for Exif date tags, even
+  when those dates are deep inside the file.  HEIC photos are searched for the
+  Exif item in their metadata, and MP4/MOV videos for the creation time in the
+  movie header, which is in UTC and converted to the local time zone.  Only the
+  parts of a file that contain dates are read, not whole video files.  Photo
+  software such as Lightroom may keep dates in an XMP "sidecar" file next to a
+  RAW file, with the same name and an .xmp extension.  Sidecars are used with
+  the -y option, and are read by a streaming parser, not loaded into memory.
+
   On Windows 7 (and possibly the earlier Windows Vista), you have two choices
   when copying photo files from your digital camera.  First is the "import"
   feature, which sets the correct date and time, but changes files from what's
@@ -58,6 +68,66 @@
 
       java  RedatePhotoFile3  -s  d:\temp  >report.txt
 
+  Very large jobs may be divided among several worker processes, each with its
+  own Java virtual machine (JVM), using the -j option.  File and folder names
+  are assigned to workers by a hash of their full path names.  Each name goes
+  to one worker, so one big folder keeps one worker busy while the others are
+  idle, unless the -k option splits big folders.  Reports from the workers are
+  combined with one summary at the end.  For example:
+
+      java  RedatePhotoFile3  -s  -j4  d:\photos1  d:\photos2  e:\photos3
+
+  The console application doesn't load any graphical (AWT or Swing) classes,
+  which helps when scripts run this program many times on small folders.  Java
+  13 and later can start even faster with a class data archive, created once
+  by the first command below and then used by later commands (JAR files only):
+
+      java  -XX:ArchiveClassesAtExit=rpf3.jsa  -jar RedatePhotoFile3.jar  d:\temp
+      java  -XX:SharedArchiveFile=rpf3.jsa  -jar RedatePhotoFile3.jar  d:\temp
+
+  Programs that redate many small batches can instead keep one JVM running as
+  a local server, with the -v option and a port number.  Each request sent to
+  the server is options and file or folder names, one per line, followed by an
+  empty line.  The server replies with the usual report, one line per file
+  with the results, and a line with the totals.  Requests from different
+  connections are done at the same time by a pool of engines, one engine per
+  processor, each request starting with the options from the server's command
+  line:
+
+      java  RedatePhotoFile3  -s  -v8765
+
+  The server listens only for connections from the same computer, but any user
+  on that computer may connect and change files that the server can change.
+  To stop this, put a token (any secret text) on the first line of a file that
+  only you can read, and give the file name after the port number.  Clients
+  then send "#RedatePhotoFile3 token" and the token as the first line of each
+  connection:
+
+      java  RedatePhotoFile3  -s  -v8765,d:\private\token.txt
+
+  Photos may be moved into folders by date below a root folder, such as
+  2017/06/30 for files from that day, with the -o option.  Files are renamed
+  within the same volume, or otherwise copied and checked before the original
+  file is deleted.  Existing files are never replaced:
+
+      java  RedatePhotoFile3  -s  -od:\sorted  d:\camera
+
+  The graphical interface and the server remember folder contents and dates
+  found in files, so running again on the same folders with different options
+  is much faster.  Saved results are used only if the file or folder date and
+  the file size haven't changed.
+
+  Other Java programs may use this class as a library.  Create a
+  RedatePhotoFile3Job with options, files or folders, and a listener for the
+  output, progress, and results for each file, then run the job in any thread.
+  Each job is done by its own engine (a RedatePhotoFile3 object), so jobs in
+  different threads are done at the same time.  Options are taken from an
+  engine, with parseOptions() for changes, and may carry a
+  RedatePhotoFile3Extractor for finding dates in other file formats.  All
+  classes are in the unnamed (default) package, which Java doesn't allow
+  other packages to import, so callers must also be in the unnamed package, or
+  compile this source file into their own package.
+
   The console application will return an exit status equal to the number of
   files that have been successfully changed, -1 for failure, and 0 for unknown.
   The graphical interface can be very slow when the output text area gets too
@@ -100,41 +170,76 @@
 import java.awt.*;                // older Java GUI support
 import java.awt.event.*;          // older Java GUI event support
 import java.io.*;                 // standard I/O
+import java.net.*;                // local server sockets
+import java.nio.*;                // byte buffers
+import java.nio.channels.*;       // file channels, memory-mapped files
 import java.text.*;               // number formatting
 import java.util.*;               // calendars, dates, lists, maps, vectors
 import java.util.regex.*;         // regular expressions
+import java.util.zip.*;           // CRC32 checksums for moved files
 import javax.swing.*;             // newer Java GUI support
 import javax.swing.border.*;      // decorative borders
+import javax.xml.parsers.*;       // XML parser factories
+import org.xml.sax.*;             // streaming XML parser (SAX)
+import org.xml.sax.helpers.*;     // default handler for SAX parser
 
 public class RedatePhotoFile3
 {
   /* constants */
 
+  static final int AUDIT_WORST = 10; // largest differences shown by -f4
+  static final int BALANCE_CHUNK = 500; // most file names in one unit of work
+  static final int BALANCE_SPLITS = 1000; // most folders split into units
+  static final int BALANCE_UNITS = 8; // units of work per worker, if possible
+  static final int BATCH_RETRIES = 3; // most retries for one failed change
+  static final int BATCH_SLOWEST = 3; // slowest folders reported with -b
+  static final int BATCH_WAIT = 100; // milliseconds before first retry
+  static final int CACHE_FILES = 100000; // most dates saved between runs
+  static final int CACHE_FOLDERS = 10000; // most folder lists saved
   static final String COPYRIGHT_NOTICE =
     "Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL.";
   static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
                                   // standard date, time format
   static final String DATE_LOWER = "1980-01-02"; // minimum (initial substring)
+  static final int DATE_SIZE = 20; // Exif date, time string with null byte
+  static final byte[] DATE_SKIP = makeDateSkip(); // see scanDateBytes()
   static final String DATE_UPPER = "2099-12-30"; // maximum (initial substring)
   static final int DEFAULT_HEIGHT = -1; // default window height in pixels
   static final int DEFAULT_LEFT = 50; // default window left position ("x")
   static final int DEFAULT_TOP = 50; // default window top position ("y")
   static final int DEFAULT_WIDTH = -1; // default window width in pixels
-  static final String EMPTY_STATUS = ""; // message when no status to display
   static final int EXIT_FAILURE = -1; // incorrect request or errors found
   static final int EXIT_SUCCESS = 1; // request completed successfully
   static final int EXIT_UNKNOWN = 0; // don't know or nothing really done
-  static final String[] FONT_SIZES = {"10", "12", "14", "16", "18", "20", "24",
-    "30"};                        // point sizes for text in output text area
-  static final int MIN_FRAME = 200; // minimum window height or width in pixels
+  static final String ORGANIZE_FORMAT = "yyyy/MM/dd";
+                                  // date folders for organizing files (-o)
+  static final String PLAN_HEADER = "RedatePhotoFile3 change plan 1";
+                                  // first string in a change plan file
+  static final int PLAN_RECORD = 1; // first byte of each record in plan file
   static final String PROGRAM_TITLE =
     "Change File Dates, Names for JPEG Photos - by: Keith Fenske";
   static final String RENAME_FORMAT = "yyyy-MM-dd HH-mm-ss ";
                                   // date format as prefix when renaming files
+  static final int RESULT_CHANGE = 3; // result index: date or name changed
+  static final int RESULT_CORRECT = 2; // result index: already correct
+  static final int RESULT_ERROR = 4; // result index: error reading, changing
+  static final int RESULT_FOUND = 5; // result index: found date, no changes
+  static final int RESULT_NODATA = 1; // result index: no date found in file
+  static final String SERVER_ERROR = "#RedatePhotoFile3 error";
+                                  // server's reply to a request with errors
+  static final String SERVER_RESULT = "#RedatePhotoFile3 result";
+                                  // server's line with results for one file
+  static final String SERVER_TOKEN = "#RedatePhotoFile3 token";
+                                  // client's first line if server has token
+  static final String SHARD_DONE = "#RedatePhotoFile3 done";
+                                  // worker's line after each name from input
+  static final String SHARD_DRIFT = "#RedatePhotoFile3 drift";
+                                  // worker's line with one drift estimate
+  static final int SHARD_LIMIT = 64; // maximum number of worker processes
+  static final String SHARD_TOTALS = "#RedatePhotoFile3 totals";
+                                  // worker's line with totals for coordinator
   static final String[] SHOW_CHOICES = {"show all files", "changes only",
     "changes, errors", "errors only"};
-  static final String SYSTEM_FONT = "Dialog"; // this font is always available
-  static final int TIMER_DELAY = 1000; // 1.000 seconds between status updates
 
   /* All file systems have limits on how accurately they store dates and times.
   Don't change file dates when the millisecond difference is too small.  This
@@ -145,83 +250,209 @@ public class RedatePhotoFile3
   /* We don't know exactly where date and time strings will be in a JPEG file,
   but we do know they are near the beginning.  Set an upper limit on the number
   of bytes read per file.  Most original camera files have dates within the
-  first 1 KB, and modified files within the first 8 KB. */
+  first 1 KB, and modified files within the first 8 KB.  JPEG files are only
+  searched in their metadata segments, which is usually much less than this. */
 
   static final long READ_LIMIT = 0x10000; // 64 KB
 
-  /* class variables */
-
-  static Calendar adjustCalendar; // for changing hours, minutes, seconds, etc
-  static JCheckBox adjustCheckbox; // option to adjust dates and times
-  static JTextField adjustFieldYear, adjustFieldMonth, adjustFieldDay,
-    adjustFieldHour, adjustFieldMinute, adjustFieldSecond; // from big to small
-  static JLabel adjustLabelYear, adjustLabelMonth, adjustLabelDay,
-    adjustLabelHour, adjustLabelMinute, adjustLabelSecond;
-  static int adjustValueYear, adjustValueMonth, adjustValueDay,
+  /* Not all photos are JPEG files.  Camera RAW files are TIFF files with Exif
+  data at offsets given in directory entries, and HEIC photos or MP4/MOV videos
+  are ISO media files made from nested "boxes" with a size and type.  The first
+  few bytes of a file (its "signature" or "magic number") tell us how to find
+  the dates.  Signatures are in hexadecimal, with dots (..) for bytes that may
+  be anything.  To add a new file format, put the signature in this table and
+  the search method in findDateByFormat(). */
+
+  static final int FORMAT_JPEG = 1; // JPEG: search for Exif date strings
+  static final int FORMAT_MEDIA = 2; // ISO media: HEIC, MP4, MOV, CR3, etc
+  static final int FORMAT_TIFF = 3; // TIFF and RAW: CR2, DNG, NEF, ARW, etc
+  static final int FORMAT_UNKNOWN = 0; // anything else: search as for JPEG
+  static final long MEDIA_EPOCH = 2082844800000L;
+                                  // milliseconds from 1904-01-01 to 1970-01-01
+  static final int MEDIA_LIMIT = 1000; // maximum number of boxes per level
+  static final int[] SIGNATURE_FORMATS = {FORMAT_JPEG, FORMAT_TIFF,
+    FORMAT_TIFF, FORMAT_TIFF, FORMAT_MEDIA, FORMAT_MEDIA, FORMAT_MEDIA,
+    FORMAT_MEDIA, FORMAT_MEDIA};  // must be in same order as <SIGNATURE_HEX>
+  static final String[] SIGNATURE_HEX = {"FFD8FF", "49492A00", "4D4D002A",
+    "49495500", "........66747970", "........6D6F6F76", "........6D646174",
+    "........66726565", "........77696465"};
+                                  // JPEG; TIFF (II, MM, RW2); ftyp, moov, etc
+
+  /* Dates found in a file can be ranked by rules (-t option), instead of only
+  taking the oldest or newest.  Each date is a candidate with its file offset
+  and where it was found.  Candidates are kept in a fixed-size buffer that is
+  reused for each file, and ranked after the whole file has been searched. */
+
+  static final int CANDIDATE_LIMIT = 16; // most dates ranked for one file
+  static final int RANK_FUTURE = 4; // rule: ignore dates in the future
+  static final int RANK_ORIGINAL = 1; // rule: prefer DateTimeOriginal tag
+  static final int RANK_THUMBNAIL = 2; // rule: ignore dates in thumbnail
+  static final int SOURCE_DATETIME = 1; // candidate from DateTime tag
+  static final int SOURCE_DIGITIZED = 3; // from DateTimeDigitized tag
+  static final int SOURCE_MEDIA = 4; // from movie header, no file offset
+  static final int SOURCE_NONE = -1; // not a candidate, don't save
+  static final int SOURCE_ORIGINAL = 2; // from DateTimeOriginal tag
+  static final int SOURCE_SCAN = 0; // found by scanning bytes, tag unknown
+  static final int SIGNATURE_SIZE = 16; // number of bytes to check signature
+  static final int TIFF_LIMIT = 500; // maximum number of entries per directory
+
+  /* When a run is slow, tracing (the -n option) shows where the time goes, by
+  adding up the milliseconds spent in each phase of processing, and by keeping
+  a list of the slowest files and folders.  Java 1.4 clocks only have whole
+  milliseconds, so small files and folders are often timed as zero. */
+
+  static final int TRACE_CHANGE = 6; // phase: checking, changing files
+  static final int TRACE_FIND = 5; // phase: finding dates, without reads
+  static final int TRACE_HIDDEN = 1; // phase: asking if names are hidden
+  static final int TRACE_LIST = 0; // phase: listing folder contents
+  static final String[] TRACE_NAMES = {"list folders", "check hidden",
+    "sort names", "open files", "read bytes", "find dates", "change files"};
+  static final int TRACE_OPEN = 3; // phase: opening, closing files
+  static final int TRACE_READ = 4; // phase: reading bytes from files
+  static final int TRACE_SORT = 2; // phase: sorting folder contents
+
+  /* instance variables */
+
+  Calendar adjustCalendar;        // for changing hours, minutes, seconds, etc
+  int adjustValueYear, adjustValueMonth, adjustValueDay,
     adjustValueHour, adjustValueMinute, adjustValueSecond;
-  static JButton cancelButton;    // graphical button for <cancelFlag>
-  static boolean cancelFlag;      // our signal from user to stop processing
-  static JCheckBox debugCheckbox; // graphical option for <debugFlag>
-  static boolean debugFlag;       // true if we show debug information
-  static JButton exitButton;      // "Exit" button for ending this application
-  static JFileChooser fileChooser; // asks for input and output file names
-  static String fontName;         // font name for text in output text area
-  static JComboBox fontNameDialog; // graphical option for <fontName>
-  static int fontSize;            // point size for text in output text area
-  static JComboBox fontSizeDialog; // graphical option for <fontSize>
-  static NumberFormat formatComma; // formats with commas (digit grouping)
-  static boolean hiddenFlag;      // true if we process hidden files or folders
-  static JFrame mainFrame;        // this application's GUI window
-  static boolean mswinFlag;       // true if running on Microsoft Windows
-  static JCheckBox newDateCheckbox; // graphical option for <oldDateFlag>
-  static JCheckBox oldDateCheckbox; // graphical option for <oldDateFlag>
-  static boolean oldDateFlag;     // true if we find oldest (original) dates
-  static JButton openButton;      // "Open" button for files or folders
-  static File[] openFileList;     // list of files selected by user
-  static Thread openFilesThread;  // separate thread for doOpenButton() method
-  static SimpleDateFormat ourDateFormat; // format, parse standard date, time
-  static TimeZone ourTimeZone;    // our local time zone
-  static JTextArea outputText;    // generated report while opening files
-  static JCheckBox recurseCheckbox; // graphical option for <recurseFlag>
-  static boolean recurseFlag;     // true if we search folders and subfolders
-  static JCheckBox redateCheckbox; // graphical option for <redateFlag>
-  static boolean redateFlag;      // true if we change file modification date
-  static JCheckBox renameCheckbox; // graphical option for <renameFlag>
-  static SimpleDateFormat renameDateFormat; // date, time prefix for file names
-  static String renameDateString; // date, time format for renaming files
-  static boolean renameFlag;      // true if we rename file with date prefix
-  static JButton renameFormatButton; // button for editing rename date format
-  static JPanel renameFormatDialog; // entire dialog panel for editing format
-  static JTextField renamePatternText; // user edits text to change pattern
-  static JTextField renameResultText; // we show user result after format
-  static JButton renameTestButton; // button for testing date, time format
-  static JButton saveButton;      // "Save" button for writing output text
-  static JComboBox showDialog;    // graphical choice for message selection
-  static int showIndex;           // index of current message selection
-  static JLabel statusDialog;     // status message during extended processing
-  static String statusPending;    // will become <statusDialog> after delay
-  static javax.swing.Timer statusTimer; // timer for updating status message
-  static long totalChange;        // number of files with successful changes
-  static long totalCorrect;       // number of files that were already correct
-  static long totalError;         // number of files with some type of error
-  static long totalFiles;         // total number of files, all conditions
-  static long totalFolders;       // total number of folders or subfolders
-  static long totalNoData;        // number of files without date and time
+  boolean auditFlag;              // true if we only count date differences
+  RedatePhotoFile3Audit auditStats; // counts for audit (-f4 option)
+  String balanceFile;             // history of folder sizes, or null
+  boolean balanceFlag;            // true if workers get largest folders first
+  Vector balanceFolders;          // folder units, for history of sizes
+  HashMap balanceHistory;         // long[1] files by folder, earlier runs
+  Vector balanceUnits;            // units of work not yet given to workers
+  int batchCount;                 // number of folders changed with -b option
+  boolean batchFlag;              // true if we change files after each folder
+  File batchFolder;               // folder for pending changes, or null
+  Vector batchList;               // pending changes for files in <batchFolder>
+  long batchMillis;               // total milliseconds changing folders
+  Vector batchPending;            // folders given to threads, in order
+  Vector batchQueue;              // folders waiting for a thread
+  int batchRetries;               // number of retries for failed changes
+  RedatePhotoFile3Slowest batchSlowest; // slowest folders to change
+  int batchStarted;               // number of threads started for changes
+  int batchThreads;               // number of folders changed at same time
+  long cacheFileHits;             // number of files with saved dates
+  RedatePhotoFile3Cache cacheFiles; // saved dates by file, or null
+  long cacheFolderHits;           // number of folders with saved lists
+  RedatePhotoFile3Cache cacheFolders; // saved lists by folder, or null
+  int candidateCount;             // number of dates found in current file
+  char[][] candidateDates;        // dates found, as "yyyy-MM-dd HH:mm:ss"
+  long[] candidatePositions;      // file offset of each date, or -1
+  int[] candidateSources;         // where each date was found, SOURCE_*
+  volatile boolean cancelFlag;    // our signal from user to stop processing
+  boolean debugFlag;              // true if we show debug information
+  Calendar driftCalendar;         // for GPS dates and times in UTC
+  int driftMode;                  // 0 = no drift, 1 = by camera, 2 = by folder
+  HashMap driftStats;             // count, mean, sum of squares by camera
+  RedatePhotoFile3Extractor extractor; // finds dates in files, or null
+  NumberFormat formatComma;       // formats with commas (digit grouping)
+  long foundGpsMillis;            // GPS date and time from Exif data, or -1
+  String foundModel;              // camera model from Exif data, or null
+  String foundOffset;             // camera time zone offset ("+hh:mm"), or null
+  String foundOriginal;           // camera date and time original, or null
+  String foundSerial;             // camera serial number, or null
+  boolean hiddenFlag;             // true if we process hidden files or folders
+  boolean mswinFlag;              // true if running on Microsoft Windows
+  int nameListNulls;              // 1 if list has null bytes, 0 if newlines
+  boolean oldDateFlag;            // true if we find oldest (original) dates
+  Set organizeFolders;            // date folders known to exist, or null
+  SimpleDateFormat organizeFormat; // date folder names (-o option)
+  File organizeRoot;              // root folder for date folders, or null
+  long planCount;                 // number of changes written to plan file
+  String planFileName;            // name of change plan file, or null
+  DataOutputStream planOutput;    // writes change plan, or null
+  SimpleDateFormat ourDateFormat; // format, parse standard date, time
+  TimeZone ourTimeZone;           // our local time zone
+  char[] rankFuture;              // dates after this are in the future
+  long rankFutureTime;            // when <rankFuture> is calculated again
+  int rankRules;                  // rules for ranking dates, RANK_* bits
+  long rankThumbEnd, rankThumbStart; // file offsets of thumbnail image
+  byte[] readBuffer;              // shared buffer for reading from files
+  RedatePhotoFile3Bucket rateBytes; // limits bytes read per second
+  long rateChecked;               // when <rateFileName> was last checked
+  RedatePhotoFile3Bucket rateFiles; // limits files opened per second
+  String rateFileName;            // file with rate limits, or null
+  long rateFileTime;              // modification date of <rateFileName>
+  long rateStarted;               // when we started counting for rates
+  RedatePhotoFile3Bucket rateWrites; // limits file changes per second
+  boolean recurseFlag;            // true if we search folders and subfolders
+  boolean redateFlag;             // true if we change file modification date
+  SimpleDateFormat renameDateFormat; // date, time prefix for file names
+  String renameDateString;        // date, time format for renaming files
+  boolean renameFlag;             // true if we rename file with date prefix
+  RedatePhotoFile3Template renameTemplate; // template for new names,
+                                  // ... or null for date prefix
+  RedatePhotoFile3Index resultIndex; // index of results, or null
+  long resultQuery;               // query difference in milliseconds, or -1
+  RedatePhotoFile3Job runningJob; // job being done by runJob(), or null
+  RedatePhotoFile3Options serverDefaults; // options from command line
+  int serverPort;                 // local port number for server, or -1
+  Vector serverQueue;             // clients waiting for an engine, or null
+  String serverToken;             // token that clients must send, or null
+  int shardCount;                 // number of worker processes, or one
+  boolean shardWorker;            // true if we are a worker process
+  int showIndex;                  // index of current message selection
+  int sidecarMode;                // 0 = no XMP, 1 = if no date, 2 = XMP first
+  HashMap sidecarNames;           // XMP sidecars in current folder, or null
+  SAXParser sidecarParser;        // parser for XMP sidecars, or null
+  Reader stdinReader;             // standard input, if used as a list
+  long totalBytes;                // number of bytes read from all files
+  long totalChange;               // number of files with successful changes
+  long totalCorrect;              // number of files that were already correct
+  long totalError;                // number of files with some type of error
+  long totalFiles;                // total number of files, all conditions
+  long totalFolders;              // total number of folders or subfolders
+  long totalNoData;               // number of files without date and time
+  int traceCount;                 // number of slowest files, or zero
+  RedatePhotoFile3Slowest traceFiles; // slowest files, or null
+  RedatePhotoFile3Slowest traceFolders; // slowest folders, or null
+  long[] tracePhases;             // milliseconds for each phase
+  String zoneFolder;              // folder for <zoneFolderRule>, or null
+  RedatePhotoFile3Rule zoneFolderRule; // best folder rule, or null
+  HashMap zoneModels;             // camera model rules, or null
+  RedatePhotoFile3Rule zoneRoot;  // tree of folder rules, or null
+
+/*
+  RedatePhotoFile3() constructor
+
+  Create an engine with default options.  Each engine has its own variables, so
+  jobs on different engines may run at the same time, in different threads.
+*/
+  public RedatePhotoFile3()
+  {
+    initialize();                 // default values for all variables
+  }
+
 
 /*
   main() method
 
   If we are running as a GUI application, set the window layout and then let
-  the graphical interface run the show.
+  the graphical interface run the show.  The command line is done by its own
+  engine, which also holds the options for the GUI.
 */
   public static void main(String[] args)
   {
-    ActionListener action;        // our shared action listener
-    Font buttonFont;              // font for buttons, labels, status, etc
+    (new RedatePhotoFile3()).runCommand(args); // options, names, or GUI
+  }
+
+
+/*
+  runCommand() method
+
+  Check the command line for options, and process file or folder names as they
+  are found.  Then run as a server, print the console summary and exit, or open
+  the graphical interface if there were no names.
+*/
+  void runCommand(String[] args)
+  {
+    int buttonSize;               // point size for buttons, labels, or -1
+    int comma;                    // index of comma in an option
     boolean consoleFlag;          // true if running as a console application
-    Border emptyBorder;           // remove borders around text areas
     int i;                        // index variable
-    Insets inputMargins;          // margins on input text areas
     boolean maximizeFlag;         // true if we maximize our main window
     int windowHeight, windowLeft, windowTop, windowWidth;
                                   // position and size for <mainFrame>
@@ -229,45 +460,14 @@ public class RedatePhotoFile3
 
     /* Initialize variables used by both console and GUI applications. */
 
-    adjustCalendar = Calendar.getInstance(); // for correcting dates and times
-    adjustValueYear = adjustValueMonth = adjustValueDay = adjustValueHour
-      = adjustValueMinute = adjustValueSecond = 0; // do not adjust dates
-    buttonFont = null;            // by default, don't use customized font
-    cancelFlag = false;           // don't cancel unless user complains
+    buttonSize = -1;              // by default, don't use customized font
     consoleFlag = false;          // assume no files or folders on command line
-    debugFlag = false;            // by default, don't show debug information
-    fontName = "Verdana";         // preferred font name for output text area
-    fontSize = 16;                // default point size for output text area
-    hiddenFlag = false;           // by default, don't process hidden files
-    mainFrame = null;             // during setup, there is no GUI window
     maximizeFlag = false;         // by default, don't maximize our main window
-    mswinFlag = System.getProperty("os.name").startsWith("Windows");
-    oldDateFlag = true;           // by default, find oldest (original) dates
-    recurseFlag = false;          // by default, don't search subfolders
-    redateFlag = true;            // by default, change file modification date
-    renameDateString = RENAME_FORMAT; // default date format to rename files
-    renameFlag = false;           // by default, don't rename file with date
-    showIndex = 0;                // by default, show messages for all files
-    statusPending = EMPTY_STATUS; // begin with no text for <statusDialog>
-    totalChange = totalCorrect = totalError = totalFiles = totalFolders
-      = totalNoData = 0;          // no files found yet
     windowHeight = DEFAULT_HEIGHT; // default window position and size
     windowLeft = DEFAULT_LEFT;
     windowTop = DEFAULT_TOP;
     windowWidth = DEFAULT_WIDTH;
 
-    /* Initialize number formatting styles. */
-
-    formatComma = NumberFormat.getInstance(); // current locale
-    formatComma.setGroupingUsed(true); // use commas or digit groups
-
-    /* Initialize formatting for dates and times in the local time zone. */
-
-    ourDateFormat = new SimpleDateFormat(DATE_FORMAT); // date, time format
-    ourTimeZone = ourDateFormat.getTimeZone(); // get local time zone
-    renameDateFormat = new SimpleDateFormat(renameDateString);
-                                  // assume correct, don't catch errors
-
     /* Check command-line parameters for options. */
 
     for (i = 0; i < args.length; i ++)
@@ -306,6 +506,70 @@ public class RedatePhotoFile3
         }
       }
 
+      else if (word.startsWith("-b") || (mswinFlag && word.startsWith("/b")))
+      {
+        /* Delay changes to file dates and names until all files in a folder
+        have been read, then make the changes together.  Some network file
+        systems are faster when directory updates are grouped together.  This
+        option may be followed by the number of folders to change at the same
+        time, each in its own thread.  Changes in one folder are always made
+        one at a time, in order, to avoid fighting over directory locks. */
+
+        batchFlag = true;
+        batchThreads = 1;         // default for -b without a number
+        if (word.length() > 2)    // was a number of folders given?
+        {
+          try                     // try to parse remainder as unsigned integer
+          {
+            batchThreads = Integer.parseInt(word.substring(2));
+          }
+          catch (NumberFormatException nfe) // if not a number or bad syntax
+          {
+            batchThreads = -1;    // set result to an illegal value
+          }
+          if ((batchThreads < 1) || (batchThreads > 99))
+          {
+            System.err.println("Number of folders must be from 1 to 99: "
+              + args[i]);         // notify user of our arbitrary limits
+            showHelp();           // show help summary
+            System.exit(EXIT_FAILURE); // exit application after printing help
+          }
+        }
+      }
+
+      else if (word.startsWith("-c") || (mswinFlag && word.startsWith("/c")))
+      {
+        /* This option is followed by the name of a file where we write a plan
+        of the changes we would make, without changing any files.  The plan
+        can be applied later with the -e option. */
+
+        if (planOutput != null)   // only one plan file allowed
+        {
+          System.err.println("Only one change plan file allowed: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        if (organizeRoot != null) // plans can't move files to date folders
+        {
+          System.err.println("Can't write change plan with -o option: "
+            + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        planFileName = args[i].substring(2);
+        try
+        {
+          planOutput = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(planFileName)));
+          planOutput.writeUTF(PLAN_HEADER); // identify type of file
+        }
+        catch (IOException ioe)   // can't create or write file
+        {
+          System.err.println("Can't create change plan file: " + args[i]);
+          System.exit(EXIT_FAILURE); // exit application after error
+        }
+      }
+
       else if (word.equals("-d") || (mswinFlag && word.equals("/d")))
       {
         debugFlag = true;         // show debug information
@@ -315,13 +579,127 @@ public class RedatePhotoFile3
       }
 
       else if (word.equals("-f0") || (mswinFlag && word.equals("/f0")))
-        { redateFlag = false; renameFlag = false; }
+        { auditFlag = false; redateFlag = false; renameFlag = false; }
       else if (word.equals("-f1") || (mswinFlag && word.equals("/f1")))
-        { redateFlag = true; renameFlag = false; }
+        { auditFlag = false; redateFlag = true; renameFlag = false; }
       else if (word.equals("-f2") || (mswinFlag && word.equals("/f2")))
-        { redateFlag = false; renameFlag = true; }
+        { auditFlag = false; redateFlag = false; renameFlag = true; }
       else if (word.equals("-f3") || (mswinFlag && word.equals("/f3")))
-        { redateFlag = true; renameFlag = true; }
+        { auditFlag = false; redateFlag = true; renameFlag = true; }
+      else if (word.equals("-f4") || (mswinFlag && word.equals("/f4")))
+        { auditFlag = true; redateFlag = false; renameFlag = false; }
+
+      else if (word.startsWith("-e") || (mswinFlag && word.startsWith("/e")))
+      {
+        /* This option is followed by the name of a change plan file, written
+        earlier with the -c option.  Make the planned changes without reading
+        any photo files, if the files haven't changed since the plan. */
+
+        consoleFlag = true;       // don't allow GUI methods to be called
+        applyPlan(args[i].substring(2));
+        if (cancelFlag) break;    // exit <for> loop if cancel or fatal error
+      }
+
+      else if (word.equals("-jw") || (mswinFlag && word.equals("/jw")))
+      {
+        /* This option is given by a coordinator to worker processes that it
+        starts.  Workers print their totals in a form the coordinator can read,
+        instead of printing a summary for the user. */
+
+        shardWorker = true;       // we are a worker process
+      }
+
+      else if (word.equals("-g") || (mswinFlag && word.equals("/g"))
+        || word.equals("-g1") || (mswinFlag && word.equals("/g1")))
+      {
+        driftMode = 1;            // estimate clock drift for each camera
+      }
+      else if (word.equals("-g0") || (mswinFlag && word.equals("/g0")))
+        driftMode = 0;            // don't estimate clock drift
+      else if (word.equals("-g2") || (mswinFlag && word.equals("/g2")))
+        driftMode = 2;            // estimate clock drift for each folder
+
+      else if (word.startsWith("-i") || (mswinFlag && word.startsWith("/i")))
+      {
+        /* This option is followed by a list of three numbers for the rate
+        limits (bytes read, files opened, files changed per second), or by the
+        name of a file with those numbers.  The file is read again if it
+        changes while we are running, so that the limits can be adjusted
+        without stopping, say when office hours begin or end. */
+
+        if (word.startsWith("(", 2)) // are limits given on command line?
+        {
+          if (setRates(word.substring(2)) == false)
+          {
+            System.err.println("Invalid rate limits: " + args[i]);
+            showHelp();           // show help summary
+            System.exit(EXIT_FAILURE); // exit application after printing help
+          }
+        }
+        else                      // limits are in a file
+        {
+          rateFileName = args[i].substring(2); // original uppercase, lowercase
+          checkRateFile();        // read the file once now
+          if (rateFileTime < 0)   // file not found or bad syntax
+          {
+            System.err.println("Invalid rate limits file: " + args[i]);
+            showHelp();           // show help summary
+            System.exit(EXIT_FAILURE); // exit application after printing help
+          }
+        }
+      }
+
+      else if (word.startsWith("-j") || (mswinFlag && word.startsWith("/j")))
+      {
+        /* This option is followed by the number of worker processes (JVMs) to
+        start.  File and folder names from the command line are divided among
+        the workers, and we only collect their reports and totals. */
+
+        try                       // try to parse remainder as unsigned integer
+        {
+          shardCount = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          shardCount = -1;        // set result to an illegal value
+        }
+        if ((shardCount < 1) || (shardCount > SHARD_LIMIT)
+          || ((shardCount > 1) && (resultIndex != null)))
+        {
+          System.err.println("Number of workers must be from 1 to "
+            + SHARD_LIMIT + ", without an index: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-k") || (mswinFlag && word.startsWith("/k")))
+      {
+        /* With worker processes (the -j option), give units of work to workers
+        as they finish, largest first.  Large folders are split into smaller
+        units.  This option may be followed by the name of a file where folder
+        sizes are kept between runs, for better guesses about what is large. */
+
+        balanceFlag = true;       // workers get largest folders first
+        if (word.length() > 2)    // was a history file given?
+          balanceFile = args[i].substring(2); // original uppercase, lowercase
+      }
+
+      else if (word.startsWith("-l") || (mswinFlag && word.startsWith("/l")))
+      {
+        /* This option is followed by the name of a file with a list of file
+        or folder names, one per line or separated by null bytes.  If there is
+        no file name, then the list is read from standard input.  Names are
+        read and processed one at a time, without searching folders for
+        changes we already know about. */
+
+        consoleFlag = true;       // don't allow GUI methods to be called
+        if ((shardCount > 1) || (serverPort > 0)) // workers or a server?
+          { /* names will be given to workers later, or are an error */ }
+        else
+          processNameList(args[i].substring(2));
+        if (cancelFlag) break;    // exit <for> loop if cancel or fatal error
+      }
 
       else if (word.startsWith("-m") || (mswinFlag && word.startsWith("/m")))
       {
@@ -346,22 +724,123 @@ public class RedatePhotoFile3
         }
       }
 
+      else if (word.startsWith("-n") || (mswinFlag && word.startsWith("/n")))
+      {
+        /* This option is followed by the number of slowest files and folders
+        to show after processing, along with the time spent in each phase.
+        The number is optional. */
+
+        try                       // try to parse remainder as unsigned integer
+        {
+          traceCount = (word.length() > 2) ? Integer.parseInt(word.substring(2))
+            : 10;                 // default number of slowest files, folders
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          traceCount = -1;        // set result to an illegal value
+        }
+        if ((traceCount < 1) || (traceCount > 9999))
+        {
+          System.err.println("Number of slowest files must be from 1 to 9999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        traceFiles = new RedatePhotoFile3Slowest(traceCount);
+        traceFolders = new RedatePhotoFile3Slowest(traceCount);
+      }
+
+      else if (word.startsWith("-o") || (mswinFlag && word.startsWith("/o")))
+      {
+        /* This option is followed by a root folder where files are moved into
+        subfolders by date, such as 2017/06/30 for the default pattern.  The
+        root may start with a SimpleDateFormat pattern in parentheses for the
+        subfolders, using / between folder names: -o(yyyy/MM)d:\sorted */
+
+        if (planOutput != null)   // plans can't move files to date folders
+        {
+          System.err.println("Can't move files with -c option: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        try { setOrganizeFolder(args[i].substring(2)); }
+        catch (IllegalArgumentException iae) // pattern or folder not accepted
+        {
+          System.err.println("Invalid date folders (" + iae.getMessage()
+            + "): " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-p") || (mswinFlag && word.startsWith("/p")))
       {
         /* This option is followed by a SimpleDateFormat pattern (string) used
-        as a prefix when renaming files to have the embedded date and time. */
+        as a prefix when renaming files to have the embedded date and time.
+        A pattern with braces is a template for the whole new name, such as
+        {date:yyyy}/{camera}_{seq:04}{ext} to put files in folders by year. */
 
-        renameDateString = args[i].substring(2);
-        try { renameDateFormat = new SimpleDateFormat(renameDateString); }
+        try { setRenameFormat(args[i].substring(2)); }
         catch (IllegalArgumentException iae) // pattern was not accepted
         {
-          System.err.println("Invalid SimpleDateFormat pattern: " + args[i]);
+          System.err.println("Invalid rename pattern (" + iae.getMessage()
+            + "): " + args[i]);
           showHelp();             // show help summary
           System.exit(EXIT_FAILURE); // exit application after printing help
         }
         renameFlag = (renameDateString.length() > 0); // pattern enables option
       }
 
+      else if (word.startsWith("-q") || (mswinFlag && word.startsWith("/q")))
+      {
+        /* This option is followed by a number of seconds.  After processing
+        files, list all files in the index of results (the -r option) where the
+        file date and the embedded date differ by more than this. */
+
+        try                       // try to parse remainder as unsigned integer
+        {
+          resultQuery = Long.parseLong(word.substring(2)) * 1000;
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          resultQuery = -1;       // set result to an illegal value
+        }
+        if (resultQuery < 0)
+        {
+          System.err.println("Invalid number of seconds: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-r") || (mswinFlag && word.startsWith("/r")))
+      {
+        /* This option is followed by the name of an index file, where we keep
+        a compact record of the result for each file.  The index is not in the
+        Java heap, so it may have millions of files.  An existing index is
+        added to, not replaced.  With no file name, we use a temporary index
+        that is deleted when we exit. */
+
+        if ((resultIndex != null) || (shardCount > 1))
+        {
+          System.err.println(
+            "Only one index allowed, and not with worker processes: "
+            + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        try
+        {
+          resultIndex = new RedatePhotoFile3Index(args[i].substring(2));
+        }
+        catch (IOException ioe)   // can't create or read index file
+        {
+          System.err.println("Can't open index file " + args[i] + ": "
+            + ioe.getMessage());
+          System.exit(EXIT_FAILURE); // exit application after error
+        }
+      }
+
       else if (word.equals("-s") || (mswinFlag && word.equals("/s"))
         || word.equals("-s1") || (mswinFlag && word.equals("/s1")))
       {
@@ -370,6 +849,15 @@ public class RedatePhotoFile3
       else if (word.equals("-s0") || (mswinFlag && word.equals("/s0")))
         recurseFlag = false;      // stop doing subfolders
 
+      else if (word.equals("-selftest") || (mswinFlag
+        && word.equals("/selftest")))
+      {
+        /* This option is for maintainers, and isn't in the help summary.
+        Compare scanDateBytes() with the original state machine, then exit. */
+
+        System.exit(selfTest() ? EXIT_SUCCESS : EXIT_FAILURE);
+      }
+
       else if (word.equals("-t") || (mswinFlag && word.equals("/t"))
         || word.equals("-t1") || (mswinFlag && word.equals("/t1")))
       {
@@ -378,6 +866,23 @@ public class RedatePhotoFile3
       else if (word.equals("-t0") || (mswinFlag && word.equals("/t0")))
         oldDateFlag = true;       // find oldest (original) date and time
 
+      else if (word.startsWith("-t(") || (mswinFlag && word.startsWith("/t(")))
+      {
+        /* This option is followed by rules in parentheses for choosing among
+        the dates found in a file: -t(original,nothumb,nofuture).  Dates that
+        aren't ignored, and that have the same preference, are chosen by the
+        -t0 or -t1 option.  Empty parentheses remove all rules. */
+
+        try { setRankRules(args[i].substring(2)); }
+        catch (IllegalArgumentException iae) // rules were not accepted
+        {
+          System.err.println("Invalid date rules (" + iae.getMessage()
+            + "): " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-u") || (mswinFlag && word.startsWith("/u")))
       {
         /* This option is followed by a font point size that will be used for
@@ -399,9 +904,7 @@ public class RedatePhotoFile3
           showHelp();             // show help summary
           System.exit(EXIT_FAILURE); // exit application after printing help
         }
-        buttonFont = new Font(SYSTEM_FONT, Font.PLAIN, size); // for big sizes
-//      buttonFont = new Font(SYSTEM_FONT, Font.BOLD, size); // for small sizes
-        fontSize = size;          // use same point size for output text font
+        buttonSize = size;        // font is created later by GUI, if any
       }
 
       else if (word.startsWith("-w") || (mswinFlag && word.startsWith("/w")))
@@ -428,9 +931,66 @@ public class RedatePhotoFile3
         }
       }
 
+      else if (word.startsWith("-v") || (mswinFlag && word.startsWith("/v")))
+      {
+        /* This option is followed by a port number, and optionally by a
+        comma and the name of a file with a token that clients must send.  We
+        run as a server for other programs on the same computer, and file or
+        folder names come from their requests, not from our command line. */
+
+        comma = word.indexOf(','); // is there a token file?
+        if ((comma > 0) && (openServerToken(args[i].substring(comma + 1))
+          == false))              // token file must be valid
+        {
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+        try                       // try to parse remainder as unsigned integer
+        {
+          serverPort = Integer.parseInt(word.substring(2, ((comma > 0) ? comma
+            : word.length())));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          serverPort = -1;        // set result to an illegal value
+        }
+        if ((serverPort < 1) || (serverPort > 65535))
+        {
+          System.err.println("Server port number must be from 1 to 65535: "
+            + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.equals("-x") || (mswinFlag && word.equals("/x")))
         maximizeFlag = true;      // true if we maximize our main window
 
+      else if (word.equals("-y") || (mswinFlag && word.equals("/y"))
+        || word.equals("-y1") || (mswinFlag && word.equals("/y1")))
+      {
+        sidecarMode = 1;          // XMP sidecar date if no date in file
+      }
+      else if (word.equals("-y0") || (mswinFlag && word.equals("/y0")))
+        sidecarMode = 0;          // don't look for XMP sidecars
+      else if (word.equals("-y2") || (mswinFlag && word.equals("/y2")))
+        sidecarMode = 2;          // XMP sidecar date before date in file
+
+      else if (word.startsWith("-z") || (mswinFlag && word.startsWith("/z")))
+      {
+        /* This option is followed by the name of a file with rules for
+        adjusting dates and times by folder or by camera model, for archives
+        with photos from cameras set to different time zones or clocks. */
+
+        if ((zoneRoot != null) || (openZoneRules(args[i].substring(2))
+          == false))              // only one rules file, and it must be valid
+        {
+          System.err.println("Invalid or duplicate rules file: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-") || (mswinFlag && word.startsWith("/")))
       {
         System.err.println("Option not recognized: " + args[i]);
@@ -444,17 +1004,72 @@ public class RedatePhotoFile3
         folder name. */
 
         consoleFlag = true;       // don't allow GUI methods to be called
-        processFileOrFolder(new File(args[i]));
+        if ((shardCount > 1) || (serverPort > 0)) // workers or a server?
+          { /* names will be given to workers later, or are an error */ }
+        else
+          processFileOrFolder(new File(args[i]));
         if (cancelFlag) break;    // exit <for> loop if cancel or fatal error
       }
     }
 
+    /* If we have worker processes, then start them now with our options and
+    their share of the file and folder names, and wait for them to finish.
+    Sequence numbers in rename templates count files in the order that one
+    process finds them, so they would depend on the number of workers. */
+
+    if ((shardCount > 1) && (renameTemplate != null)
+      && renameTemplate.sequenceFlag) // would -j change the names?
+    {
+      System.err.println("Rename template with {seq} not allowed with -j: "
+        + renameDateString);
+      showHelp();                 // show help summary
+      System.exit(EXIT_FAILURE);  // exit application after printing help
+    }
+
+    if (consoleFlag && (shardCount > 1))
+      runShards(args);            // divide work among worker processes
+
+    /* If we are a server, then wait for requests and never return. */
+
+    if ((serverPort > 0) && consoleFlag) // names are only from requests
+    {
+      System.err.println("File or folder names not allowed with -v option.");
+      showHelp();                 // show help summary
+      System.exit(EXIT_FAILURE);  // exit application after printing help
+    }
+    if (serverPort > 0)           // are we a server for other programs?
+      runServer();                // exits on fatal errors only
+
     /* If running as a console application, print a summary of what we found
     and/or changed.  Exit to the system with an integer status. */
 
+    if ((consoleFlag == false) && (resultQuery >= 0)) // only a query?
+    {
+      closeResults();             // query index of results, then close
+      System.exit(EXIT_UNKNOWN);  // nothing changed
+    }
     if (consoleFlag)              // was at least one file/folder given?
     {
-      printSummary();             // what we found and what was changed
+      flushBatch();               // make any changes still pending
+      reportBatches(0);           // wait for folders in other threads
+      if (planOutput != null)     // are we writing a change plan?
+        closePlan();              // finish change plan, print count
+      if (resultIndex != null)    // are we keeping an index of results?
+        closeResults();           // query index if requested, then close
+      if (shardWorker)            // are we a worker for some coordinator?
+      {
+        if (auditFlag)            // coordinator copies our audit to output
+          printAudit();
+        if (batchCount > 0)       // coordinator copies our timing to output
+          printBatches();
+        if (traceCount > 0)
+          printTrace();
+        if (driftStats.size() > 0) // coordinator adds our drift estimates
+          printDriftTotals();
+        putOutput(totalsText());  // one line that runShards() can parse
+      }
+      else
+        printSummary();           // what we found and what was changed
       if (totalError > 0)         // were there any errors?
         System.exit(EXIT_FAILURE);
       else if (totalChange > 0)   // were any files successfully changed?
@@ -466,1431 +1081,7405 @@ public class RedatePhotoFile3
     /* There were no file or folder names on the command line.  Open the
     graphical user interface (GUI).  We don't need to be inside an if-then-else
     construct here because the console application called System.exit() above.
-    The standard Java interface style is the most reliable, but you can switch
-    to something closer to the local system, if you want. */
+    The GUI is in a separate class, so that the console application doesn't
+    load the AWT or Swing classes. */
 
-//  try
-//  {
-//    UIManager.setLookAndFeel(
-//      UIManager.getCrossPlatformLookAndFeelClassName());
-////    UIManager.getSystemLookAndFeelClassName());
-//  }
-//  catch (Exception ulafe)
-//  {
-//    System.err.println("Unsupported Java look-and-feel: " + ulafe);
-//  }
+    (new RedatePhotoFile3Gui(this)).createWindow(buttonSize, maximizeFlag,
+      windowLeft, windowTop, windowWidth, windowHeight);
 
-    /* Initialize shared graphical objects. */
+  } // end of runCommand() method
 
-    action = new RedatePhotoFile3User(); // create our shared action listener
-    emptyBorder = BorderFactory.createEmptyBorder(); // for removing borders
-    fileChooser = new JFileChooser(); // create our shared file chooser
-    inputMargins = new Insets(1, 3, 2, 3); // top, left, bottom, right margins
-    statusTimer = new javax.swing.Timer(TIMER_DELAY, action);
-                                  // update status message on clock ticks only
+// ------------------------------------------------------------------------- //
 
-    /* If our preferred font is not available for the output text area, then
-    use the boring default font for the local system. */
+/*
+  addBalanceName(), addBalanceFile(), and addBalanceFolder() methods
+
+  Add a file name to a unit of work for worker processes (-k option), starting
+  a new unit if the caller's unit is null or full.  Return the unit with the
+  file, which the caller gives back to us for the next file.  Folders are
+  always a new unit, with the number of files from an earlier run as its
+  weight, or else the number of names in the folder.  Names from the command
+  line or from lists may be files or folders.
+*/
+  RedatePhotoFile3Unit addBalanceName(RedatePhotoFile3Unit chunk,
+    String name)
+  {
+    File file = new File(name);   // name may be a file or a folder
+    if (file.isDirectory() == false) // files are put together in units
+      return(addBalanceFile(chunk, null, name));
+    try { file = file.getCanonicalFile(); } // same folder names every run
+    catch (IOException ioe) { /* accept abstract file */ }
+    addBalanceFolder(file, null); // each folder is a new unit
+    return(chunk);                // caller's unit for files didn't change
+  }
 
-    if (fontName.equals((new Font(fontName, Font.PLAIN, fontSize)).getFamily())
-      == false)                   // create font, read back created name
+  RedatePhotoFile3Unit addBalanceFile(RedatePhotoFile3Unit chunk,
+    RedatePhotoFile3Unit parent, String name)
+  {
+    if ((chunk == null) || (chunk.names.size() >= BALANCE_CHUNK))
     {
-      fontName = SYSTEM_FONT;     // must replace with standard system font
+      chunk = new RedatePhotoFile3Unit(null, parent, 0);
+      balanceUnits.add(chunk);    // one more unit of work for workers
     }
+    chunk.names.add(name);
+    chunk.weight ++;              // each file name counts as one
+    return(chunk);
+  }
 
-    /* Create the graphical interface as a series of little panels inside
-    bigger panels.  The intermediate panel names are of no lasting importance
-    and hence are only numbered (panel01, panel02, etc). */
+  void addBalanceFolder(File folder, RedatePhotoFile3Unit parent)
+  {
+    long[] history;               // number of files from earlier run, or null
+    String[] list;                // names in folder, if no history
+    RedatePhotoFile3Unit unit;    // new unit of work for this folder
+    long weight;                  // our guess for number of files in folder
+
+    history = (long[]) balanceHistory.get(folder.getPath());
+    if (history != null)          // do we know from an earlier run?
+      weight = history[0];
+    else                          // no, only names in this folder
+    {
+      list = folder.list();       // faster than listFiles(), may be null
+      weight = (list == null) ? 1 : (list.length + 1);
+    }
+    unit = new RedatePhotoFile3Unit(folder, parent, weight);
+    balanceFolders.add(unit);     // keep size for history after run
+    balanceUnits.add(unit);       // one more unit of work for workers
+  }
 
-    /* Create a vertical box to stack buttons and options. */
 
-    JPanel panel01 = new JPanel();
-    panel01.setLayout(new BoxLayout(panel01, BoxLayout.Y_AXIS));
+/*
+  addBatch() method
 
-    /* Create a horizontal panel for the action buttons. */
+  Save a change for one file until all files in the same folder have been
+  read (-b option).  If the file is in a different folder than the changes
+  already saved, then make those changes first.
+*/
+  void addBatch(RedatePhotoFile3Change change)
+  {
+    File folder = change.file.getParentFile(); // folder for this file
 
-    JPanel panel11 = new JPanel(new BorderLayout(0, 0));
+    if ((batchFolder != null) && (batchFolder.equals(folder) == false))
+      flushBatch();               // different folder, finish previous folder
+    batchFolder = folder;
+    batchList.add(change);
+  }
 
-    openButton = new JButton("Open Files...");
-    openButton.addActionListener(action);
-    if (buttonFont != null) openButton.setFont(buttonFont);
-    openButton.setMnemonic(KeyEvent.VK_O);
-    openButton.setToolTipText("Start finding/opening files.");
-    panel11.add(openButton, BorderLayout.WEST);
 
-    JPanel panel12 = new JPanel(new FlowLayout(FlowLayout.CENTER, 30, 0));
+/*
+  addCandidate() method
 
-    cancelButton = new JButton("Cancel");
-    cancelButton.addActionListener(action);
-    cancelButton.setEnabled(false);
-    if (buttonFont != null) cancelButton.setFont(buttonFont);
-    cancelButton.setMnemonic(KeyEvent.VK_C);
-    cancelButton.setToolTipText("Stop finding/opening files.");
-    panel12.add(cancelButton);
+  Save a date found in the current file as a candidate for ranking (-t
+  option), with where it was found and its file offset.  A date found twice at
+  the same offset, by its tag and again by scanning bytes, is saved once with
+  the tag.  When the buffer is full, the new date replaces the lowest-ranked
+  date, if the new date ranks higher.  Nothing is created here.
+*/
+  void addCandidate(String date, int source, long position)
+  {
+    int i;                        // index variable
+    int worst;                    // index of lowest-ranked candidate
 
-    saveButton = new JButton("Save Output...");
-    saveButton.addActionListener(action);
-    if (buttonFont != null) saveButton.setFont(buttonFont);
-    saveButton.setMnemonic(KeyEvent.VK_S);
-    saveButton.setToolTipText("Copy output text to a file.");
-    panel12.add(saveButton);
+    for (i = 0; i < candidateCount; i ++) // same bytes found before?
+    {
+      if ((position >= 0) && (candidatePositions[i] == position))
+      {
+        if (source != SOURCE_SCAN) // tag tells us more than scanning
+          candidateSources[i] = source;
+        return;
+      }
+    }
+    date.getChars(0, (DATE_SIZE - 1), candidateDates[candidateCount], 0);
+    candidatePositions[candidateCount] = position;
+    candidateSources[candidateCount] = source;
+    if (candidateCount < CANDIDATE_LIMIT) // is there room for one more?
+    {
+      candidateCount ++;
+      return;
+    }
+    worst = 0;                    // buffer is full, new date is in extra slot
+    for (i = 1; i < CANDIDATE_LIMIT; i ++)
+      if (rankBetter(worst, i)) worst = i;
+    if (rankBetter(CANDIDATE_LIMIT, worst)) // is new date better?
+    {
+      System.arraycopy(candidateDates[CANDIDATE_LIMIT], 0,
+        candidateDates[worst], 0, (DATE_SIZE - 1));
+      candidatePositions[worst] = position;
+      candidateSources[worst] = source;
+    }
+  }
 
-    panel11.add(panel12, BorderLayout.CENTER);
 
-    exitButton = new JButton("Exit");
-    exitButton.addActionListener(action);
-    if (buttonFont != null) exitButton.setFont(buttonFont);
-    exitButton.setMnemonic(KeyEvent.VK_X);
-    exitButton.setToolTipText("Close this program.");
-    panel11.add(exitButton, BorderLayout.EAST);
+/*
+  addDriftTotals() method
 
-    panel01.add(panel11);
-    panel01.add(Box.createVerticalStrut(10)); // space between panels
+  Add one clock drift estimate from a worker's report (-g and -j options) to
+  our estimates.  The line has the count, mean, and sum of squares, then the
+  camera or folder.  Two estimates for the same camera or folder are combined
+  as if all samples had been added to one estimate.
+*/
+  void addDriftTotals(String line)
+  {
+    double count;                 // number of samples in both estimates
+    double delta;                 // difference between the two means
+    String key;                   // camera or folder for estimate
+    double[] stats;               // count, mean, sum of squares
+    String[] words;               // fields from worker's line
+
+    words = line.substring(SHARD_DRIFT.length()).trim().split(" ", 4);
+    key = words[3];               // may contain spaces, so must be last
+    stats = (double[]) driftStats.get(key);
+    if (stats == null)            // first estimate for this camera or folder
+    {
+      stats = new double[3];
+      driftStats.put(key, stats);
+    }
+    count = Double.parseDouble(words[0]);
+    delta = Double.parseDouble(words[1]) - stats[1];
+    stats[0] += count;            // same as adding each sample
+    stats[1] += delta * count / stats[0];
+    stats[2] += Double.parseDouble(words[2]) + (delta * delta * count
+      * (stats[0] - count) / stats[0]);
+  }
 
-    /* Options for changing which dates and times we search for. */
 
-    JPanel panel21 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
-    oldDateCheckbox = new JCheckBox(
-      "Search files for oldest date and time (original), or else ",
-      oldDateFlag);
-    if (buttonFont != null) oldDateCheckbox.setFont(buttonFont);
-    oldDateCheckbox.addActionListener(action); // do last so don't fire early
-    panel21.add(oldDateCheckbox);
-    panel21.add(Box.createHorizontalStrut(1));
+/*
+  adjustByDrift() method
+
+  Correct a date and time found in a file for the camera's clock (-g option).
+  If the camera wrote its time zone offset, then convert from that time zone to
+  our local time zone.  If the file also has a GPS date and time, then the
+  difference from the camera's original date and time is one more sample of
+  how far the camera clock is off.  We keep a running average of these samples
+  for each camera (model and serial number) or folder, and add the average to
+  every file from the same camera or folder.  Only one pass is made through the
+  files, so files read before the first GPS time from a camera aren't adjusted.
+*/
+  long adjustByDrift(File file, long millis, String givenName)
+  {
+    double delta;                 // change in mean for one sample
+    String key;                   // camera or folder for estimate
+    long offset;                  // camera time zone offset in millis, or 0
+    long original;                // camera's original date in millis, or -1
+    double sample;                // GPS time minus camera time in seconds
+    double[] stats;               // count, mean, sum of squares
+
+    offset = 0;                   // assume no time zone from camera
+    if ((foundOffset != null) && foundOffset.matches("[+-]\\d\\d:\\d\\d"))
+    {
+      offset = ((Integer.parseInt(foundOffset.substring(1, 3)) * 60)
+        + Integer.parseInt(foundOffset.substring(4, 6))) * 60000L;
+      if (foundOffset.charAt(0) == '-') offset = - offset;
+      offset -= ourTimeZone.getOffset(millis); // difference from local zone
+      millis -= offset;           // camera's local time to our local time
+      putOutDebug(givenName + " - camera time zone offset " + foundOffset);
+    }
 
-    newDateCheckbox = new JCheckBox("newest (modified) date.", (! oldDateFlag));
-    if (buttonFont != null) newDateCheckbox.setFont(buttonFont);
-    newDateCheckbox.addActionListener(action); // do last so don't fire early
-    panel21.add(newDateCheckbox);
+    if (driftMode == 1)           // one estimate for each camera
+      key = ((foundModel == null) ? "unknown camera" : foundModel)
+        + ((foundSerial == null) ? "" : (" #" + foundSerial));
+    else                          // one estimate for each folder
+      key = file.getParent();
+    stats = (double[]) driftStats.get(key);
 
-    panel01.add(panel21);
-    panel01.add(Box.createVerticalStrut(6)); // space between panels
+    original = -1;                // no camera date and time yet
+    if (foundOriginal != null)
+    {
+      try { original = ourDateFormat.parse(foundOriginal).getTime() - offset; }
+      catch (ParseException pe) { original = -1; }
+    }
+    if ((foundGpsMillis >= 0) && (original >= 0))
+    {
+      sample = (foundGpsMillis - original) / 1000.0; // drift in seconds
+      if (Math.abs(sample) > 86400) // more than a day is a bad GPS time
+        putOutDebug(givenName + " - ignoring GPS time, off by "
+          + Math.round(sample) + " seconds");
+      else                        // add sample to running average
+      {
+        if (stats == null)        // first sample for this camera or folder
+        {
+          stats = new double[3];
+          driftStats.put(key, stats);
+        }
+        stats[0] += 1;            // count, then mean and sum of squares
+        delta = sample - stats[1];
+        stats[1] += delta / stats[0];
+        stats[2] += delta * (sample - stats[1]);
+        putOutDebug(givenName + " - GPS time differs by " + Math.round(sample)
+          + " seconds");
+      }
+    }
+    if (stats != null)            // do we have an estimate for this camera?
+      millis += Math.round(stats[1]) * 1000; // whole seconds only
+    return(millis);
+  }
 
-    /* Options for adjusting dates and times by seconds, minutes, etc. */
 
-    JPanel panel23 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
-    adjustCheckbox = new JCheckBox(
-      "Adjust date and time found by adding to each as follows (or subtracting if negative):",
-      ((adjustValueYear != 0) || (adjustValueMonth != 0)
-        || (adjustValueDay != 0) || (adjustValueHour != 0)
-        || (adjustValueMinute != 0) || (adjustValueSecond != 0)));
-    if (buttonFont != null) adjustCheckbox.setFont(buttonFont);
-    panel23.add(adjustCheckbox);
-    panel01.add(panel23);
-    panel01.add(Box.createVerticalStrut(7)); // space between panels
+/*
+  adjustByRules() method
 
-    JPanel panel24 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
-    panel24.add(Box.createHorizontalStrut(22));
+  Adjust a date and time found in a file with the rules from a -z file: first
+  the rule for the deepest matching folder, then the rule for the camera model,
+  if any.  The best folder rule is remembered until the folder changes, since
+  most files come one folder at a time.
+*/
+  long adjustByRules(File file, long millis, String givenName)
+  {
+    String folder;                // folder name for <file>
+    RedatePhotoFile3Rule rule;    // camera model rule, or null
 
-    adjustFieldYear = new JTextField(String.valueOf(adjustValueYear), 3);
-    if (buttonFont != null) adjustFieldYear.setFont(buttonFont);
-    adjustFieldYear.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldYear.setMargin(inputMargins);
-    adjustFieldYear.setOpaque(false);
-    panel24.add(adjustFieldYear);
-    adjustLabelYear = new JLabel(" years, ");
-    if (buttonFont != null) adjustLabelYear.setFont(buttonFont);
-    panel24.add(adjustLabelYear);
+    folder = file.getParent();
+    if ((folder != null) && (folder.equals(zoneFolder) == false))
+    {
+      zoneFolder = folder;        // remember folder and its best rule
+      zoneFolderRule = zoneRoot.match((mswinFlag ? folder.toLowerCase()
+        : folder).split("[/\\\\]+"), 0);
+    }
+    if (zoneFolderRule != null)   // is there a rule for this folder?
+      millis = adjustByRule(zoneFolderRule, millis, givenName);
+    if ((foundModel != null) && (zoneModels != null) && ((rule =
+      (RedatePhotoFile3Rule) zoneModels.get(foundModel.toLowerCase()))
+      != null))
+    {
+      millis = adjustByRule(rule, millis, givenName);
+    }
+    return(millis);
+  }
 
-    adjustFieldMonth = new JTextField(String.valueOf(adjustValueMonth), 3);
-    if (buttonFont != null) adjustFieldMonth.setFont(buttonFont);
-    adjustFieldMonth.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldMonth.setMargin(inputMargins);
-    adjustFieldMonth.setOpaque(false);
-    panel24.add(adjustFieldMonth);
-    adjustLabelMonth = new JLabel(" months, ");
-    if (buttonFont != null) adjustLabelMonth.setFont(buttonFont);
-    panel24.add(adjustLabelMonth);
+  long adjustByRule(RedatePhotoFile3Rule rule, long millis,
+    String givenName)
+  {
+    putOutDebug(givenName + " - using rule <" + rule.text + ">");
+    if (rule.zone != null)        // camera clock in a different time zone?
+      millis += ourTimeZone.getOffset(millis) - rule.zone.getOffset(millis);
+    if (rule.seconds != 0)        // seconds to add, using calendar for DST
+    {
+      adjustCalendar.clear();
+      adjustCalendar.setTimeInMillis(millis);
+      adjustCalendar.add(Calendar.SECOND, rule.seconds);
+      millis = adjustCalendar.getTimeInMillis();
+    }
+    return(millis);
+  }
 
-    adjustFieldDay = new JTextField(String.valueOf(adjustValueDay), 3);
-    if (buttonFont != null) adjustFieldDay.setFont(buttonFont);
-    adjustFieldDay.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldDay.setMargin(inputMargins);
-    adjustFieldDay.setOpaque(false);
-    panel24.add(adjustFieldDay);
-    adjustLabelDay = new JLabel(" days, ");
-    if (buttonFont != null) adjustLabelDay.setFont(buttonFont);
-    panel24.add(adjustLabelDay);
 
-    adjustFieldHour = new JTextField(String.valueOf(adjustValueHour), 3);
-    if (buttonFont != null) adjustFieldHour.setFont(buttonFont);
-    adjustFieldHour.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldHour.setMargin(inputMargins);
-    adjustFieldHour.setOpaque(false);
-    panel24.add(adjustFieldHour);
-    adjustLabelHour = new JLabel(" hours, ");
-    if (buttonFont != null) adjustLabelHour.setFont(buttonFont);
-    panel24.add(adjustLabelHour);
+/*
+  applyChange() method
 
-    adjustFieldMinute = new JTextField(String.valueOf(adjustValueMinute), 3);
-    if (buttonFont != null) adjustFieldMinute.setFont(buttonFont);
-    adjustFieldMinute.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldMinute.setMargin(inputMargins);
-    adjustFieldMinute.setOpaque(false);
-    panel24.add(adjustFieldMinute);
-    adjustLabelMinute = new JLabel(" minutes, ");
-    if (buttonFont != null) adjustLabelMinute.setFont(buttonFont);
-    panel24.add(adjustLabelMinute);
+  Change the date, the name, and/or the folder for one file, without checking
+  the date or name again, and count the results.  This is the common code for
+  the -b and -e options, where we decide on the changes earlier and make them
+  later.  The changes may already have been made by another thread (-b#
+  option), in which case we only report and count the results.
+*/
+  void applyChange(RedatePhotoFile3Change change)
+  {
+    boolean fileChangeFlag;       // true if this file has successful changes
+    boolean fileErrorFlag;        // true if this file has failures to change
+    String givenName;             // file name only, without path
+    File newFile;                 // renamed File object for file
+    String oldText;               // " from " old date for messages, or empty
+    long start;                   // starting time for changes, or zero
+    String userNewDate;           // date and time that we show user
+
+    fileChangeFlag = false;       // nothing done yet
+    fileErrorFlag = change.errorFlag; // error before changes, or false
+    givenName = change.file.getName();
+    start = traceTime();          // time for changing file
+    if (change.applied == false)  // not already changed by another thread?
+      changeFile(change);
+    batchRetries += change.retries; // count retries, even if they failed
+    newFile = change.file;        // same file name unless we rename file
+    oldText = (change.oldText == null) ? "" : (" from " + change.oldText);
+
+    if (change.newMillis >= 0)    // is there a new date and time?
+    {
+      userNewDate = ourDateFormat.format(new Date(change.newMillis));
+      if (debugFlag)              // do we simulate the result?
+        putOutSuccess(givenName + " - simulate change " + userNewDate
+          + oldText);
+      else if (change.dateFailed == false) // did the change work?
+      {
+        putOutSuccess(givenName + " - changed date to " + userNewDate
+          + oldText);
+        fileChangeFlag = true;    // at least one change for this file
+      }
+      else                        // error from setLastModified() method
+      {
+        putOutFailure(givenName + " - failed change to " + userNewDate
+          + oldText);
+        fileErrorFlag = true;     // at least one error for this file
+      }
+    }
 
-    adjustFieldSecond = new JTextField(String.valueOf(adjustValueSecond), 3);
-    if (buttonFont != null) adjustFieldSecond.setFont(buttonFont);
-    adjustFieldSecond.setHorizontalAlignment(JTextField.RIGHT);
-    adjustFieldSecond.setMargin(inputMargins);
-    adjustFieldSecond.setOpaque(false);
-    panel24.add(adjustFieldSecond);
-    adjustLabelSecond = new JLabel(" seconds.");
-    if (buttonFont != null) adjustLabelSecond.setFont(buttonFont);
-    panel24.add(adjustLabelSecond);
+    if ((change.newName != null) && (change.newName.length() > 0))
+    {                             // is there a new file name?
+      if (debugFlag)              // do we simulate the result?
+        putOutSuccess(givenName + " - simulate rename " + change.newName);
+      else if (change.nameFailed == false) // did the rename work?
+      {
+        putOutSuccess(givenName + " - changed name to " + change.newName);
+        fileChangeFlag = true;    // at least one change for this file
+        newFile = new File(change.file.getParent(), change.newName);
+      }
+      else                        // error from renameTo() method
+      {
+        putOutFailure(givenName + " - failed rename as " + change.newName);
+        fileErrorFlag = true;     // at least one error for this file
+        newFile = change.file;    // file still has the old name
+      }
+    }
 
-    panel01.add(panel24);
-    panel01.add(Box.createVerticalStrut(6)); // space between panels
+    if (change.moveFolder != null) // is there a new date folder?
+    {
+      if (debugFlag)              // do we simulate the result?
+        putOutSuccess(givenName + " - simulate move to "
+          + change.moveFolder.getPath());
+      else if (change.moveFailed == false) // did the move work?
+      {
+        putOutSuccess(givenName + " - moved to "
+          + change.moveFolder.getPath());
+        fileChangeFlag = true;    // at least one change for this file
+        newFile = new File(change.moveFolder, newFile.getName());
+      }
+      else                        // name taken, or copy failed
+      {
+        putOutFailure(givenName + " - failed move to "
+          + change.moveFolder.getPath());
+        fileErrorFlag = true;     // at least one error for this file
+      }
+    }
+    tracePhase(TRACE_CHANGE, start);
 
-    /* Options for changing the file modification date. */
+    if (fileChangeFlag)           // were there any successful changes?
+    {
+      cacheChanged(change.file, newFile); // saved date has new file date
+      totalChange ++;             // yes, one more file with changes
+    }
+    if (fileErrorFlag)            // were there any failures to change?
+      totalError ++;              // one more file with an error
+    recordResult(newFile, change.foundMillis, change.oldMillis,
+      (fileErrorFlag ? RESULT_ERROR : RESULT_CHANGE));
 
-    JPanel panel25 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
-    redateCheckbox = new JCheckBox(
-      "Change date in system file directory using date and time as found above or adjusted.",
-      redateFlag);
-    if (buttonFont != null) redateCheckbox.setFont(buttonFont);
-    redateCheckbox.addActionListener(action); // do last so don't fire early
-    panel25.add(redateCheckbox);
+  } // end of applyChange() method
 
-    panel01.add(panel25);
-    panel01.add(Box.createVerticalStrut(5)); // space between panels
 
-    /* Options for changing the file directory name. */
+/*
+  applyPlan() method
 
-    JPanel panel27 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
-    renameCheckbox = new JCheckBox(
-      ("Rename files with a date and time prefix, similar to: "
-      + RENAME_FORMAT), renameFlag);
-    if (buttonFont != null) renameCheckbox.setFont(buttonFont);
-    renameCheckbox.addActionListener(action); // do last so don't fire early
-    panel27.add(renameCheckbox);
-    panel27.add(Box.createHorizontalStrut(5));
+  Read a change plan file written earlier with the -c option, and make the
+  changes in the plan.  We don't read any photo files.  We only check that each
+  file still exists with the same size and date as when the plan was written.
+  Files that have changed are reported as errors and are not changed again.
+*/
+  void applyPlan(String fileName)
+  {
+    File file;                    // one file from change plan
+    String givenName;             // file name only, without path
+    DataInputStream input;        // for reading change plan
+    long newMillis;               // new Java date in milliseconds, or -1
+    String newName;               // new file name, or empty string
+    long oldMillis;               // old Java date in milliseconds for file
+    long oldSize;                 // old size of file in bytes
 
-    renameFormatButton = new JButton("Set Format...");
-    renameFormatButton.addActionListener(action);
-    if (buttonFont != null) renameFormatButton.setFont(buttonFont);
-    renameFormatButton.setMnemonic(KeyEvent.VK_F);
-    renameFormatButton.setToolTipText("Edit date, time format for renaming.");
-    panel27.add(renameFormatButton);
+    try
+    {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(
+        fileName)));
+      if (input.readUTF().equals(PLAN_HEADER) == false)
+      {
+        putOutput(fileName + " - not a change plan file");
+        totalError ++;            // count as error for whole plan
+        input.close();
+        return;
+      }
+      while ((cancelFlag == false) && (input.read() == PLAN_RECORD))
+      {
+        file = new File(input.readUTF()); // same order as writePlan()
+        oldSize = input.readLong();
+        oldMillis = input.readLong();
+        newMillis = input.readLong();
+        newName = input.readUTF();
+        givenName = file.getName();
+        setStatusMessage(file.getPath()); // use name with path for status
+        totalFiles ++;            // one more file found
+
+        if ((file.isFile() == false) || (file.length() != oldSize)
+          || (file.lastModified() != oldMillis))
+        {
+          putOutFailure(givenName + " - file has changed since plan");
+          totalError ++;          // one more file with an error
+          continue;               // don't change this file
+        }
+        applyChange(new RedatePhotoFile3Change(file, oldMillis, newMillis,
+          newMillis, newName, null)); // make changes and count results
+      }
+      input.close();
+    }
+    catch (IOException ioe)       // file not found, end of file, etc
+    {
+      putOutput("Can't read change plan from " + fileName + ": "
+        + ioe.getMessage());
+      totalError ++;              // count as error, even if don't know reason
+    }
+  } // end of applyPlan() method
 
-    panel01.add(panel27);
-    panel01.add(Box.createVerticalStrut(10)); // space between panels
 
-    /* Miscellaneous options. */
+/*
+  cacheChanged() method
 
-    JPanel panel31 = new JPanel(new BorderLayout(10, 0));
+  We changed a file's date or name, so move any saved date for the file to the
+  new name, with the new file date.  Otherwise, the next run would read the
+  file again, because the file date is different.
+*/
+  void cacheChanged(File oldFile, File newFile)
+  {
+    RedatePhotoFile3Cached cached; // saved date for file, or null
+
+    if ((cacheFiles == null) || ((cached = (RedatePhotoFile3Cached)
+      cacheFiles.remove(oldFile.getPath())) == null)) // anything saved?
+    {
+      return;
+    }
+    cached.modified = newFile.lastModified(); // may be rounded by file system
+    cacheFiles.put(newFile.getPath(), cached);
+  }
+
+
+/*
+  cameraTags() method
+
+  Return true if we need Exif tags other than dates: the camera model for
+  rules (-z option) or rename templates (-p option), and more tags for
+  estimating clock drift (-g option).
+*/
+  boolean cameraTags()
+  {
+    return((zoneModels != null) || (driftMode > 0) || (renameFlag
+      && (renameTemplate != null) && renameTemplate.modelFlag));
+  }
+
+
+/*
+  changeFile() method
+
+  Make the changes for one file without reporting the results, which are saved
+  in the change for applyChange().  A failed change is tried again a few times
+  after a short wait, which gets longer each time, because network file systems
+  may fail for a moment when a server is busy.  We don't try again if the file
+  is gone, or if the new name already exists.  This may be called from several
+  threads at once (-b# option), each with different files.
+*/
+  void changeFile(RedatePhotoFile3Change change)
+  {
+    File newFile;                 // renamed or moved File object for file
+    File oldFile;                 // File object before moving, after renaming
+
+    change.applied = true;        // no changes are tried twice
+    if (debugFlag)                // do we simulate the result?
+      return;                     // yes, change nothing
+    rateWrites.take(1, this);     // wait if changing files too fast
+
+    if (change.newMillis >= 0)    // is there a new date and time?
+    {
+      while (change.file.setLastModified(change.newMillis) == false)
+      {
+        if (retryChange(change, change.file, null) == false) // try again?
+        {
+          change.dateFailed = true; // no, report failure to change date
+          break;
+        }
+      }
+    }
+
+    if ((change.newName != null) && (change.newName.length() > 0))
+    {                             // is there a new file name?
+      newFile = new File(change.file.getParent(), change.newName);
+      while (renameFile(change.file, newFile) == false)
+      {
+        if (retryChange(change, change.file, newFile) == false) // try again?
+        {
+          change.nameFailed = true; // no, report failure to rename
+          break;
+        }
+      }
+    }
+
+    if (change.moveFolder != null) // is there a new date folder?
+    {
+      oldFile = change.file;      // file name after any rename
+      if ((change.newName != null) && (change.newName.length() > 0)
+        && (change.nameFailed == false))
+      {
+        oldFile = new File(change.file.getParent(), change.newName);
+      }
+      newFile = new File(change.moveFolder, oldFile.getName());
+      while (moveFile(oldFile, newFile) == false)
+      {
+        if (retryChange(change, oldFile, newFile) == false) // try again?
+        {
+          change.moveFailed = true; // no, report failure to move
+          break;
+        }
+      }
+    }
+  }
+
+
+/*
+  checkRateFile() method
+
+  If the rate limits come from a file (-i option), then check at most once per
+  second if the file has been changed, and if so, read the new limits from the
+  first line.  Errors are reported, and the old limits are kept.  We record the
+  file's date before reading the file, so a bad file is not read again until it
+  changes.  The console clears the date after a bad file, so that the caller
+  can check the file during setup.
+*/
+  void checkRateFile()
+  {
+    long fileTime;                // modification date of rate limits file
+    BufferedReader input;         // for reading rate limits file
+    long now;                     // current time in milliseconds
+    String text;                  // first line from rate limits file
+
+    if (rateFileName == null) return; // nothing to do without a file
+    now = System.currentTimeMillis();
+    if ((rateChecked >= 0) && ((now - rateChecked) < 1000)) return;
+    rateChecked = now;            // don't check again until next second
+    fileTime = (new File(rateFileName)).lastModified(); // zero if not found
+    if ((fileTime == 0) || (fileTime == rateFileTime)) return;
+    rateFileTime = fileTime;      // same file date won't be read again
+    try                           // catch I/O errors (file not found, etc)
+    {
+      input = new BufferedReader(new FileReader(rateFileName));
+      text = input.readLine();    // only first line, may be null
+      input.close();
+    }
+    catch (IOException ioe)
+    {
+      text = null;                // same as an empty file
+    }
+    if ((text != null) && setRates(text)) // are these valid limits?
+    {
+      if ((runningJob != null) || debugFlag) // console doesn't need to know
+        putOutComment("Rate limits are " + text.trim() + " from "
+          + rateFileName);
+    }
+    else
+    {
+      putOutput("Invalid rate limits in " + rateFileName + ": " + text);
+      if (runningJob == null) rateFileTime = -1; // caller checks in setup
+    }
+  }
+
+
+/*
+  closePlan() method
+
+  Finish writing the change plan file, and tell the user how many changes are
+  in the plan.
+*/
+  void closePlan()
+  {
+    try { planOutput.close(); }   // try to close change plan file
+    catch (IOException ioe)
+    {
+      putOutput("Can't write change plan file: " + ioe.getMessage());
+      totalError ++;              // count as error, plan may be incomplete
+    }
+    planOutput = null;            // no more changes can be planned
+    if (shardWorker) return;      // coordinator will tell user about plan
+    putOutput("Wrote " + formatComma.format(planCount)
+      + ((planCount == 1) ? " planned change" : " planned changes") + " to "
+      + planFileName);
+  }
+
+
+/*
+  closeResults() method
+
+  If the user wants a query on the index of results, then list files where the
+  file date differs from the embedded date by more than the requested number of
+  seconds.  Close the index of results.
+*/
+  void closeResults()
+  {
+    long count;                   // number of files found by query
+
+    if (resultIndex == null)      // is there an index to close?
+    {
+      putOutput("No index of results to query (see -r option).");
+      return;
+    }
+    try
+    {
+      if (resultQuery >= 0)       // does the user want a query?
+      {
+        count = resultIndex.query(this, resultQuery);
+        putOutput("Query found " + formatComma.format(count)
+          + ((count == 1) ? " file" : " files") + " of "
+          + formatComma.format(resultIndex.rowCount)
+          + " rows in index with dates different by more than "
+          + formatComma.format(resultQuery / 1000) + " seconds.");
+      }
+      resultIndex.close();        // try to close index of results
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't read or write index of results: " + ioe.getMessage());
+      totalError ++;              // count as error, index may be incomplete
+    }
+    resultIndex = null;           // no more results can be added
+  }
+
+
+/*
+  findDateBytes() method
+
+  Read a block of bytes from a file, starting at a given offset, and search for
+  Exif date strings.  No more than <READ_LIMIT> bytes are read.  Return the
+  best date and time found so far, which may be the caller's date or null.
+*/
+  String findDateBytes(RandomAccessFile input, long offset, long limit,
+    String givenName, String foundBestDate)
+    throws IOException
+  {
+    int length;                   // number of bytes actually read
+
+    length = readBytes(input, offset, readBuffer, (int) Math.max(0,
+      Math.min(limit, READ_LIMIT)));
+    return(scanDateBytes(givenName, readBuffer, 0, length, foundBestDate,
+      SOURCE_SCAN, offset));
+  }
+
+
+/*
+  findDateByFormat() method
+
+  Decide what type of file we have from the first few bytes (the signature),
+  and then call the search method for that file format.  If the format has no
+  special method, or that method finds nothing, then search the beginning of
+  the file for Exif date strings.  JPEG files are only searched in segments
+  that may have dates, unless the segments don't make sense.
+*/
+  String findDateByFormat(RandomAccessFile input, String givenName)
+    throws IOException
+  {
+    String foundBestDate;         // best date, time found so far, or null
+    byte[] header;                // first few bytes of file (signature)
+    int length;                   // number of bytes in <header>
+    long now;                     // current time in milliseconds
+
+    /* The future limit must be ready before the first candidate is added,
+    because a full candidate list drops the lowest ranked date. */
+
+    now = System.currentTimeMillis();
+    if (((rankRules & RANK_FUTURE) != 0) && (now >= rankFutureTime))
+    {                             // allow one day for time zones
+      ourDateFormat.format(new Date(now + 86400000L)).getChars(0,
+        (DATE_SIZE - 1), rankFuture, 0);
+      rankFutureTime = now + 60000; // once per minute is often enough
+    }
+    header = new byte[SIGNATURE_SIZE];
+    length = readBytes(input, 0, header, SIGNATURE_SIZE);
+    foundBestDate = null;         // no valid date, time found yet
+    foundGpsMillis = -1;          // no GPS date and time found yet
+    foundModel = null;            // no camera model found yet
+    foundOffset = foundOriginal = foundSerial = null; // no other tags yet
+    candidateCount = 0;           // no dates to rank yet
+    rankThumbEnd = rankThumbStart = 0; // no thumbnail found yet
+    switch (findFileFormat(header, length))
+    {
+      case (FORMAT_JPEG):         // JPEG photos, no fall back needed
+        foundBestDate = findDateJpeg(input, givenName, foundBestDate);
+        return((rankRules != 0) ? rankDates(givenName) : foundBestDate);
+
+      case (FORMAT_MEDIA):        // HEIC photos, MP4/MOV videos, etc
+        foundBestDate = findDateMedia(input, givenName, foundBestDate);
+        break;
+
+      case (FORMAT_TIFF):         // TIFF files and camera RAW files
+        foundBestDate = findDateTiff(input, 0, givenName, foundBestDate);
+        break;
+
+      default:                    // unknown formats
+        break;                    // handled below
+    }
+    if (rankRules != 0)           // do rules choose among the dates?
+      foundBestDate = rankDates(givenName);
+    if (foundBestDate == null)    // nothing found, or nothing special done
+    {
+      foundBestDate = findDateBytes(input, 0, READ_LIMIT, givenName,
+        foundBestDate);
+      if (rankRules != 0)         // rank again with dates from all bytes
+        foundBestDate = rankDates(givenName);
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of findDateByFormat() method
+
+
+/*
+  findDateJpeg() method
+
+  A JPEG file is a series of segments, each beginning with a marker byte, and
+  most with a 16-bit length.  Exif and other metadata are in the application
+  segments (APP0 to APP15) and comments near the beginning, before the start of
+  the compressed image data (SOS).  Search only those segments, using their
+  lengths to skip everything else.  Most files need only a few kilobytes read
+  this way, instead of our full <READ_LIMIT>.  If the segments don't make sense,
+  then search the rest of the usual limit the old way.
+*/
+  String findDateJpeg(RandomAccessFile input, String givenName,
+    String foundBestDate)
+    throws IOException
+  {
+    byte[] buffer;                // bytes from one segment header
+    long length;                  // length of segment after marker
+    long limit;                   // where we stop searching in file
+    int marker;                   // marker byte for segment type
+    long offset;                  // current offset in file
+
+    buffer = new byte[4];
+    limit = Math.min(input.length(), READ_LIMIT); // same limit as before
+    offset = 2;                   // skip start of image (SOI) marker
+    while ((offset + 4) <= limit)
+    {
+      if (readBytes(input, offset, buffer, 4) < 4) break; // end of file
+      marker = buffer[1] & 0xFF;  // segment type, if this is a marker
+      if ((buffer[0] & 0xFF) != 0xFF) // segments don't make sense
+      {
+        putOutDebug(givenName + " - bad JPEG segment at offset " + offset);
+        return(findDateBytes(input, offset, (limit - offset), givenName,
+          foundBestDate));
+      }
+      else if (marker == 0xFF)    // fill bytes are allowed before a marker
+        offset ++;
+      else if ((marker == 0xD9) || (marker == 0xDA)) // end of image or scan
+        break;
+      else if ((marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD7)))
+        offset += 2;              // markers without a length
+      else
+      {
+        length = readNumber(buffer, 2, 2, true); // includes length itself
+        if (length < 2)           // segment length doesn't make sense
+        {
+          putOutDebug(givenName + " - bad JPEG segment at offset " + offset);
+          return(findDateBytes(input, offset, (limit - offset), givenName,
+            foundBestDate));
+        }
+        if ((marker == 0xE1) && (cameraTags() || (rankRules != 0))
+          && (length > 16)
+          && (readBytes(input, (offset + 4), buffer, 4) == 4)
+          && (new String(buffer, 0, 4, "ISO-8859-1").equals("Exif")))
+        {                         // Exif segment, and we want tags
+          foundBestDate = findDateTiff(input, (offset + 10), givenName,
+            foundBestDate);       // TIFF data after "Exif" and two nulls
+        }
+        if (((marker >= 0xE0) && (marker <= 0xEF)) || (marker == 0xFE))
+        {                         // application segments or comment
+          foundBestDate = findDateBytes(input, (offset + 4), Math.min((length
+            - 2), (limit - offset - 4)), givenName, foundBestDate);
+        }
+        offset += length + 2;     // skip marker and segment
+      }
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of findDateJpeg() method
+
+
+/*
+  findDateMedia() method
+
+  ISO media files (HEIC, MP4, MOV, etc) are made from "boxes", each beginning
+  with a size and a four-character type.  Some boxes contain other boxes.  We
+  skip over boxes we don't want without reading them, which is important for
+  video files that may be several gigabytes long.
+
+  Videos have a movie header box ("mvhd" inside "moov") with the creation time
+  as seconds since 1904 in UTC.  HEIC photos have a metadata box ("meta") with
+  an item information box ("iinf") that tells us which item is Exif data, and
+  an item location box ("iloc") that tells us where the item is in the file.
+*/
+  String findDateMedia(RandomAccessFile input, String givenName,
+    String foundBestDate)
+    throws IOException
+  {
+    long base;                    // base offset for one item location
+    int baseSize;                 // size of base offsets in "iloc" box
+    byte[] buffer;                // bytes from one box
+    long[] box;                   // payload start and end for one box
+    int count;                    // number of item locations
+    long exifItem;                // item number for Exif data, or -1
+    int extents;                  // number of extents for one item
+    long fileSize;                // total number of bytes in file
+    int i;                        // index into <readBuffer>
+    int indexSize;                // size of extent index, if any
+    long item;                    // item number for one item location
+    int itemSize;                 // size of item numbers
+    int length;                   // number of bytes in <buffer>
+    int lengthSize;               // size of extent lengths
+    long[] meta;                  // payload start and end for "meta" box
+    int method;                   // construction method, if any
+    long offset;                  // file offset of Exif data
+    int offsetSize;               // size of extent offsets
+    long seconds;                 // creation time in seconds since 1904
+    long size;                    // number of bytes of Exif data
+    int version;                  // version number from box header
+
+    buffer = new byte[SIGNATURE_SIZE];
+    fileSize = input.length();
+
+    /* Look for a movie header with the creation date and time.  A value of
+    zero means that the creation time is unknown. */
+
+    box = findMediaBox(input, 0, fileSize, "moov");
+    if (box != null) box = findMediaBox(input, box[0], box[1], "mvhd");
+    if ((box != null) && (readBytes(input, box[0], buffer, 12) == 12))
+    {
+      version = buffer[0];        // version 1 has 64-bit times
+      seconds = readNumber(buffer, 4, ((version == 1) ? 8 : 4), true);
+      if (seconds > 0)            // ignore zero (unknown) creation times
+        foundBestDate = pickBetterDate(givenName, foundBestDate,
+          ourDateFormat.format(new Date((seconds * 1000) - MEDIA_EPOCH)),
+          SOURCE_MEDIA, -1);
+    }
+
+    /* Look for an Exif item in the metadata.  The "meta" box has a version
+    number and flags before the boxes it contains. */
+
+    meta = findMediaBox(input, 0, fileSize, "meta");
+    if (meta == null) return(foundBestDate); // no metadata in this file
+    meta[0] += 4;                 // skip version number and flags
+    box = findMediaBox(input, meta[0], meta[1], "iinf");
+    if (box == null) return(foundBestDate); // no item information
+    exifItem = -1;                // no Exif item found yet
+    box[0] += (readBytes(input, box[0], buffer, 1) == 1) && (buffer[0] == 0)
+      ? 6 : 8;                    // skip version, flags, and entry count
+    while ((exifItem < 0)
+      && ((box = findMediaBox(input, box[0], box[1], "infe")) != null))
+    {
+      length = readBytes(input, box[0], buffer, 14);
+      if ((length == 14) && (buffer[0] == 2) // version 2 has 16-bit items
+        && (new String(buffer, 8, 4, "ISO-8859-1").equals("Exif")))
+      {
+        exifItem = readNumber(buffer, 4, 2, true);
+      }
+      else if ((length == 14) && (buffer[0] == 3) // version 3 has 32 bits
+        && (new String(buffer, 10, 4, "ISO-8859-1").equals("Exif")))
+      {
+        exifItem = readNumber(buffer, 4, 4, true);
+      }
+      box[0] = box[1];            // next search starts after this "infe" box
+      box[1] = meta[1];           // and ends with the "meta" box
+    }
+    if (exifItem < 0) return(foundBestDate); // no Exif item in this file
+
+    /* The item location box has variable-sized fields, depending upon the
+    version number and four size fields.  We only accept items with the data
+    stored in the file itself (construction method zero). */
+
+    box = findMediaBox(input, meta[0], meta[1], "iloc");
+    if (box == null) return(foundBestDate); // no item locations
+    length = readBytes(input, box[0], readBuffer, (int) Math.min((box[1]
+      - box[0]), READ_LIMIT));
+    if (length < 8) return(foundBestDate); // not big enough for header
+    version = readBuffer[0];
+    offsetSize = (readBuffer[4] >> 4) & 0x0F;
+    lengthSize = readBuffer[4] & 0x0F;
+    baseSize = (readBuffer[5] >> 4) & 0x0F;
+    indexSize = ((version == 1) || (version == 2)) ? (readBuffer[5] & 0x0F)
+      : 0;
+    itemSize = (version < 2) ? 2 : 4;
+    count = (int) readNumber(readBuffer, 6, itemSize, true);
+    i = 6 + itemSize;             // index of first item in <readBuffer>
+    while ((count --) > 0)        // for each item location
+    {
+      method = 0;                 // no construction method yet
+      if ((i + itemSize + 4) > length) break; // not enough data for item
+      item = readNumber(readBuffer, i, itemSize, true);
+      i += itemSize;
+      if ((version == 1) || (version == 2))
+      {
+        method = (int) readNumber(readBuffer, i, 2, true) & 0x0F;
+        i += 2;
+      }
+      i += 2;                     // skip data reference index
+      if ((i + baseSize + 2) > length) break;
+      base = readNumber(readBuffer, i, baseSize, true);
+      i += baseSize;
+      extents = (int) readNumber(readBuffer, i, 2, true);
+      i += 2;
+      if ((i + (extents * (indexSize + offsetSize + lengthSize))) > length)
+        break;                    // not enough data for extents
+      if ((item == exifItem) && (method == 0) && (extents > 0))
+      {
+        i += indexSize;           // we only want the first extent
+        offset = base + readNumber(readBuffer, i, offsetSize, true);
+        size = readNumber(readBuffer, (i + offsetSize), lengthSize, true);
+        if (size == 0) size = fileSize - offset; // zero means to end of file
+        return(findDateBytes(input, offset, size, givenName, foundBestDate));
+      }
+      i += extents * (indexSize + offsetSize + lengthSize);
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of findDateMedia() method
+
+
+/*
+  findDateTiff() method
+
+  TIFF files have a header with the byte order ("II" for little endian, "MM"
+  for big endian) and the offset of the first image file directory (IFD).  Each
+  directory has 12-byte entries with a tag number, data type, count, and value
+  or offset.  Most camera RAW files (CR2, DNG, NEF, ARW, etc) are TIFF files.
+  We look for the DateTime tag in the first directory and for DateTimeOriginal
+  and DateTimeDigitized in the Exif sub-directory.  If thumbnail dates are
+  ignored (-t option), then we also find where the thumbnail image is.  The
+  camera model is saved only if there are rules for camera models (-z option)
+  or a rename template with the camera model (-p option).  For estimating clock
+  drift (-g option), we also save the camera's time zone offset and serial
+  number, and the GPS date and time from the GPS sub-directory.  The caller
+  gives us the file offset for the start of the TIFF data, and all other
+  offsets are from there.
+*/
+  String findDateTiff(RandomAccessFile input, long base,
+    String givenName, String foundBestDate)
+    throws IOException
+  {
+    boolean bigEndian;            // true if TIFF data is big endian ("MM")
+    byte[] buffer;                // bytes from header or one entry
+    int count;                    // number of entries in directory
+    long den;                     // denominator of one GPS time rational
+    int directories;              // number of directories searched
+    long exifOffset;              // offset of Exif directory, or zero
+    boolean gpsFlag;              // true if current directory is GPS
+    long gpsOffset;               // offset of GPS directory, or zero
+    String gpsDate;               // GPS date stamp (UTC), or null
+    double gpsTime;               // GPS time stamp in seconds (UTC), or -1
+    int i, k;                     // index variables
+    long offset;                  // offset of current directory, or zero
+    byte[] rational;              // GPS time as three unsigned rationals
+    int tag;                      // tag number from directory entry
+    byte[] text;                  // bytes from one date string
+    long value;                   // offset of date string
+
+    buffer = new byte[SIGNATURE_SIZE];
+    rational = new byte[24];
+    text = new byte[20];
+    if (readBytes(input, base, buffer, 8) < 8) return(foundBestDate);
+    bigEndian = (buffer[0] == 'M'); // anything else is little endian ("II")
+    offset = readNumber(buffer, 4, 4, bigEndian); // first directory (IFD0)
+    directories = 0;              // no directories searched yet
+    exifOffset = gpsOffset = 0;   // no Exif or GPS directory found yet
+    gpsDate = null;
+    gpsFlag = false;
+    gpsTime = -1;
+
+    while ((offset >= 8) && ((directories ++) < 3)) // IFD0, Exif, and GPS
+    {
+      if (readBytes(input, (base + offset), buffer, 2) < 2) break;
+      count = (int) readNumber(buffer, 0, 2, bigEndian);
+      if ((count < 1) || (count > TIFF_LIMIT)) // garbage, not a directory
+        break;
+      count = readBytes(input, (base + offset + 2), readBuffer, (count * 12))
+        / 12;                     // entries that we could actually read
+      for (i = 0; i < count; i ++) // for each directory entry
+      {
+        tag = (int) readNumber(readBuffer, (i * 12), 2, bigEndian);
+        if (gpsFlag)              // GPS tags have their own numbers
+        {
+          if ((tag == 0x0007)     // GPSTimeStamp: hour, minute, second
+            && (readNumber(readBuffer, ((i * 12) + 2), 2, bigEndian) == 5)
+            && (readNumber(readBuffer, ((i * 12) + 4), 4, bigEndian) == 3))
+          {                       // must be three unsigned rationals
+            if (readBytes(input, (base + readNumber(readBuffer, ((i * 12)
+              + 8), 4, bigEndian)), rational, 24) == 24)
+            {
+              gpsTime = 0;        // sum of hours, minutes, seconds
+              for (k = 0; k < 3; k ++)
+              {
+                den = readNumber(rational, ((k * 8) + 4), 4, bigEndian);
+                gpsTime = (gpsTime * 60) + ((den == 0) ? 0 : ((double)
+                  readNumber(rational, (k * 8), 4, bigEndian) / den));
+              }
+            }
+          }
+          else if (tag == 0x001D) // GPSDateStamp as "yyyy:MM:dd"
+            gpsDate = readTiffText(input, base, (i * 12), bigEndian, 11);
+        }
+        else if ((tag == 0x0132) || (tag == 0x9003) || (tag == 0x9004))
+        {                         // DateTime, DateTimeOriginal, Digitized
+          if ((readNumber(readBuffer, ((i * 12) + 2), 2, bigEndian) == 2)
+            && (readNumber(readBuffer, ((i * 12) + 4), 4, bigEndian) == 20))
+          {                       // must be ASCII string with 20 bytes
+            value = readNumber(readBuffer, ((i * 12) + 8), 4, bigEndian);
+            if (readBytes(input, (base + value), text, 20) == 20)
+            {
+              foundBestDate = scanDateBytes(givenName, text, 0, 20,
+                foundBestDate, ((tag == 0x9003) ? SOURCE_ORIGINAL : ((tag
+                == 0x9004) ? SOURCE_DIGITIZED : SOURCE_DATETIME)), (base
+                + value));
+              if ((tag == 0x9003) && (driftMode > 0)) // camera time for GPS
+                foundOriginal = scanDateBytes(givenName, text, 0, 20, null,
+                  SOURCE_NONE, -1);
+            }
+          }
+        }
+        else if (tag == 0x8769)   // pointer to Exif sub-directory
+          exifOffset = readNumber(readBuffer, ((i * 12) + 8), 4, bigEndian);
+        else if ((tag == 0x8825) && (driftMode > 0)) // pointer to GPS
+          gpsOffset = readNumber(readBuffer, ((i * 12) + 8), 4, bigEndian);
+        else if ((tag == 0x0110) && cameraTags())
+          foundModel = readTiffText(input, base, (i * 12), bigEndian, 64);
+        else if ((tag == 0x9011) && (driftMode > 0)) // OffsetTimeOriginal
+          foundOffset = readTiffText(input, base, (i * 12), bigEndian, 7);
+        else if ((tag == 0xA431) && (driftMode > 0)) // BodySerialNumber
+          foundSerial = readTiffText(input, base, (i * 12), bigEndian, 64);
+      }
+      if ((directories == 1) && ((rankRules & RANK_THUMBNAIL) != 0)
+        && (readBytes(input, (base + offset + 2 + (count * 12)), buffer, 4)
+        == 4))                    // after IFD0, offset of IFD1 (thumbnail)
+      {
+        findThumbnail(input, base, readNumber(buffer, 0, 4, bigEndian),
+          bigEndian);
+      }
+      if (exifOffset != 0)        // Exif directory next, if any
+      {
+        offset = exifOffset;
+        exifOffset = 0;           // and don't do the same directory twice
+      }
+      else                        // then GPS directory, if any
+      {
+        offset = gpsOffset;
+        gpsOffset = 0;
+        gpsFlag = true;
+      }
+    }
+
+    /* Convert the GPS date and time to Java milliseconds, if we have both.
+    GPS times are always in UTC. */
+
+    if ((gpsDate != null) && (gpsDate.length() == 10) && (gpsTime >= 0))
+    {
+      try
+      {
+        driftCalendar.clear();    // clear any previous date, time fields
+        driftCalendar.set(Integer.parseInt(gpsDate.substring(0, 4)),
+          (Integer.parseInt(gpsDate.substring(5, 7)) - 1),
+          Integer.parseInt(gpsDate.substring(8, 10)));
+        foundGpsMillis = driftCalendar.getTimeInMillis()
+          + Math.round(gpsTime * 1000);
+      }
+      catch (NumberFormatException nfe) { /* ignore bad GPS date */ }
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of findDateTiff() method
+
+
+/*
+  findFileFormat() method
+
+  Compare the first few bytes of a file with our table of known signatures,
+  and return the file format, or FORMAT_UNKNOWN if there is no match.
+*/
+  int findFileFormat(byte[] header, int length)
+  {
+    int i, k;                     // index variables
+    String signature;             // one signature from table, in hexadecimal
+
+    for (i = 0; i < SIGNATURE_HEX.length; i ++)
+    {
+      signature = SIGNATURE_HEX[i];
+      if ((signature.length() / 2) > length) // file is too short to match
+        continue;
+      for (k = 0; k < signature.length(); k += 2) // for each byte in signature
+      {
+        if ((signature.charAt(k) != '.') && ((header[k / 2] & 0xFF)
+          != Integer.parseInt(signature.substring(k, (k + 2)), 16)))
+        {
+          break;                  // stop on first byte that doesn't match
+        }
+      }
+      if (k >= signature.length()) // did all bytes match?
+        return(SIGNATURE_FORMATS[i]);
+    }
+    return(FORMAT_UNKNOWN);       // no signature matches this file
+
+  } // end of findFileFormat() method
+
+
+/*
+  findMediaBox() method
+
+  Search the ISO media boxes between two file offsets for the first box with a
+  given four-character type.  Return the start and end offsets of that box's
+  contents (after the size and type), or null if not found.  The end offset is
+  also where the next box begins.
+*/
+  long[] findMediaBox(RandomAccessFile input, long start, long end,
+    String type)
+    throws IOException
+  {
+    byte[] buffer;                // bytes from one box header
+    int count;                    // number of boxes checked so far
+    int header;                   // number of bytes in box header
+    long size;                    // total number of bytes in box
+
+    buffer = new byte[SIGNATURE_SIZE];
+    count = 0;                    // no boxes checked yet
+    while (((start + 8) <= end) && ((count ++) < MEDIA_LIMIT))
+    {
+      if (readBytes(input, start, buffer, 16) < 8) break; // end of file
+      size = readNumber(buffer, 0, 4, true);
+      header = 8;                 // normal box header is size and type
+      if (size == 1)              // 64-bit size follows the type
+      {
+        size = readNumber(buffer, 8, 8, true);
+        header = 16;
+      }
+      else if (size == 0)         // box continues to end of file
+        size = end - start;
+      if ((size < header) || ((start + size) > end)) // garbage, not a box
+        break;
+      if (new String(buffer, 4, 4, "ISO-8859-1").equals(type))
+        return(new long[] {(start + header), (start + size)});
+      start += size;              // skip over this box to the next
+    }
+    return(null);                 // box not found
+
+  } // end of findMediaBox() method
+
+
+/*
+  findSidecar() method
+
+  Return the XMP sidecar file for a photo (-y option), or null if there is no
+  sidecar.  Lightroom replaces the extension (IMG_1234.xmp for IMG_1234.CR2),
+  and some other programs add to the full name (IMG_1234.CR2.xmp).  For files
+  in a folder, we look in the list of sidecars made from the same directory
+  listing, so there are no more trips to the file system.
+*/
+  File findSidecar(File canon)
+  {
+    int i;                        // index variable
+    String name;                  // file name only, without path
+    String[] names;               // possible names for sidecar file
+    File sidecar;                 // File object for sidecar, or null
+
+    name = canon.getName();
+    i = name.lastIndexOf('.');    // extension starts with last period
+    names = new String[] {(((i > 0) ? name.substring(0, i) : name) + ".xmp"),
+      (name + ".xmp")};
+    for (i = 0; i < names.length; i ++)
+    {
+      if (sidecarNames != null)   // did we list this folder?
+        sidecar = (File) sidecarNames.get(names[i].toLowerCase());
+      else                        // no, file was given by name
+      {
+        sidecar = new File(canon.getParentFile(), names[i]);
+        if (sidecar.isFile() == false) sidecar = null;
+      }
+      if (sidecar != null)        // did we find a sidecar?
+        return(sidecar);
+    }
+    return(null);                 // no sidecar for this file
+  }
+
+
+/*
+  findThumbnail() method
+
+  Find where the thumbnail image is in a TIFF structure, from the second
+  directory (IFD1), so that dates inside the thumbnail can be ignored (-t
+  option).  Thumbnails are small JPEG images with their own Exif data, which
+  may have dates from an older camera or editing program.  The caller gives
+  us the offset of IFD1 from the start of the TIFF data.
+*/
+  void findThumbnail(RandomAccessFile input, long base, long offset,
+    boolean bigEndian)
+    throws IOException
+  {
+    byte[] buffer;                // bytes from one directory entry
+    int count;                    // number of entries in directory
+    int i;                        // index variable
+    long length;                  // size of thumbnail image, or -1
+    long start;                   // offset of thumbnail image, or -1
+    int tag;                      // tag number from directory entry
+
+    buffer = new byte[12];
+    if ((offset < 8) || (readBytes(input, (base + offset), buffer, 2) < 2))
+      return;                     // no IFD1 in this file
+    count = (int) readNumber(buffer, 0, 2, bigEndian);
+    if ((count < 1) || (count > TIFF_LIMIT)) // garbage, not a directory
+      return;
+    length = start = -1;          // nothing found yet
+    for (i = 0; i < count; i ++)  // for each directory entry
+    {
+      if (readBytes(input, (base + offset + 2 + (i * 12)), buffer, 12) < 12)
+        break;
+      tag = (int) readNumber(buffer, 0, 2, bigEndian);
+      if (tag == 0x0201)          // JPEGInterchangeFormat (offset)
+        start = readNumber(buffer, 8, 4, bigEndian);
+      else if (tag == 0x0202)     // JPEGInterchangeFormatLength
+        length = readNumber(buffer, 8, 4, bigEndian);
+    }
+    if ((start > 0) && (length > 0)) // did we find both?
+    {
+      rankThumbStart = base + start;
+      rankThumbEnd = rankThumbStart + length;
+    }
+  }
+
+
+/*
+  finishBatch() method
+
+  Count the time for changing one folder with the -b option, for the report of
+  slowest folders.  When timing phases (-n option), every folder's time is also
+  shown as a comment, since the report only lists the slowest.
+*/
+  void finishBatch(RedatePhotoFile3Batch batch)
+  {
+    batchCount ++;                // one more folder changed
+    batchMillis += batch.millis;
+    if (traceCount > 0)           // are we timing files and folders?
+      putOutComment(batch.folder.getPath() + " - changed folder in "
+        + formatComma.format(batch.millis) + " ms");
+    if (batchSlowest.keeps(batch.millis)) // only create text if kept
+      batchSlowest.add(batch.millis, batch.folder.getPath() + " ("
+        + formatComma.format(batch.changes.size())
+        + ((batch.changes.size() == 1) ? " file)" : " files)"));
+  }
+
+
+/*
+  finishName() method
+
+  A worker process has finished one name from a unit of work (-k option).  Add
+  the number of files done to the unit and to all folders above it, for the
+  history of folder sizes.  Called from the threads that feed names to
+  workers.
+*/
+  synchronized void finishName(RedatePhotoFile3Unit unit, long files)
+  {
+    while (unit != null)          // for this unit and all parent folders
+    {
+      unit.files += files;
+      unit = unit.parent;
+    }
+  }
+
+
+/*
+  flushBatch() method
+
+  Make all changes saved by addBatch() for the current folder, in the same
+  order as the files were read.  Changes are dropped if the user cancels.  With
+  the -b# option, the folder is given to another thread, and we report results
+  for any earlier folders that are done, in the same order as the folders were
+  read.  We wait if too many folders are waiting.  Callers must call
+  reportBatches() with zero at the end, to wait for all folders.
+*/
+  void flushBatch()
+  {
+    RedatePhotoFile3Batch batch;  // changes for one folder
+    int i;                        // index variable
+    long start;                   // starting time for this folder
+    Thread thread;                // new thread for changing folders
+
+    if (batchList.size() == 0)    // are there any changes pending?
+    {
+      batchFolder = null;
+      return;
+    }
+    batch = new RedatePhotoFile3Batch(batchFolder, batchList);
+    batchFolder = null;           // no changes pending
+    batchList = new Vector();     // old list now belongs to <batch>
+
+    if (batchThreads < 2)         // one folder at a time, in this thread?
+    {
+      start = System.currentTimeMillis();
+      for (i = 0; i < batch.changes.size(); i ++)
+      {
+        if (cancelFlag) break;    // exit <for> loop if cancel or fatal error
+        applyChange((RedatePhotoFile3Change) batch.changes.get(i));
+      }
+      batch.millis = System.currentTimeMillis() - start;
+      finishBatch(batch);         // count time for this folder
+      return;
+    }
+
+    while (batchStarted < batchThreads) // start threads only when needed
+    {
+      thread = new Thread(new RedatePhotoFile3Renamer(this, batchStarted),
+        ("renamer" + (batchStarted + 1)));
+      thread.setDaemon(true);     // don't keep JVM running after main()
+      thread.start();
+      batchStarted ++;
+    }
+    synchronized (batchQueue)     // give folder to next free thread
+    {
+      batchPending.add(batch);
+      batchQueue.add(batch);
+      batchQueue.notifyAll();
+    }
+    reportBatches(batchThreads * 2); // report done folders, maybe wait
+  }
+
+
+/*
+  initialize() method
+
+  Set all instance variables to their default values, for the console
+  application, the GUI, or callers who use this class as a library.  This is
+  called once by the constructor for each engine.
+*/
+  void initialize()
+  {
+    adjustCalendar = Calendar.getInstance(); // for correcting dates and times
+    adjustValueYear = adjustValueMonth = adjustValueDay = adjustValueHour
+      = adjustValueMinute = adjustValueSecond = 0; // do not adjust dates
+    auditFlag = false;            // by default, find dates and change files
+    balanceFile = null;           // by default, no history of folder sizes
+    balanceFlag = false;          // and workers get names by hash
+    balanceFolders = new Vector();
+    balanceHistory = new HashMap();
+    balanceUnits = new Vector();
+    batchCount = 0;               // no folders changed yet
+    batchFlag = false;            // by default, change each file when found
+    batchFolder = null;           // no changes pending yet
+    batchList = new Vector();
+    batchMillis = batchRetries = 0;
+    batchPending = new Vector();
+    batchQueue = new Vector();
+    batchSlowest = new RedatePhotoFile3Slowest(BATCH_SLOWEST);
+    batchStarted = 0;             // threads are started when needed
+    batchThreads = 1;             // by default, one folder at a time
+    cacheFileHits = cacheFolderHits = 0; // nothing saved yet
+    cacheFiles = cacheFolders = null; // only GUI and server save results
+    cancelFlag = false;           // don't cancel unless user complains
+    candidateCount = 0;           // no dates found yet
+    candidateDates = new char[CANDIDATE_LIMIT + 1][DATE_SIZE - 1];
+                                  // one extra for a new date when full
+    candidatePositions = new long[CANDIDATE_LIMIT + 1];
+    candidateSources = new int[CANDIDATE_LIMIT + 1];
+    debugFlag = false;            // by default, don't show debug information
+    driftCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    driftMode = 0;                // by default, don't estimate clock drift
+    driftStats = new HashMap();   // no estimates yet
+    extractor = null;             // by default, find dates ourselves
+    hiddenFlag = false;           // by default, don't process hidden files
+    mswinFlag = System.getProperty("os.name").startsWith("Windows");
+    oldDateFlag = true;           // by default, find oldest (original) dates
+    organizeFolders = null;       // by default, don't move files (-o option)
+    organizeFormat = null;
+    organizeRoot = null;
+    planCount = 0;                // no changes planned yet
+    planFileName = null;          // by default, don't write a change plan
+    planOutput = null;
+    rateBytes = new RedatePhotoFile3Bucket(); // by default, no rate limits
+    rateChecked = rateFileTime = -1;
+    rateFileName = null;
+    rateFiles = new RedatePhotoFile3Bucket();
+    rateStarted = System.currentTimeMillis();
+    rateWrites = new RedatePhotoFile3Bucket();
+    recurseFlag = false;          // by default, don't search subfolders
+    redateFlag = true;            // by default, change file modification date
+    renameDateString = RENAME_FORMAT; // default date format to rename files
+    renameFlag = false;           // by default, don't rename file with date
+    resultIndex = null;           // by default, don't keep an index of results
+    resultQuery = -1;             // and don't query the index
+    runningJob = null;            // no jobs from library callers yet
+    serverPort = -1;              // by default, we are not a server
+    serverQueue = null;           // no pool of engines until server starts
+    serverToken = null;           // by default, clients don't need a token
+    shardCount = 1;               // by default, no worker processes
+    shardWorker = false;          // and we are not a worker process
+    showIndex = 0;                // by default, show messages for all files
+    sidecarMode = 0;              // by default, don't look for XMP sidecars
+    sidecarNames = null;          // not in a folder yet
+    sidecarParser = null;         // created when first needed
+    totalBytes = totalChange = totalCorrect = totalError = totalFiles
+      = totalFolders = totalNoData = 0; // no files found yet
+    traceCount = 0;               // by default, don't time files and folders
+    traceFiles = traceFolders = null;
+    tracePhases = new long[TRACE_NAMES.length];
+    zoneFolder = null;            // by default, no rules for folders or models
+    zoneFolderRule = null;
+    zoneModels = null;
+    zoneRoot = null;
+
+    /* Initialize number formatting styles. */
+
+    formatComma = NumberFormat.getInstance(); // current locale
+    formatComma.setGroupingUsed(true); // use commas or digit groups
+    auditStats = new RedatePhotoFile3Audit(AUDIT_WORST, formatComma);
+                                  // audit counts use the same format
+
+    /* Initialize formatting for dates and times in the local time zone. */
+
+    ourDateFormat = new SimpleDateFormat(DATE_FORMAT); // date, time format
+    ourTimeZone = ourDateFormat.getTimeZone(); // get local time zone
+    rankFuture = new char[DATE_SIZE - 1]; // calculated when first needed
+    rankFutureTime = 0;
+    rankRules = 0;                // by default, only oldest or newest date
+    rankThumbEnd = rankThumbStart = 0; // no thumbnail found yet
+    readBuffer = new byte[(int) READ_LIMIT]; // reused for each file we read
+    renameDateFormat = new SimpleDateFormat(renameDateString);
+                                  // assume correct, don't catch errors
+    renameTemplate = null;        // by default, rename with date prefix
+  }
+
+
+/*
+  listSidecars() method
+
+  Make a list of XMP sidecar files in a folder (-y option), from the same
+  directory listing used to find photos.  The keys are lowercase file names,
+  because extensions may have either case.
+*/
+  HashMap listSidecars(File[] contents)
+  {
+    int i;                        // index variable
+    HashMap result;               // our result: names and File objects
+
+    result = new HashMap();
+    for (i = 0; i < contents.length; i ++)
+    {
+      if (contents[i].getName().toLowerCase().endsWith(".xmp"))
+        result.put(contents[i].getName().toLowerCase(), contents[i]);
+    }
+    return(result);
+  }
+
+
+/*
+  makeDateSkip() method
+
+  Create a table for scanDateBytes() with how far we can skip ahead, given one
+  byte where the null at the end of an Exif date ("1999:12:31 23:59:59") would
+  be.  If the byte is a digit, then it may be the last digit of a date, and we
+  skip one byte.  If a colon, then the last colon, so three bytes.  If a space,
+  then nine bytes.  Any other byte (including null) can't be in the first 19
+  bytes of a date, so we skip past it to the next 20 bytes.
+*/
+  static byte[] makeDateSkip()
+  {
+    int i;                        // index variable
+    byte[] result;                // our result
+
+    result = new byte[256];       // one entry for each possible byte value
+    for (i = 0; i < result.length; i ++)
+      result[i] = (byte) DATE_SIZE; // most bytes skip a whole date
+    for (i = '0'; i <= '9'; i ++)
+      result[i] = 1;              // last digit of seconds
+    result[':'] = 3;              // colon between minutes and seconds
+    result[' '] = 9;              // space between date and time
+    return(result);
+  }
+
+
+/*
+  moveFile() method
+
+  Move a file into another folder (-o option), creating the folder if it
+  doesn't exist.  Never replace an existing file.  The new name is claimed
+  first by creating an empty file, which is atomic even when other threads (-b#
+  option) or workers (-j option) move files into the same folder.  A rename
+  onto the empty file is tried next, which replaces it atomically when both
+  folders are on the same volume.  Windows won't rename onto any file, so
+  there we give up the claim and rename again, which fails safely if another
+  file took the name in between.  Otherwise, the file is copied into the empty
+  file, the copy is read again and compared by size and CRC32 checksum, and
+  only then is the original deleted.  Return true if the file was moved, or
+  false if the original file is still where it was.
+*/
+  boolean moveFile(File oldFile, File newFile)
+  {
+    byte[] buffer;                // local buffer, not shared with threads
+    CRC32 checksum;               // checksum for bytes copied or read again
+    long copied;                  // checksum of bytes copied from old file
+    File folder;                  // date folder for new file
+    FileInputStream input;        // for reading old file, then copy
+    int length;                   // number of bytes read into buffer
+    FileOutputStream output;      // for writing copy of old file
+    boolean success;              // true if copy is the same as old file
+
+    folder = newFile.getParentFile();
+    if (organizeFolders.contains(folder) == false) // not known to exist?
+    {
+      if ((folder.isDirectory() == false) && (folder.mkdirs() == false)
+        && (folder.isDirectory() == false)) // another thread may create it
+      {
+        return(false);
+      }
+      organizeFolders.add(folder); // don't ask file system again
+    }
+    try                           // claim new name, or find it already taken
+    {
+      if (newFile.createNewFile() == false) // don't replace another file
+        return(false);
+    }
+    catch (IOException ioe) { return(false); } // can't create in folder
+    if (oldFile.renameTo(newFile)) // same volume, replaces our empty file
+      return(true);
+    if (mswinFlag)                // Windows doesn't rename onto our claim
+    {
+      newFile.delete();           // give up claim, then rename without it
+      if (oldFile.renameTo(newFile)) // never replaces a file on Windows
+        return(true);
+      try                         // claim the name again for copying
+      {
+        if (newFile.createNewFile() == false) // taken while not claimed?
+          return(false);
+      }
+      catch (IOException ioe) { return(false); }
+    }
+
+    /* Copy to another volume, then check the copy before deleting the old
+    file.  Any I/O error leaves the old file unchanged, and deletes the copy,
+    which is our own claim on the new name. */
+
+    buffer = new byte[(int) READ_LIMIT];
+    checksum = new CRC32();
+    output = null;                // no copy written yet
+    success = false;
+    try
+    {
+      input = new FileInputStream(oldFile);
+      try
+      {
+        output = new FileOutputStream(newFile);
+        while ((length = input.read(buffer)) > 0)
+        {
+          checksum.update(buffer, 0, length);
+          output.write(buffer, 0, length);
+        }
+        output.close();
+      }
+      finally { input.close(); }  // close old file, even after errors
+      copied = checksum.getValue();
+      checksum.reset();           // read copy again from file system
+      input = new FileInputStream(newFile);
+      try
+      {
+        while ((length = input.read(buffer)) > 0)
+          checksum.update(buffer, 0, length);
+      }
+      finally { input.close(); }
+      success = (checksum.getValue() == copied)
+        && (newFile.length() == oldFile.length());
+    }
+    catch (IOException ioe)       // can't read, can't write, disk full, etc
+    {
+      if (output != null)         // did we create a copy?
+        try { output.close(); } catch (IOException ioe2) { /* ignore */ }
+    }
+    if (success)                  // keep old date on copy, delete old file
+    {
+      newFile.setLastModified(oldFile.lastModified());
+      success = oldFile.delete();
+    }
+    if (success == false)         // delete bad copy, or our empty claim
+      newFile.delete();
+    return(success);
+  }
+
+
+/*
+  nextUnit() method
+
+  Return the next unit of work for a worker process (-k option), which is the
+  largest unit left, or null if there is nothing left to do.  Called from the
+  threads that feed names to workers.
+*/
+  synchronized RedatePhotoFile3Unit nextUnit()
+  {
+    if (balanceUnits.size() == 0) // is there any work left?
+      return(null);
+    return((RedatePhotoFile3Unit) balanceUnits.remove(0)); // sorted by size
+  }
+
+
+/*
+  openNameList() method
+
+  Open a list of file or folder names for reading, from a file or from standard
+  input (if the file name is empty).  Return null and print an error message if
+  the list can't be opened.
+*/
+  Reader openNameList(String fileName)
+  {
+    nameListNulls = -1;           // don't know yet how names are separated
+    if (fileName.length() == 0)   // read from standard input?
+    {
+      if (stdinReader == null)    // only create one reader for standard input
+        stdinReader = new BufferedReader(new InputStreamReader(System.in));
+      return(stdinReader);
+    }
+    try { return(new BufferedReader(new FileReader(fileName))); }
+    catch (IOException ioe)       // file not found, etc
+    {
+      putOutput("Can't read list of names from " + fileName + ": "
+        + ioe.getMessage());
+      totalError ++;              // count as error, even if don't know reason
+      return(null);
+    }
+  }
+
+
+/*
+  openServerToken() method
+
+  Read the token that clients must send to our server (-v option), from the
+  first line of a file.  The token is in a file, and not on the command line,
+  so that other users can't see it in a list of running processes.  Return
+  false after printing an error message if the file can't be read or the first
+  line is empty.
+*/
+  boolean openServerToken(String fileName)
+  {
+    BufferedReader input;         // for reading token file
+    String line;                  // first line from token file, or null
+
+    try
+    {
+      input = new BufferedReader(new FileReader(fileName));
+      line = input.readLine();    // only first line, may be null
+      input.close();
+    }
+    catch (IOException ioe)       // file not found, etc
+    {
+      System.err.println("Can't read server token from " + fileName + ": "
+        + ioe.getMessage());
+      return(false);
+    }
+    if ((line == null) || (line.trim().length() == 0)) // anything there?
+    {
+      System.err.println("Empty server token in " + fileName);
+      return(false);
+    }
+    serverToken = line.trim();    // leading, trailing spaces are ignored
+    return(true);
+  }
+
+
+/*
+  openZoneRules() method
+
+  Read a rules file (-z option) for adjusting dates and times by folder or by
+  camera model.  Each line has a number of seconds to add (may be negative)
+  or a Java time zone name for the camera clock, then spaces, then a folder
+  name or "model=" and an Exif camera model.  A folder rule applies to files in
+  that folder and all subfolders, and "*" matches any one folder name.  Blank
+  lines and lines starting with "#" are ignored.  For example:
+
+      +3600         d:\photos\2019 trip
+      Europe/Paris  d:\photos\*\paris
+      -125          model=Canon EOS 5D Mark II
+
+  Folder rules are put in a tree (trie) by folder name, so that matching a file
+  takes one step per folder in its path, no matter how many rules there are.
+  Folder names are made canonical like the names of files we search (up to the
+  first "*"), and are lowercase only on Windows, where case doesn't matter.
+  Return false after printing an error message if the file can't be read or
+  has a bad rule.
+*/
+  boolean openZoneRules(String fileName)
+  {
+    String[] fields;              // rule value and rule target
+    BufferedReader input;         // for reading rules file
+    String line;                  // one line from rules file
+    int number;                   // line number in rules file
+    String path;                  // canonical folder name from rule
+    RedatePhotoFile3Rule rule;    // new rule from one line
+    int star;                     // index of first "*" folder in <path>
+    String target;                // folder or model name from rule
+
+    zoneModels = new HashMap();   // rules for camera models
+    zoneRoot = new RedatePhotoFile3Rule(0); // tree of rules for folders
+    try
+    {
+      input = new BufferedReader(new FileReader(fileName));
+      number = 0;                 // no lines read yet
+      while ((line = input.readLine()) != null)
+      {
+        number ++;                // one more line read
+        line = line.trim();       // remove leading and trailing spaces
+        if ((line.length() == 0) || line.startsWith("#"))
+          continue;               // ignore blank lines and comments
+        fields = line.split("\\s+", 2); // value, then folder or model
+        rule = (fields.length < 2) ? null : new RedatePhotoFile3Rule(0);
+        if (rule != null)         // parse rule value
+        {
+          rule.text = line;
+          try
+          {
+            rule.seconds = Integer.parseInt(fields[0].startsWith("+")
+              ? fields[0].substring(1) : fields[0]);
+          }
+          catch (NumberFormatException nfe) // not a number, try time zone
+          {
+            rule.zone = TimeZone.getTimeZone(fields[0]);
+            if ((rule.zone.getID().equals(fields[0]) == false)
+              && ((fields[0].startsWith("GMT") == false)
+              || rule.zone.getID().equals("GMT")))
+            {
+              rule = null;        // unknown time zone names become "GMT"
+            }                     // but "GMT+5" becomes "GMT+05:00"
+          }
+        }
+        if (rule == null)         // bad value or no folder or model
+        {
+          System.err.println("Bad rule on line " + number + " of " + fileName
+            + ": " + line);
+          input.close();
+          return(false);
+        }
+        target = fields[1];
+        if (target.toLowerCase().startsWith("model="))
+          zoneModels.put(target.substring(6).trim().toLowerCase(), rule);
+        else                      // folder rule: same form as file names
+        {
+          path = (new File(target)).getAbsolutePath();
+          star = path.indexOf(File.separator + "*"); // first wildcard name
+          if (star < 0) star = path.length(); // no wildcards in this folder
+          try                     // wildcards can't be made canonical
+          {
+            path = (new File(path.substring(0, star))).getCanonicalPath()
+              + path.substring(star);
+          }
+          catch (IOException ioe) { /* keep absolute path */ }
+          if (mswinFlag) path = path.toLowerCase(); // Windows ignores case
+          zoneRoot.add(path.split("[/\\\\]+"), rule);
+        }
+      }
+      input.close();
+    }
+    catch (IOException ioe)       // file not found, etc
+    {
+      System.err.println("Can't read rules from " + fileName + ": "
+        + ioe.getMessage());
+      return(false);
+    }
+    if (zoneModels.isEmpty())     // don't look for models if no model rules
+      zoneModels = null;
+    return(true);
+  }
+
+
+/*
+  parseOptions() method
+
+  Return new options for a job, starting with the caller's options, and then
+  changing those with a list of options that have the same syntax as on the
+  command line.  Throw IllegalArgumentException for any errors.  Options are
+  parsed into this engine's variables, so the engine must not be running a job
+  at the same time.
+*/
+  public RedatePhotoFile3Options parseOptions(RedatePhotoFile3Options base,
+    Vector words)
+  {
+    String error;                 // error message for bad option, or null
+    int i;                        // index variable
+
+    base.apply(this);             // start with caller's options
+    for (i = 0; i < words.size(); i ++)
+    {
+      error = serverOption((String) words.get(i));
+      if (error != null)          // was there a bad option?
+        throw new IllegalArgumentException(error);
+    }
+    return(new RedatePhotoFile3Options(this)); // save options that we parsed
+  }
+
+
+/*
+  pickBetterDate() method
+
+  Given a date and time string from a file, check if the string is within range
+  and better than the best date and time we already have (which may be null).
+  Return whichever string is better.  If there are rules for ranking dates (-t
+  option), then also save the date as a candidate, with where it was found.
+*/
+  String pickBetterDate(String givenName, String foundBestDate,
+    String foundThisDate, int source, long position)
+  {
+    putOutDebug(givenName + " - found date and time " + foundThisDate);
+    if ((foundThisDate.compareTo(DATE_LOWER) < 0)
+      || (foundThisDate.compareTo(DATE_UPPER) > 0))
+    {
+      putOutDebug(givenName + " - not within limits " + DATE_LOWER + " to "
+        + DATE_UPPER);
+      return(foundBestDate);      // keep the date, time we already have
+    }
+    if ((rankRules != 0) && (source != SOURCE_NONE)) // save for ranking?
+      addCandidate(foundThisDate, source, position);
+    if ((foundBestDate == null) // better than what we have?
+      || ((oldDateFlag == false) && (foundBestDate.compareTo(foundThisDate) < 0))
+      || ((oldDateFlag == true)  && (foundBestDate.compareTo(foundThisDate) > 0)))
+    {
+      return(foundThisDate);      // use the better date, time
+    }
+    return(foundBestDate);        // keep the date, time we already have
+  }
+
+
+/*
+  printAudit() method
+
+  Print the counts for the audit mode (-f4 option): how many files have a file
+  date different from the date found in the file, grouped by the size of the
+  difference, then the folders with the most different files, and the files
+  with the largest differences.
+*/
+  void printAudit()
+  {
+    int i;                        // index variable
+    long same;                    // files with the same date, within fuzz
+
+    auditStats.finish();          // count files in the last folder
+    same = auditStats.buckets[0];
+    putOutput("Audit of " + formatComma.format(same + auditStats.earlier
+      + auditStats.later) + " files with dates: " + formatComma.format(same)
+      + " same, " + formatComma.format(auditStats.later) + " file date later, "
+      + formatComma.format(auditStats.earlier) + " file date earlier.");
+    for (i = 1; i < auditStats.buckets.length; i ++)
+      putOutput("Audit difference " + RedatePhotoFile3Audit.NAMES[i] + ": "
+        + formatComma.format(auditStats.buckets[i])
+        + ((auditStats.buckets[i] == 1) ? " file" : " files"));
+    putOutput("Audit of " + formatComma.format(auditStats.folders)
+      + ((auditStats.folders == 1) ? " folder" : " folders") + ": "
+      + formatComma.format(auditStats.foldersDiffer)
+      + " with different dates.");
+    for (i = 0; i < auditStats.worstFolders.count; i ++)
+      putOutput("Most different folder "
+        + formatComma.format(auditStats.worstFolders.millis[i]) + " of "
+        + auditStats.worstFolders.texts[i]);
+    for (i = 0; i < auditStats.worstFiles.count; i ++)
+      putOutput("Largest difference "
+        + formatComma.format(auditStats.worstFiles.millis[i] / 1000)
+        + " seconds: " + auditStats.worstFiles.texts[i]);
+  }
+
+
+/*
+  printBatches() method
+
+  Print the average time for changing each folder with the -b option, the
+  number of retries for failed changes, and the slowest folders.
+*/
+  void printBatches()
+  {
+    int i;                        // index variable
+
+    putOutput("Changed files in " + formatComma.format(batchCount)
+      + ((batchCount == 1) ? " folder" : " folders") + ", average "
+      + formatComma.format(batchMillis / batchCount) + " ms per folder, "
+      + formatComma.format(batchRetries)
+      + ((batchRetries == 1) ? " retry." : " retries."));
+    for (i = 0; i < batchSlowest.count; i ++)
+      putOutput("Slowest changes " + formatComma.format(batchSlowest.millis[i])
+        + " ms: " + batchSlowest.texts[i]);
+  }
+
+
+/*
+  printDriftTotals() method
+
+  Print each clock drift estimate on one line (-g and -j options), so that a
+  coordinator can add the estimates from all workers.  The format must match
+  what addDriftTotals() expects.
+*/
+  void printDriftTotals()
+  {
+    Iterator drifts;              // for clock drift estimates
+    String key;                   // camera or folder for one estimate
+    double[] stats;               // count, mean, sum of squares
+
+    drifts = driftStats.keySet().iterator();
+    while (drifts.hasNext())      // for each clock drift estimate
+    {
+      key = (String) drifts.next();
+      stats = (double[]) driftStats.get(key);
+      putOutput(SHARD_DRIFT + " " + ((long) stats[0]) + " " + stats[1] + " "
+        + stats[2] + " " + key);  // doubles as text, without rounding
+    }
+  }
+
+
+/*
+  printSummary() method
+
+  Tell the user what we found and what was changed.
+*/
+  void printSummary()
+  {
+    Iterator drifts;              // for clock drift estimates
+    String key;                   // camera or folder for one estimate
+    double seconds;               // elapsed time for achieved rates
+    double[] stats;               // count, mean, sum of squares
+
+    drifts = (new TreeSet(driftStats.keySet())).iterator(); // sorted order
+    while (drifts.hasNext())      // for each clock drift estimate
+    {
+      key = (String) drifts.next();
+      stats = (double[]) driftStats.get(key);
+      putOutput("Clock drift for " + key + " is "
+        + ((stats[1] < 0) ? "" : "+") + formatComma.format(Math.round(
+        stats[1])) + " seconds from " + formatComma.format((long) stats[0])
+        + " GPS " + ((stats[0] == 1) ? "time" : "times")
+        + ((stats[0] < 2) ? "." : (", deviation "
+        + formatComma.format(Math.round(Math.sqrt(stats[2] / (stats[0] - 1))))
+        + " seconds.")));
+    }
+    putOutput("Found " + formatComma.format(totalFiles)
+      + ((totalFiles == 1) ? " file" : " files") + " in "
+      + formatComma.format(totalFolders)
+      + ((totalFolders == 1) ? " folder" : " folders") + ": "
+      + formatComma.format(totalCorrect) + " correct, "
+      + formatComma.format(totalChange) + " changed, "
+      + formatComma.format(totalError)
+      + ((totalError == 1) ? " error" : " errors") + ", "
+      + formatComma.format(totalNoData) + " no data.");
+    if (totalFiles > 0)           // only if we actually read some files
+      putOutput("Read " + formatComma.format(totalBytes)
+        + ((totalBytes == 1) ? " byte" : " bytes") + " from files, average "
+        + formatComma.format(totalBytes / totalFiles) + " per file.");
+    if ((cacheFileHits > 0) || (cacheFolderHits > 0)) // any saved results?
+      putOutput("Used saved dates for " + formatComma.format(cacheFileHits)
+        + ((cacheFileHits == 1) ? " file" : " files") + " and saved lists for "
+        + formatComma.format(cacheFolderHits)
+        + ((cacheFolderHits == 1) ? " folder" : " folders")
+        + " from earlier runs.");
+    if ((rateBytes.rate > 0) || (rateFiles.rate > 0) || (rateWrites.rate > 0)
+      || (rateFileName != null))  // were we asked to limit rates?
+    {
+      seconds = Math.max(1, (System.currentTimeMillis() - rateStarted))
+        / 1000.0;                 // elapsed time, never zero
+      putOutput("Achieved " + formatComma.format(Math.round(totalBytes
+        / seconds)) + " bytes, " + formatComma.format(Math.round(totalFiles
+        / seconds)) + " files, " + formatComma.format(Math.round(totalChange
+        / seconds)) + " changes per second, with limits "
+        + rateBytes.rate + ", " + rateFiles.rate + ", " + rateWrites.rate
+        + ".");
+    }
+    if (auditFlag && (shardCount < 2)) // workers print their own audit
+      printAudit();
+    if (batchCount > 0)           // were there changes after each folder?
+      printBatches();
+    if ((traceCount > 0) && (shardCount < 2)) // workers print their own
+      printTrace();
+  }
+
+
+/*
+  printTrace() method
+
+  Print the time spent in each phase of processing, then the slowest files and
+  folders (-n option).  Folder times are only for listing and checking names,
+  not for the files or subfolders in the folder.
+*/
+  void printTrace()
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    int i;                        // index variable
+
+    buffer = new StringBuffer("Time in milliseconds for");
+    for (i = 0; i < TRACE_NAMES.length; i ++)
+    {
+      buffer.append((i == 0) ? " " : ", ");
+      buffer.append(TRACE_NAMES[i]);
+      buffer.append(" ");
+      buffer.append(formatComma.format(tracePhases[i]));
+    }
+    buffer.append(".");
+    putOutput(buffer.toString());
+    for (i = 0; i < traceFiles.count; i ++)
+      putOutput("Slowest file " + formatComma.format(traceFiles.millis[i])
+        + " ms: " + traceFiles.texts[i]);
+    for (i = 0; i < traceFolders.count; i ++)
+      putOutput("Slowest folder " + formatComma.format(traceFolders.millis[i])
+        + " ms: " + traceFolders.texts[i]);
+  }
+
+
+/*
+  processFile() method
+
+  Find the date and time in one file, then change the file's date or name, as
+  requested.  The caller has already checked that the file exists.
+*/
+  void processFile(File canon, String givenName, String givenPath)
+  {
+    RedatePhotoFile3Cached cached; // saved date for this file, or null
+    RedatePhotoFile3Change change; // changes to make for this file
+    boolean fileCorrectFlag;      // true if this file has correct date, prefix
+    boolean fileErrorFlag;        // true if this file has failures to change
+    boolean findOnlyFlag;         // true if we only find dates, no changes
+    boolean folderCorrectFlag;    // true if file is in its date folder (-o)
+    String foundBestDate;         // best date, time found so far, or null
+    RandomAccessFile input;       // for reading a file as bytes
+    File moveFolder;              // date folder for file (-o), or null
+    long newMillis;               // new Java date in milliseconds for file
+    String newName;               // new file or folder name
+    long oldMillis;               // old Java date in milliseconds for file
+    File planFolder;              // planned date folder, or null
+    long planMillis;              // planned date in milliseconds, or -1
+    String planName;              // planned new file name, or null
+    boolean nameCorrectFlag;      // true if file already has new name
+    String prefix;                // date, time prefix for file name, or null
+    boolean savedFlag;            // true if we use saved date from earlier run
+    File sidecar;                 // XMP sidecar file, or null
+    String sidecarDate;           // date, time from XMP sidecar, or null
+    long start;                   // starting time for one phase, or zero
+    String userNewDate, userOldDate; // dates and times that we show user
+    boolean writeFlag;            // true if file can be changed (not read-only)
+
+    /* Look at the first few bytes of the file to decide what type of file this
+    is, and then search for dates in the correct places for that file format.
+    If nothing is found, or the file format is unknown, then fall back to the
+    old way of searching the beginning of the file for Exif date strings. */
+
+    foundBestDate = null;         // no valid date, time found yet
+    cached = null;                // no saved date for this file
+    savedFlag = false;
+    if ((cacheFiles != null) && (cameraTags() == false))
+    {                             // saved dates don't have camera tags
+      cached = (RedatePhotoFile3Cached) cacheFiles.get(givenPath);
+      if ((cached != null) && (cached.oldDate == oldDateFlag)
+        && (cached.rankRules == rankRules)
+        && (cached.length == canon.length())
+        && (cached.modified == canon.lastModified())) // file is the same?
+      {
+        foundBestDate = cached.date; // use saved date, may be null
+        putOutDebug(givenName + " - using saved date from earlier run");
+        cacheFileHits ++;
+        savedFlag = true;         // don't read the file
+      }
+      else                        // nothing saved, or file has changed
+      {
+        cached = new RedatePhotoFile3Cached(canon.lastModified(),
+          canon.length());
+        cached.oldDate = oldDateFlag; // best date depends on this option
+        cached.rankRules = rankRules; // and on these rules
+      }
+    }
+    if (savedFlag == false)       // do we need to read the file?
+    {
+      try                         // catch I/O errors (file not found, etc)
+      {
+        checkRateFile();          // limits may have changed since last file
+        rateFiles.take(1, this);  // wait if opening files too fast
+        start = traceTime();      // zero if we aren't tracing
+        input = new RandomAccessFile(canon, "r"); // read file bytes as needed
+        tracePhase(TRACE_OPEN, start);
+        start = traceTime() + tracePhases[TRACE_READ]; // don't count twice
+        if (extractor != null)    // does our caller find dates?
+        {
+          foundGpsMillis = -1;    // no camera tags unless caller asks us
+          foundModel = foundOffset = foundOriginal = foundSerial = null;
+          foundBestDate = extractor.findDate(this, input, givenName);
+        }
+        else                      // we find dates by file format
+          foundBestDate = findDateByFormat(input, givenName);
+        tracePhase(TRACE_FIND, (start - tracePhases[TRACE_READ]));
+        start = traceTime();
+        input.close();            // close (and unlock) user's file
+        tracePhase(TRACE_OPEN, start);
+        if (cached != null)       // save date for next run?
+        {
+          cached.date = foundBestDate;
+          cacheFiles.put(givenPath, cached);
+        }
+      }
+      catch (IOException ioe)     // file may be locked, invalid, etc
+      {
+        putOutput(givenName + " - " + ioe.getMessage());
+//      cancelFlag = true;        // don't do anything more
+        totalError ++;            // one more file with an error
+        recordResult(canon, -1, -1, RESULT_ERROR);
+        return;
+      }
+    }
+
+    /* Look for an XMP sidecar file (-y option), either if the photo has no
+    date, or if the sidecar comes first.  The sidecar date has the same limits
+    as dates in photos, and replaces the date from the photo. */
+
+    if ((sidecarMode == 2) || ((sidecarMode == 1) && (foundBestDate == null)))
+    {
+      start = traceTime();        // sidecars are part of finding dates
+      if ((sidecar = findSidecar(canon)) != null) // is there a sidecar?
+      {
+        sidecarDate = readSidecar(sidecar, givenName);
+        if ((sidecarDate != null) && ((sidecarDate = pickBetterDate(givenName,
+          null, sidecarDate, SOURCE_NONE, -1)) != null)) // within limits?
+        {
+          foundBestDate = sidecarDate; // use sidecar date before photo date
+        }
+      }
+      tracePhase(TRACE_FIND, start);
+    }
+
+    /* Did we find a valid date and time? */
+
+    if (cancelFlag) return;       // stop if user cancel or fatal error
+
+    findOnlyFlag = false;         // assume that we will change something
+    if (foundBestDate == null)    // won't change from null if nothing found
+    {
+      putOutComment(givenName + " - date and time not found");
+      totalNoData ++;             // one more file with no date, time info
+      recordResult(canon, -1, -1, RESULT_NODATA);
+      return;
+    }
+    else if (auditFlag)           // only count differences, change nothing?
+    {
+      putOutDebug(givenName + " - using date and time " + foundBestDate);
+      findOnlyFlag = true;        // convert date, compare with file date
+    }
+    else if (debugFlag)           // does user want details?
+    {
+      putOutput(givenName + " - using date and time " + foundBestDate);
+      /* ... and fall through to remaining code, even if both the redate and
+      rename flags are turned off. */
+    }
+    else if ((redateFlag == false) && (renameFlag == false)
+      && (organizeRoot == null))
+    {
+      putOutComment(givenName + " - found date and time " + foundBestDate);
+      if (resultIndex == null)    // do we need the date for our index?
+        return;                   // no, nothing more to do for this file
+      findOnlyFlag = true;        // yes, convert date but don't change file
+    }
+    fileCorrectFlag = fileErrorFlag = false;
+                                  // nothing known about this file yet
+    planFolder = null;
+    planMillis = -1;              // no changes planned yet
+    planName = null;
+
+    /* Convert date and time digits into something Java can use.  Fortunately,
+    JPEG dates are very close to ISO standard dates, and we cleverly converted
+    the JPEG date into an ISO date while parsing.  (Look at how non-numeric
+    fields are initialized in the <found> character array.) */
+
+    try { newMillis = ourDateFormat.parse(foundBestDate).getTime(); }
+    catch (ParseException pe)     // unable to parse date, time string
+    {
+      putOutput(givenName + " - can't parse date and time " + foundBestDate);
+      totalError ++;              // one more file with an error
+      recordResult(canon, -1, -1, RESULT_ERROR);
+      return;                     // don't continue after error
+    }
+
+    /* Don't adjust dates and times by adding to <newMillis> directly, because
+    not all days have the same number of seconds.  Clock changes like daylight
+    saving time (DST) insert and remove one hour twice a year.  Use a Calendar
+    object to avoid introducing bugs in these calculations. */
+
+    adjustCalendar.clear();       // clear any previous date, time fields
+    adjustCalendar.setTimeInMillis(newMillis); // put millis into calendar
+    adjustCalendar.add(Calendar.YEAR, adjustValueYear); // usually just zero
+    adjustCalendar.add(Calendar.MONTH, adjustValueMonth);
+    adjustCalendar.add(Calendar.DATE, adjustValueDay);
+    adjustCalendar.add(Calendar.HOUR, adjustValueHour);
+    adjustCalendar.add(Calendar.MINUTE, adjustValueMinute);
+    adjustCalendar.add(Calendar.SECOND, adjustValueSecond);
+    newMillis = adjustCalendar.getTimeInMillis(); // bring back as millis
+    if (zoneRoot != null)         // are there rules for folders or models?
+      newMillis = adjustByRules(canon, newMillis, givenName);
+    if (driftMode > 0)            // are we correcting camera clock drift?
+      newMillis = adjustByDrift(canon, newMillis, givenName);
+    userNewDate = ourDateFormat.format(new Date(newMillis)); // reformat
+    if (foundBestDate.compareTo(userNewDate) != 0) // any difference?
+      putOutDebug(givenName + " - adjust date and time " + userNewDate);
+    if (renameFlag && (renameTemplate != null)) // new name from template?
+    {
+      prefix = null;              // no prefix, whole name from template
+      newName = renameTemplate.format(new Date(newMillis), foundModel,
+        givenName);               // may have subfolders, separated by "/"
+      if ((newName != null) && (organizeRoot != null)) // folders from -o?
+        newName = newName.substring(newName.lastIndexOf('/') + 1);
+      nameCorrectFlag = (newName != null) && (File.separator
+        + givenPath).endsWith(File.separator + newName.replace('/',
+        File.separatorChar));     // already moved here?
+    }
+    else                          // date and time prefix, then old name
+    {
+      prefix = renameDateFormat.format(new Date(newMillis));
+      newName = prefix + givenName; // new file name, if prefix is necessary
+      nameCorrectFlag = givenName.startsWith(prefix);
+    }                             // create new name before adjusting DST
+    moveFolder = null;            // no date folder unless -o option
+    folderCorrectFlag = true;
+    if (organizeRoot != null)     // are we moving files into date folders?
+    {
+      moveFolder = new File(organizeRoot, organizeFormat.format(new Date(
+        newMillis)).replace('/', File.separatorChar));
+      folderCorrectFlag = moveFolder.getPath().equals(canon.getParent());
+    }
+
+    /* Microsoft Windows adjusts file dates and times using the current rules
+    for daylight saving time (DST), no matter which rules should be applied at
+    that actual date and time.  Correcting for this assumption is almost
+    impossible because both Java and Windows think they are in charge of time
+    zones and DST.  The following code only does local times, and is quite
+    likely to break if either the JRE or Windows changes. */
+
+    if (mswinFlag)                // do we correct for Windows assumptions?
+      newMillis += ourTimeZone.getOffset(newMillis)
+        - ourTimeZone.getOffset((new Date()).getTime());
+
+    /* When displaying an old date, we have the same problem as above, but in
+    reverse: daylight saving time.  This could devolve into a long discussion
+    about the difficulty of following date and time rules.  It would be easier
+    if we simply didn't show the old date! */
+
+    oldMillis = canon.lastModified(); // save previous Java time stamp
+    if (mswinFlag)                // do we correct for Windows assumptions?
+    {
+      userOldDate = ourDateFormat.format(new Date(oldMillis
+        - ourTimeZone.getOffset(oldMillis)
+        + ourTimeZone.getOffset((new Date()).getTime())));
+    }
+    else                          // don't correct, use time stamp as-is
+      userOldDate = ourDateFormat.format(new Date(oldMillis));
+    putOutDebug(givenName + " - file date and time is " + userOldDate);
+    if (findOnlyFlag)             // were we only finding the date?
+    {
+      recordResult(canon, newMillis, oldMillis, RESULT_FOUND);
+      return;
+    }
+
+    /* Ask if the file can be written only once, and only if we are going to
+    change the date or the name.  Each question about a file is another trip
+    to the file system, which is slow on network drives. */
+
+    start = traceTime();          // time for checking and changing file
+    writeFlag = true;             // assume file can be written if not asked
+    if ((redateFlag && (Math.abs(newMillis - oldMillis) >= MILLI_FUZZ))
+      || (renameFlag && (nameCorrectFlag == false))
+      || (folderCorrectFlag == false))
+    {
+      writeFlag = canon.canWrite(); // same answer for both changes
+    }
+
+    /* Change the last modification date and time for the file. */
+
+    if (cancelFlag) return;       // stop if user cancel or fatal error
+
+    if (redateFlag == false)      // does the user want date, time changed?
+    {
+      /* No, do nothing.  Count nothing. */
+    }
+    else if (Math.abs(newMillis - oldMillis) < MILLI_FUZZ)
+    {
+      putOutComment(givenName + " - has correct date and time");
+      fileCorrectFlag = true;     // at least one correct for this file
+    }
+    else if (writeFlag == false)  // checked once for both date and name
+    {
+      putOutFailure(givenName + " - can't change read-only file to "
+        + userNewDate);
+      fileErrorFlag = true;       // at least one error for this file
+    }
+    else if (planOutput != null)  // are we writing a change plan?
+    {
+      putOutSuccess(givenName + " - plan change " + userNewDate + " from "
+        + userOldDate);
+      planMillis = newMillis;     // write plan after checking file name
+    }
+    else if (debugFlag)           // do we simulate the result?
+    {
+      putOutSuccess(givenName + " - simulate change " + userNewDate + " from "
+        + userOldDate);
+    }
+    else                          // change now, or after this folder
+    {
+      planMillis = newMillis;     // save change after checking file name
+    }
+
+    /* Change the file name by inserting a date and time at the beginning of
+    the name, if it isn't already there.  Only year-month-day (hour-minute-
+    second) order makes sense here, to put files in chronological order when
+    sorted by name. */
+
+    if (cancelFlag) return;       // stop if user cancel or fatal error
+
+    if (prefix != null)           // are we adding a prefix?
+      putOutDebug(givenName + " - file name prefix is <" + prefix + ">");
+    else
+      putOutDebug(givenName + " - file name from template is <" + newName
+        + ">");
+
+    if (renameFlag == false)      // does the user want file name changed?
+    {
+      /* No, do nothing.  Count nothing. */
+    }
+    else if (newName == null)     // template name would leave the folder?
+    {
+      putOutFailure(givenName + " - can't rename outside folder with template "
+        + renameDateString);
+      fileErrorFlag = true;       // at least one error for this file
+    }
+    else if (nameCorrectFlag)     // same prefix or template name?
+    {
+      putOutComment(givenName + " - has correct file name"
+        + ((prefix != null) ? " prefix" : ""));
+      fileCorrectFlag = true;     // at least one correct for this file
+    }
+    else if (writeFlag == false)  // checked once for both date and name
+    {
+      putOutFailure(givenName + " - can't rename read-only file as "
+        + newName);
+      fileErrorFlag = true;       // at least one error for this file
+    }
+    else if (planOutput != null)  // are we writing a change plan?
+    {
+      putOutSuccess(givenName + " - plan rename " + newName);
+      planName = newName;         // write plan below
+    }
+    else if (debugFlag)           // do we simulate the result?
+    {
+      putOutSuccess(givenName + " - simulate rename " + newName);
+    }
+    else                          // change now, or after this folder
+    {
+      planName = newName;         // save change below
+    }
+
+    /* Move the file into a folder for its date (-o option), below the root
+    folder given by the user.  The folder name comes from the same date and
+    time as the new file name, before any correction for DST. */
+
+    if (cancelFlag) return;       // stop if user cancel or fatal error
+
+    if (organizeRoot == null)     // does the user want files organized?
+    {
+      /* No, do nothing.  Count nothing. */
+    }
+    else if (folderCorrectFlag)   // already in the correct folder?
+    {
+      putOutComment(givenName + " - is in correct date folder");
+      fileCorrectFlag = true;     // at least one correct for this file
+    }
+    else if (writeFlag == false)  // checked once for date, name, and folder
+    {
+      putOutFailure(givenName + " - can't move read-only file to "
+        + moveFolder.getPath());
+      fileErrorFlag = true;       // at least one error for this file
+    }
+    else if (debugFlag)           // do we simulate the result?
+    {
+      putOutSuccess(givenName + " - simulate move to " + moveFolder.getPath());
+    }
+    else                          // change now, or after this folder
+    {
+      planFolder = moveFolder;    // save change below
+    }
+    tracePhase(TRACE_CHANGE, start);
+
+    /* If we are writing a change plan, then save any changes for this file.
+    The size and old date let us check later that the file is still the same
+    file, without reading the contents again.  Otherwise, the changes are made
+    now or after this folder, with the same retries either way, and they are
+    counted when they are made. */
+
+    if ((planMillis >= 0) || (planName != null) || (planFolder != null))
+    {
+      if (planOutput != null)     // are we writing a change plan?
+        writePlan(givenPath, canon.length(), oldMillis, planMillis, planName);
+      else                        // no, make the changes
+      {
+        change = new RedatePhotoFile3Change(canon, oldMillis, newMillis,
+          planMillis, planName, userOldDate);
+        change.errorFlag = fileErrorFlag; // template error already reported
+        change.moveFolder = planFolder; // move after rename, or null
+        if (batchFlag)            // do we change files after this folder?
+          addBatch(change);
+        else
+          applyChange(change);    // change, report, and count this file now
+        return;
+      }
+    }
+
+    /* No changes were made here.  Count this file as correct if at least one
+    was correct, and there were no errors. */
+
+    if (fileCorrectFlag && (! fileErrorFlag))
+      totalCorrect ++;            // only correct if no errors
+    if (fileErrorFlag)            // were there any failures to change?
+      totalError ++;              // one more file with an error
+
+    /* Add this file to our index of results.  Nothing was changed here, so the
+    old file date is still the file date. */
+
+    recordResult(canon, newMillis, oldMillis, (fileErrorFlag ? RESULT_ERROR
+      : (fileCorrectFlag ? RESULT_CORRECT : RESULT_FOUND)));
+
+  } // end of processFile() method
+
+
+/*
+  processFileOrFolder() method
+
+  The caller gives us a Java File object that may be a file, a folder, or just
+  random garbage.  Search all files.  Get folder contents and process each file
+  found, doing subfolders only if the <recurseFlag> is true.
+
+  Do not call GUI methods or reference GUI objects here, because we may be
+  running from the command line as a "console" application.
+*/
+  void processFileOrFolder(File givenFile)
+  {
+    File canon;                   // full directory resolution of <givenFile>
+    RedatePhotoFile3Cached cached; // saved folder list, or null
+    File[] contents;              // contents if <givenFile> is a folder
+    long fileBytes;               // total bytes before this file
+    long fileMillis;              // time for this file, in milliseconds
+    long fileStart;               // when this file started, in milliseconds
+    long folderModified;          // folder date, changes when names change
+    long folderTime;              // milliseconds for listing this folder
+    String givenName;             // caller's file name only, without path
+    String givenPath;             // name of caller's file, including path
+    boolean hidden;               // true if file or folder is hidden
+    boolean[] hiddens;            // saved hidden flags for <contents>, or null
+    int i;                        // index variable
+    File next;                    // next File object from <contents>
+    HashMap sidecars;             // XMP sidecars for caller's folder, or null
+    long start;                   // starting time for one phase, or zero
+    long[] totals;                // totals before this file, for outcome
+
+    if (cancelFlag) return;       // stop if user cancel or fatal error
+
+    /* Decide what kind of File object this is, if it's even real!  We process
+    all files/folders given to us, no matter whether they are hidden or not.
+    It's only when we look at subfolders that we pay attention to <hiddenFlag>
+    and <recurseFlag>. */
+
+    try { canon = givenFile.getCanonicalFile(); } // full directory search
+    catch (IOException ioe) { canon = givenFile; } // accept abstract file
+    givenName = canon.getName();  // get the file name only
+    givenPath = canon.getPath();  // get file name with path
+    setStatusMessage(givenPath);  // use name with path for status text
+
+    /* Most of the work is done later in this method.  Search through folders
+    and subfolders here, eliminate File objects that don't exist, and leave
+    only real files for later. */
+
+    if (canon.isDirectory())      // is this a folder?
+    {
+      totalFolders ++;            // one more folder or subfolder found
+      if (debugFlag || (auditFlag == false)) // audit has totals only
+        putOutput("Searching folder " + givenPath);
+//    putOutComment("Searching folder " + givenPath);
+      cached = null;              // no saved folder list yet
+      folderTime = 0;
+      if (cacheFolders != null)   // do we keep folder lists from earlier runs?
+      {
+        start = traceTime();
+        folderModified = canon.lastModified(); // before listing folder
+        cached = (RedatePhotoFile3Cached) cacheFolders.get(givenPath);
+        if ((cached == null) || (cached.modified != folderModified))
+        {                         // nothing saved, or names have changed
+          cached = new RedatePhotoFile3Cached(folderModified, 0);
+        }
+        else
+          cacheFolderHits ++;     // use saved list
+        folderTime = tracePhase(TRACE_LIST, start);
+      }
+      if ((cached != null) && (cached.contents != null)) // saved list?
+      {
+        contents = cached.contents;
+        hiddens = cached.hidden;
+      }
+      else                        // no, list and sort folder contents
+      {
+        start = traceTime();      // zero if we aren't tracing
+        contents = canon.listFiles(); // unsorted, may be null
+        folderTime += tracePhase(TRACE_LIST, start);
+        start = traceTime();
+        contents = sortFileList(contents); // sorted, no filter
+        folderTime += tracePhase(TRACE_SORT, start);
+        hiddens = null;           // ask about each name below
+        if (cached != null)       // save list for next run?
+        {
+          start = traceTime();
+          hiddens = new boolean[contents.length];
+          for (i = 0; i < contents.length; i ++) // ask only once, may be slow
+            hiddens[i] = contents[i].isHidden();
+          folderTime += tracePhase(TRACE_HIDDEN, start);
+          cached.contents = contents;
+          cached.hidden = hiddens;
+          cacheFolders.put(givenPath, cached);
+        }
+      }
+      sidecars = sidecarNames;    // subfolders have their own sidecars
+      if (sidecarMode > 0)        // are we looking for XMP sidecars?
+        sidecarNames = listSidecars(contents);
+      for (i = 0; i < contents.length; i ++) // for each file in order
+      {
+        if (cancelFlag) return;   // stop if user cancel or fatal error
+        next = contents[i];       // get next File object from <contents>
+        if (hiddens != null)      // did we already ask about this name?
+          hidden = hiddens[i];
+        else
+        {
+          start = traceTime();
+          hidden = next.isHidden(); // ask only once, may be slow on networks
+          folderTime += tracePhase(TRACE_HIDDEN, start);
+        }
+        if (hidden && (hiddenFlag == false))
+        {
+          putOutComment(next.getName()
+            + " - ignoring hidden file or subfolder");
+        }
+        else if (next.isDirectory()) // is this a subfolder (in the folder)?
+        {
+          if (recurseFlag)        // should we look at subfolders?
+            processFileOrFolder(next); // yes, search this subfolder
+          else
+            putOutComment(next.getName() + " - ignoring subfolder");
+        }
+        else if ((sidecarMode > 0)
+          && next.getName().toLowerCase().endsWith(".xmp"))
+        {
+          putOutComment(next.getName() + " - XMP sidecar, not a photo");
+        }
+        else if (next.isFile())   // is this a file (in the folder)?
+        {
+          processFileOrFolder(next); // yes, call ourself to do this file
+        }
+        else
+        {
+          /* File or folder does not exist.  Ignore without comment. */
+        }
+      }
+      sidecarNames = sidecars;    // back to caller's sidecars
+      flushBatch();               // make changes for files in this folder
+      if ((traceCount > 0) && traceFolders.keeps(folderTime)) // slow enough?
+        traceFolders.add(folderTime, givenPath + " (" + formatComma.format(
+          contents.length) + ((contents.length == 1) ? " name)" : " names)"));
+      return;                     // folder is complete
+    }
+    else if (canon.isFile() == false) // most likely does not exist
+    {
+      putOutput(givenName + " - not a file or folder");
+//    cancelFlag = true;          // don't do anything more
+      totalError ++;              // count as error, even if don't know reason
+      return;
+    }
+    totalFiles ++;                // one more file found, may be JPEG
+
+    /* Time the file if we are tracing, and decide what happened to the file
+    by looking at which totals have changed. */
+
+    if (traceCount == 0)          // are we timing files and folders?
+    {
+      processFile(canon, givenName, givenPath); // no, just do the file
+      return;
+    }
+    fileBytes = totalBytes;       // yes, remember where we started
+    fileStart = System.currentTimeMillis();
+    totals = new long[] {totalChange, totalCorrect, totalError, totalNoData};
+    processFile(canon, givenName, givenPath);
+    fileMillis = System.currentTimeMillis() - fileStart;
+    if (traceFiles.keeps(fileMillis)) // only create text if kept
+    {
+      traceFiles.add(fileMillis, givenPath + " ("
+        + formatComma.format(totalBytes - fileBytes) + " bytes, "
+        + ((totalError > totals[2]) ? "error" : (totalChange > totals[0])
+        ? "changed" : (totalCorrect > totals[1]) ? "correct"
+        : (totalNoData > totals[3]) ? "no data" : "found") + ")");
+    }
+
+  } // end of processFileOrFolder() method
+
+
+/*
+  processNameList() method
+
+  Read file or folder names from a list, and process each name as if it was
+  given on the command line.  Only one name is in memory at a time, so lists
+  may be as long as necessary.
+*/
+  void processNameList(String fileName)
+  {
+    Reader input;                 // list of file or folder names
+    String name;                  // one name from list
+
+    if ((input = openNameList(fileName)) == null) // error already printed
+      return;
+    try
+    {
+      while ((cancelFlag == false) && ((name = readNameList(input)) != null))
+      {
+        processFileOrFolder(new File(name)); // process this file or folder
+        if (shardWorker && (input == stdinReader)) // being fed by coordinator?
+          putOutput(SHARD_DONE + " " + totalFiles); // ask for more names
+      }
+      if (input != stdinReader) input.close(); // don't close standard input
+    }
+    catch (IOException ioe)       // error while reading list
+    {
+      putOutput("Can't read list of names from " + ((fileName.length() > 0)
+        ? fileName : "standard input") + ": " + ioe.getMessage());
+      totalError ++;              // count as error, even if don't know reason
+    }
+  }
+
+
+/*
+  putOutput() method
+
+  Append a complete line of text to the end of the output text area.  We add a
+  newline character at the end of the line, not the caller.  By forcing all
+  output to go through this same method, one complete line at a time, the
+  generated output is cleaner and can be redirected.  The GUI replaces this
+  method with its own.
+*/
+  void putOutput(String text)
+  {
+    if ((runningJob != null) && (runningJob.listener != null))
+      runningJob.listener.message(text); // caller of job gets all output
+    else                          // console output goes onto standard output
+      System.out.println(text);
+  }
+
+  void putOutComment(String text) // filter for general information
+  {
+    if (debugFlag || ((showIndex == 0) && (auditFlag == false)))
+      putOutput(text);            // any message not releated to change
+  }
+
+  void putOutDebug(String text)   // filter for debug messages
+  {
+    if (debugFlag)                // if user wants to see details
+      putOutput(text);
+  }
+
+  void putOutFailure(String text) // filter for errors on change
+  {
+    if (debugFlag || (showIndex != 1)) // if failure to change date, name
+      putOutput(text);
+  }
+
+  void putOutSuccess(String text) // filter for success on change
+  {
+    if (debugFlag || (showIndex != 3)) // if successful change date, name
+      putOutput(text);
+  }
+
+
+/*
+  rankBetter() method
+
+  Return true if one candidate date ranks higher than another (-t option):
+  first by the rules, then by the oldest or newest date (-t0 or -t1 option).
+  Ignored dates rank lowest.
+*/
+  boolean rankBetter(int one, int two)
+  {
+    char[] date1, date2;          // dates for <one> and <two>
+    int k;                        // index variable
+    int score1, score2;           // scores for <one> and <two>
+
+    score1 = rankScore(one);
+    score2 = rankScore(two);
+    if (score1 != score2)         // do the rules decide?
+      return(score1 > score2);
+    date1 = candidateDates[one];
+    date2 = candidateDates[two];
+    for (k = 0; k < date1.length; k ++) // compare without creating strings
+    {
+      if (date1[k] != date2[k])   // first different digit decides
+        return(oldDateFlag ? (date1[k] < date2[k]) : (date1[k] > date2[k]));
+    }
+    return(false);                // same date, not better
+  }
+
+
+/*
+  rankDates() method
+
+  Choose the best date from the candidates found in the current file, using
+  the rules for ranking dates (-t option).  Return the date as a string, or
+  null if all dates were ignored.
+*/
+  String rankDates(String givenName)
+  {
+    int best;                     // index of best candidate, or -1
+    int i;                        // index variable
+
+    best = -1;                    // no candidate chosen yet
+    for (i = 0; i < candidateCount; i ++)
+    {
+      if (rankScore(i) < 0)       // ignored by the rules?
+      {
+        putOutDebug(givenName + " - ignoring date and time "
+          + new String(candidateDates[i]) + " by rules");
+      }
+      else if ((best < 0) || rankBetter(i, best))
+        best = i;
+    }
+    return((best < 0) ? null : new String(candidateDates[best]));
+  }
+
+
+/*
+  rankScore() method
+
+  Score one candidate date by the rules (-t option): -1 if the date is
+  ignored, 2 for DateTimeOriginal and 1 for DateTimeDigitized if those tags
+  are preferred, otherwise zero.
+*/
+  int rankScore(int index)
+  {
+    int k;                        // index variable
+    long position;                // file offset of date, or -1
+
+    position = candidatePositions[index];
+    if (((rankRules & RANK_THUMBNAIL) != 0) && (position >= rankThumbStart)
+      && (position < rankThumbEnd)) // inside the thumbnail image?
+    {
+      return(-1);
+    }
+    if ((rankRules & RANK_FUTURE) != 0) // ignore dates in the future?
+    {
+      for (k = 0; k < rankFuture.length; k ++)
+      {
+        if (candidateDates[index][k] != rankFuture[k])
+        {
+          if (candidateDates[index][k] > rankFuture[k]) return(-1);
+          break;                  // earlier, not in the future
+        }
+      }
+    }
+    if ((rankRules & RANK_ORIGINAL) != 0) // prefer original tags?
+    {
+      if (candidateSources[index] == SOURCE_ORIGINAL) return(2);
+      if (candidateSources[index] == SOURCE_DIGITIZED) return(1);
+    }
+    return(0);
+  }
+
+
+/*
+  readBalanceHistory() method
+
+  Read the number of files in each folder from an earlier run (-k option).
+  Each line has a number, one space, and a full folder name.  A missing file
+  is not an error, because there is no history for the first run.
+*/
+  void readBalanceHistory()
+  {
+    BufferedReader input;         // for reading history file
+    int k;                        // index of space on one line
+    String line;                  // one line from history file
+
+    if ((new File(balanceFile)).exists() == false) // first run?
+      return;
+    try
+    {
+      input = new BufferedReader(new FileReader(balanceFile));
+      while ((line = input.readLine()) != null)
+      {
+        if ((k = line.indexOf(' ')) > 0) // ignore lines without a space
+        {
+          try { balanceHistory.put(line.substring(k + 1), new long[] {
+            Long.parseLong(line.substring(0, k))}); }
+          catch (NumberFormatException nfe) { /* ignore bad lines */ }
+        }
+      }
+      input.close();
+    }
+    catch (IOException ioe)       // can't read file, continue without it
+    {
+      putOutput("Can't read folder sizes from " + balanceFile + ": "
+        + ioe.getMessage());
+    }
+  }
+
+
+/*
+  readBytes() method
+
+  Read bytes from a file at a given offset into the caller's buffer.  Return
+  the number of bytes read, which is less than the caller's length only if we
+  reach the end of the file.  Negative offsets read nothing.
+*/
+  int readBytes(RandomAccessFile input, long offset, byte[] buffer,
+    int length)
+    throws IOException
+  {
+    int count;                    // number of bytes from one read() call
+    long start;                   // starting time for reads, or zero
+    int total;                    // total number of bytes read so far
+
+    if ((offset < 0) || (offset >= input.length())) // outside of file?
+      return(0);
+    start = traceTime();          // zero if we aren't tracing
+    input.seek(offset);           // position file at caller's offset
+    total = 0;                    // no bytes read yet
+    while ((total < length)
+      && ((count = input.read(buffer, total, (length - total))) > 0))
+    {
+      total += count;             // more bytes read
+    }
+    tracePhase(TRACE_READ, start);
+    totalBytes += total;          // count bytes read for all files
+    rateBytes.take(total, this);  // wait if reading bytes too fast
+    return(total);                // give caller whatever we could find
+  }
+
+
+/*
+  readNameList() method
+
+  Read the next file or folder name from a list.  Names are separated by null
+  bytes or by newlines, whichever comes first in the list.  With null bytes, a
+  name may contain anything else, including newlines.  Empty names are ignored.
+  Return null at the end of the list.
+*/
+  String readNameList(Reader input) throws IOException
+  {
+    StringBuffer buffer;          // characters for one name
+    int ch;                       // one input character, or -1
+
+    buffer = new StringBuffer();
+    while ((ch = input.read()) >= 0) // for each character in list
+    {
+      if ((nameListNulls < 0) && ((ch == 0x00) || (ch == '\n')
+        || (ch == '\r')))         // first separator decides for whole list
+      {
+        nameListNulls = (ch == 0x00) ? 1 : 0;
+      }
+      if ((nameListNulls == 1) ? (ch == 0x00) : ((ch == '\n') || (ch == '\r')))
+      {
+        if (buffer.length() > 0)  // ignore empty names
+          return(buffer.toString());
+      }
+      else
+        buffer.append((char) ch); // add character to this name
+    }
+    return((buffer.length() > 0) ? buffer.toString() : null);
+  }
+
+
+/*
+  readNumber() method
+
+  Convert bytes in a buffer to an unsigned integer, in big endian (Motorola)
+  or little endian (Intel) order.  A size of zero is allowed and returns zero.
+*/
+  long readNumber(byte[] buffer, int offset, int size,
+    boolean bigEndian)
+  {
+    int i;                        // index variable
+    long result;                  // our result
+
+    result = 0;
+    for (i = 0; i < size; i ++)
+    {
+      result = (result << 8) | (buffer[offset + (bigEndian ? i : (size - i
+        - 1))] & 0xFF);
+    }
+    return(result);
+  }
+
+
+/*
+  readSidecar() method
+
+  Return the date and time from an XMP sidecar file (-y option), or null if
+  there is no date.  The file is read by a non-validating SAX parser, which
+  doesn't build a document tree, and stops as soon as it finds the original
+  date.  Memory use is the same for small and large sidecars.
+*/
+  String readSidecar(File sidecar, String givenName)
+  {
+    SAXParserFactory factory;     // creates the parser once
+    RedatePhotoFile3Sidecar handler; // looks for dates in XMP elements
+
+    handler = new RedatePhotoFile3Sidecar();
+    try
+    {
+      if (sidecarParser == null)  // create parser only when first needed
+      {
+        factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true); // XMP names depend on namespaces
+        factory.setValidating(false);
+        sidecarParser = factory.newSAXParser();
+      }
+      sidecarParser.parse(sidecar, handler);
+    }
+    catch (IOException ioe)       // file not found, locked, etc
+    {
+      putOutput(givenName + " - can't read XMP sidecar " + sidecar.getName()
+        + ": " + ioe.getMessage());
+    }
+    catch (ParserConfigurationException pce) // no parser in this JRE
+    {
+      putOutput(givenName + " - can't create XML parser: "
+        + pce.getMessage());
+    }
+    catch (SAXException se)       // bad XML, or we stopped early
+    {
+      if (handler.stopped == false) // was this a real error?
+        putOutDebug(givenName + " - can't parse XMP sidecar "
+          + sidecar.getName() + ": " + se.getMessage());
+    }
+    if (handler.best != null)     // did we find a date?
+      putOutDebug(givenName + " - found XMP sidecar date " + handler.best
+        + " in " + sidecar.getName());
+    return(handler.best);
+  }
+
+
+/*
+  readTiffText() method
+
+  Return an ASCII string from one TIFF directory entry in <readBuffer>, up to a
+  maximum length, without the null byte at the end.  Short strings are in the
+  entry itself, and longer strings are read from the file.  Return null if the
+  entry isn't an ASCII string or can't be read.
+*/
+  String readTiffText(RandomAccessFile input, long base, int entry,
+    boolean bigEndian, int maxLength)
+    throws IOException
+  {
+    int end;                      // index of first null byte, if any
+    int length;                   // number of bytes in string
+    byte[] text;                  // bytes from string
+
+    if (readNumber(readBuffer, (entry + 2), 2, bigEndian) != 2)
+      return(null);               // not an ASCII string
+    length = (int) Math.min(readNumber(readBuffer, (entry + 4), 4, bigEndian),
+      maxLength);
+    text = new byte[length];
+    if (length <= 4)              // short strings are in the entry itself
+      System.arraycopy(readBuffer, (entry + 8), text, 0, length);
+    else if (readBytes(input, (base + readNumber(readBuffer, (entry + 8), 4,
+      bigEndian)), text, length) < length)
+    {
+      return(null);               // can't read all of the string
+    }
+    end = 0;                      // string ends at first null byte
+    while ((end < length) && (text[end] != 0)) end ++;
+    return(new String(text, 0, end, "ISO-8859-1").trim());
+  }
+
+
+/*
+  recordResult() method
+
+  Add the result for one file to our index of results, if the user wants an
+  index, and give the result to the caller of a job, if any.  The new date may
+  be -1 if we don't have one, and the old date may be -1 if we haven't asked
+  for the file date yet.  The index gets the file date after any changes, so
+  that a query doesn't list files that we just corrected.
+*/
+  void recordResult(File file, long newMillis, long oldMillis,
+    int status)
+  {
+    if (auditFlag && (newMillis >= 0)) // are we counting date differences?
+      auditStats.add(file, newMillis, oldMillis);
+    if ((runningJob != null) && (runningJob.listener != null))
+      runningJob.listener.fileResult(file, newMillis, oldMillis, status);
+    if (resultIndex == null)      // are we keeping an index of results?
+      return;                     // no, do nothing
+    try
+    {
+      resultIndex.add(file, newMillis, (((oldMillis < 0)
+        || (status == RESULT_CHANGE) || (status == RESULT_ERROR))
+        ? file.lastModified() : oldMillis), status); // date after changes
+    }
+    catch (IOException ioe)       // disk full, etc
+    {
+      putOutput("Can't write index of results: " + ioe.getMessage());
+      cancelFlag = true;          // don't do anything more
+      totalError ++;              // count as error, index is incomplete
+    }
+  }
+
+
+/*
+  scanDateBytes() method
+
+  Search bytes from a file, picking out strings formatted as Exif dates and
+  times, including the null terminating byte.  There can be garbage bytes
+  before the string, some of which may look like a partial date or time.  This
+  is still easier and less error prone than parsing the official Exif file
+  format.  (Big endian data versus little endian, offset pointers, range
+  checking at every step, etc.)  Return the best date and time found so far,
+  which may be the caller's date or null.  The caller tells us where the bytes
+  came from, and the file offset of the first byte in the buffer, or -1.
+
+  We don't look at every byte.  Exif dates have a fixed length, so we look at
+  the byte where a date would end, and if that isn't a null byte, we skip ahead
+  as far as that byte allows (see DATE_SKIP).  Most bytes aren't digits, colons
+  (:), spaces, or nulls, so most of the time we skip 20 bytes at once.  Only
+  when we find a null byte do we check the other 19 bytes for a date.  This
+  finds exactly the same dates as checking one byte at a time (see selfTest()
+  and the -selftest option).  Checking eight bytes at once in a <long> would
+  also work, but would still look at every byte, after first packing the bytes
+  into longs.
+
+  As an exercise to the reader, calculate the probability that a sequence of
+  data bytes has the same format as an Exif date, assuming a uniform random
+  distribution of values for the bytes.  (Answer: 6.84e-35.)
+*/
+  String scanDateBytes(String givenName, byte[] buffer, int offset,
+    int length, String foundBestDate, int source, long position)
+  {
+    int end;                      // index after last byte in buffer
+    char found[] = {'1', '9', '9', '9', '-', '1', '2', '-', '3', '1', ' ', '2',
+      '3', ':', '5', '9', ':', '5', '9'}; // matching characters found in file
+    int i, k;                     // index variables
+    int start;                    // index of first byte in possible date
+
+    end = offset + length;
+    i = offset + DATE_SIZE - 1;   // where first possible null byte would be
+    while (i < end)               // for each possible end of date in buffer
+    {
+      if (buffer[i] != 0x00)      // not the end of a date string?
+      {
+        i += DATE_SKIP[buffer[i] & 0xFF]; // skip ahead as far as we can
+        continue;
+      }
+
+      /* We found a null byte.  Check the punctuation first, because that is
+      fastest, then check that everything else is a digit. */
+
+      start = i - DATE_SIZE + 1;  // index of first byte in possible date
+      i += DATE_SIZE;             // null byte can't be inside next date
+      if ((buffer[start + 4] != ':') || (buffer[start + 7] != ':')
+        || (buffer[start + 10] != ' ') || (buffer[start + 13] != ':')
+        || (buffer[start + 16] != ':'))
+      {
+        continue;                 // wrong punctuation
+      }
+      for (k = 0; k < (DATE_SIZE - 1); k ++) // copy and check digits
+      {
+        if ((k == 4) || (k == 7) || (k == 10) || (k == 13) || (k == 16))
+          continue;               // punctuation already checked
+        if ((buffer[start + k] < '0') || (buffer[start + k] > '9'))
+          break;                  // not a digit
+        found[k] = (char) buffer[start + k]; // save this digit
+      }
+      if (k < (DATE_SIZE - 1))    // did we find a non-digit?
+        continue;
+
+      /* Found a date and time with valid syntax.  Is it within range (not
+      "0000-00-00", etc) and better than what we already have?  (Look at how
+      non-numeric fields are initialized in the <found> character array.) */
+
+      foundBestDate = pickBetterDate(givenName, foundBestDate,
+        new String(found), source, ((position < 0) ? -1 : (position + start)));
+                                  // convert character array to real string
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of scanDateBytes() method
+
+
+/*
+  scanDateStates() method
+
+  The original search for Exif date strings in scanDateBytes(), which looks at
+  every byte with a state machine, one state for each character of a date and
+  time found so far.  This is slower but much easier to check by hand, and is
+  kept only so that selfTest() can compare the two.
+*/
+  String scanDateStates(String givenName, byte[] buffer, int offset,
+    int length, String foundBestDate)
+  {
+    char ch;                      // one input character (from byte)
+    char found[] = {'1', '9', '9', '9', '-', '1', '2', '-', '3', '1', ' ', '2',
+      '3', ':', '5', '9', ':', '5', '9'}; // matching characters found in file
+    int i;                        // index variable
+    int state;                    // current state number of parsing machine
+
+    state = 0;                    // also number of characters found in string
+    for (i = offset; i < (offset + length); i ++)
+                                  // for each byte (character) in buffer
+    {
+      ch = (char) (buffer[i] & 0xFF); // convert byte integer to character
+      switch (state)              // helps that state is also parsed length
+      {
+        case (0):                 // nothing found yet
+        case (1):                 // found: 1?
+        case (2):                 // found: 19?
+        case (3):                 // found: 199?
+        case (5):                 // found: 1999:?
+        case (6):                 // found: 1999:1?
+        case (8):                 // found: 1999:12:?
+        case (9):                 // found: 1999:12:3?
+        case (11):                // found: 1999:12:31 ?
+        case (12):                // found: 1999:12:31 2?
+        case (14):                // found: 1999:12:31 23:?
+        case (15):                // found: 1999:12:31 23:5?
+        case (17):                // found: 1999:12:31 23:59:?
+        case (18):                // found: 1999:12:31 23:59:5?
+          if (Character.isDigit(ch)) // expecting digit (number)
+          {
+            found[state] = ch;    // save this digit
+            state ++;             // advance to next state
+          }
+          else state = 0;         // unexpected input, start from beginning
+          break;
+
+        case (4):                 // found: 1999?
+          if (ch == ':') { state ++; } // expecting colon (:)
+          else if (Character.isDigit(ch)) // too many digits for year
+          {
+            found[0] = found[1];  // drop first digit, shift others left
+            found[1] = found[2]; found[2] = found[3]; found[3] = ch;
+            /* and remain in state 4 */
+          }
+          else state = 0;
+          break;
+
+        case (7):                 // found: 1999:12?
+        case (13):                // found: 1999:12:31 23?
+        case (16):                // found: 1999:12:31 23:59?
+          if (ch == ':') { state ++; } // expecting colon (:)
+          else if (Character.isDigit(ch)) // too many digits, restart year
+          {
+            found[0] = found[state - 2]; found[1] = found[state - 1];
+            found[2] = ch; state = 3;
+          }
+          else state = 0;
+          break;
+
+        case (10):                // found: 1999:12:31?
+          if (ch == ' ') { state ++; } // expecting blank space
+          else if (Character.isDigit(ch)) // too many digits, restart year
+          {
+            found[0] = found[state - 2]; found[1] = found[state - 1];
+            found[2] = ch; state = 3;
+          }
+          else state = 0;
+          break;
+
+        case (19):                // found: 1999:12:31 23:59:59?
+          if (ch == 0x00)         // is string terminated by a null byte?
+          {
+            foundBestDate = pickBetterDate(givenName, foundBestDate,
+              new String(found), SOURCE_NONE, -1);
+            state = 0;            // this string finished, look for next string
+          }
+          else if (Character.isDigit(ch)) // too many digits, restart year
+          {
+            found[0] = found[state - 2]; found[1] = found[state - 1];
+            found[2] = ch; state = 3;
+          }
+          else state = 0;
+          break;
+
+        default:
+          System.err.println("Error in scanDateStates(): unknown state = "
+            + state);             // should never happen, so write on console
+          state = 0;
+          break;
+      }
+    }
+    return(foundBestDate);        // give caller whatever we could find
+
+  } // end of scanDateStates() method
+
+
+/*
+  selfTest() method
+
+  Compare the dates found by scanDateBytes() and scanDateStates() (-selftest
+  option), in random buffers with many partial, overlapping, and complete Exif
+  dates, and in sample JPEG, CR2 (camera RAW), and HEIC headers.  Each buffer
+  is scanned whole and in random pieces, for both the newest and the oldest
+  date.  The random numbers have a fixed seed, so every run checks the same
+  bytes.  Return true if there were no differences.
+*/
+  boolean selfTest()
+  {
+    byte[] buffer;                // bytes to scan
+    int count;                    // number of buffers
+    String dates[] = {"2019:07:04 12:34:56", "1999:12:31 23:59:59",
+      "2038:01:19 03:14:07", "0000:00:00 00:00:00", "1979:12:31 23:59:59"};
+                                  // dates for random buffers, some not valid
+    int differ;                   // number of different results
+    String fast, slow;            // dates found by scanDateBytes(), states
+    int found;                    // number of results with a date
+    String headers[] = {
+      "\u00FF\u00D8\u00FF\u00E1\u0001\u0000Exif\u0000\u0000II*\u0000\u0008"
+        + "\u0000\u0000\u0000\u000B\u0000\u000F\u0001\u0002\u0000\u0006\u0000"
+        + "Canon\u0000Canon EOS 5D Mark II\u0000\u0000\u0000H\u0000"
+        + "2019:07:04 12:34:56\u0000\u0000\u0090\u0002\u0000\u0014\u0000"
+        + "2019:07:04 12:34:55\u0000 2019:07:04 12:34:57 \u0000"
+        + "2019:07:04 12:34:58\u0000\u00FF\u00DB\u0000C\u0000",
+      "II*\u0000\u0010\u0000\u0000\u0000CR\u0002\u0000\u0000\u0001\u0000"
+        + "\u0000\u0012\u0000\u0000\u0001\u0003\u0000\u0001\u0000\u0000\u0000"
+        + "2021:02:28 23:59:5\u0000 12021:02:28 23:59:59\u0000"
+        + "2021:02:29 00:00:01\u0000\u0000\u0000 2021:13:01 00:00:00\u0000"
+        + "Canon EOS R5\u0000\u0000\u0000\u0000 22:02:28 23:59:59\u0000",
+      "\u0000\u0000\u0000\u0018ftypheic\u0000\u0000\u0000\u0000mif1heic"
+        + "\u0000\u0000\u0001\u0000metaExif\u0000\u0000\u0000\u0006Exif\u0000"
+        + "\u0000MM\u0000*\u0000\u0000\u0000\u0008\u0000\u0004Apple\u0000"
+        + "iPhone 12 Pro\u0000\u0000\u0000\u0000H\u0000\u0000\u0000"
+        + "2022:10:31 08:15:00\u0000\u0000\u0000\u0000"
+        + "2022:10:31 08:15:002022:10:31 08:15:01\u0000"
+        + "2022:10:31:08:15:02\u0000\u0000\u0000\u0000\u0000\u0000"};
+                                  // sample headers with bits of real files
+    int i, k;                     // index variables
+    int length;                   // number of bytes in buffer to scan
+    int offset;                   // index of first byte in buffer to scan
+    boolean oldFlag;              // saved value of <oldDateFlag>
+    Random random;                // random numbers with a fixed seed
+    int scans;                    // number of results compared
+    String special = "0123456789:: \u0000\u0000"; // likely date bytes
+    String text;                  // one date, or one sample header
+
+    count = 20000;                // number of random buffers
+    differ = found = scans = 0;   // nothing compared yet
+    oldFlag = oldDateFlag;        // we change this for each test
+    random = new Random(20260418); // same bytes on every run
+    for (i = 0; i < (count + headers.length); i ++)
+    {
+      if (i < headers.length)     // sample headers first, then random bytes
+      {
+        text = headers[i];
+        buffer = new byte[text.length()];
+        for (k = 0; k < buffer.length; k ++)
+          buffer[k] = (byte) text.charAt(k);
+      }
+      else
+      {
+        buffer = new byte[1 + random.nextInt(400)];
+        random.nextBytes(buffer); // start with any bytes
+        for (k = 0; k < buffer.length; k ++)
+        {
+          if (random.nextInt(3) == 0) // mostly digits, colons, spaces, nulls
+            buffer[k] = (byte) special.charAt(random.nextInt(special
+              .length()));
+        }
+        for (k = random.nextInt(6); k > 0; k --) // add some whole dates
+        {
+          text = dates[random.nextInt(dates.length)] + "\u0000";
+          text = text.substring(random.nextInt(4), text.length()
+            - ((random.nextInt(4) == 0) ? 1 : 0)); // partial, maybe no null
+          offset = random.nextInt(buffer.length);
+          System.arraycopy(text.getBytes(), 0, buffer, offset, Math.min(
+            text.length(), (buffer.length - offset)));
+        }
+      }
+      for (k = 0; k < 8; k ++)    // whole buffer, then random pieces
+      {
+        offset = (k == 0) ? 0 : random.nextInt(buffer.length);
+        length = (k == 0) ? buffer.length : random.nextInt(buffer.length
+          - offset + 1);
+        oldDateFlag = ((k % 2) == 1); // newest date, then oldest date
+        fast = scanDateBytes("selftest", buffer, offset, length, null,
+          SOURCE_NONE, -1);
+        slow = scanDateStates("selftest", buffer, offset, length, null);
+        scans ++;                 // one more result compared
+        if (slow != null) found ++; // one more result with a date
+        if ((fast == null) ? (slow != null) : (fast.equals(slow) == false))
+        {
+          differ ++;              // one more different result
+          putOutput("Self test buffer " + i + " offset " + offset + " length "
+            + length + ": scanDateBytes() found " + fast
+            + ", state machine found " + slow);
+        }
+      }
+    }
+    oldDateFlag = oldFlag;        // restore caller's choice
+    putOutput("Self test of " + formatComma.format(count + headers.length)
+      + " buffers: " + formatComma.format(scans) + " scans, "
+      + formatComma.format(found) + " with dates, "
+      + formatComma.format(differ) + " different.");
+    return(differ == 0);
+  }
+
+
+/*
+  renameFile() method
+
+  Rename a file, creating any new subfolders in the new name (rename templates
+  may have subfolders).  Never replace an existing file, because some systems
+  silently delete the old file with the same name.  Return true if the file
+  was renamed.
+*/
+  boolean renameFile(File oldFile, File newFile)
+  {
+    File folder = newFile.getParentFile(); // folder for new name, or null
+
+    if (newFile.exists())         // don't replace another file
+      return(false);
+    if ((folder != null) && (folder.isDirectory() == false)
+      && (folder.mkdirs() == false)) // create subfolders if necessary
+    {
+      return(false);
+    }
+    return(oldFile.renameTo(newFile));
+  }
+
+
+/*
+  reportBatches() method
+
+  Report and count the results for folders changed by other threads (-b#
+  option), in the same order as the folders were read.  Stop at the first
+  folder that isn't done, unless more than <limit> folders are waiting, in
+  which case we wait for that folder.  A limit of zero waits for all folders.
+*/
+  void reportBatches(int limit)
+  {
+    RedatePhotoFile3Batch batch;  // changes for one folder
+    RedatePhotoFile3Change change; // one change from <batch>
+    int i;                        // index variable
+
+    while (true)
+    {
+      synchronized (batchQueue)   // threads tell us when folders are done
+      {
+        if (batchPending.size() == 0) // are there any folders left?
+          return;
+        batch = (RedatePhotoFile3Batch) batchPending.get(0);
+        if (batch.done == false)  // is first folder still being changed?
+        {
+          if (batchPending.size() <= limit) // can we continue reading?
+            return;
+          try { batchQueue.wait(); } // wait for some folder to be done
+          catch (InterruptedException ie) { /* ignore errors */ }
+          continue;               // check first folder again
+        }
+        batchPending.remove(0);   // report this folder outside of lock
+      }
+      for (i = 0; i < batch.changes.size(); i ++)
+      {
+        change = (RedatePhotoFile3Change) batch.changes.get(i);
+        if (change.applied)       // dropped if not changed before cancel
+          applyChange(change);
+      }
+      if (traceCount > 0)         // are we timing each phase?
+        tracePhases[TRACE_CHANGE] += batch.millis;
+      finishBatch(batch);         // count time for this folder
+    }
+  }
+
+
+/*
+  retryChange() method
+
+  Decide if a failed change should be tried again, and if so, wait before
+  returning true.  Return false if the failure is permanent, or if we have
+  already tried too many times.  The wait doubles after each retry.  The old
+  file is the file being changed, which has a new name after a rename.
+*/
+  boolean retryChange(RedatePhotoFile3Change change, File oldFile,
+    File newFile)
+  {
+    if (cancelFlag || (change.retries >= BATCH_RETRIES)
+      || (oldFile.exists() == false) || ((newFile != null)
+      && newFile.exists()))       // gone, name taken, or too many tries?
+    {
+      return(false);              // don't try again
+    }
+    try { Thread.sleep(BATCH_WAIT << change.retries); }
+    catch (InterruptedException ie) { /* ignore errors */ }
+    change.retries ++;            // one more try for this file
+    return(true);
+  }
+
+
+/*
+  runBatch() method
+
+  Make all changes for one folder (-b# option), one file at a time and in
+  order, without reporting results.  Called from the threads that change
+  folders at the same time.  Changes not made before a cancel are dropped.
+*/
+  void runBatch(RedatePhotoFile3Batch batch)
+  {
+    int i;                        // index variable
+    long start;                   // starting time for this folder
+
+    start = System.currentTimeMillis();
+    for (i = 0; i < batch.changes.size(); i ++)
+    {
+      if (cancelFlag) break;      // exit <for> loop if cancel or fatal error
+      changeFile((RedatePhotoFile3Change) batch.changes.get(i));
+    }
+    batch.millis = System.currentTimeMillis() - start;
+  }
+
+
+/*
+  runJob() method
+
+  Do a job for a caller who is using this class as a library, or for the GUI or
+  our server.  The job has its own options, and gets all output and results
+  through a listener, if it has one.  We start each job with zero totals, and
+  copy the totals to the job at the end.  All variables for the job are in
+  this engine, so jobs on different engines run at the same time without
+  waiting for each other.  One engine does one job at a time, and may be used
+  again for the next job.
+*/
+  public void runJob(RedatePhotoFile3Job job)
+  {
+    int i;                        // index variable
+
+    job.engine = this;            // job may be cancelled through us
+    job.options.apply(this);      // use options for this job
+    auditStats.clear();           // no date differences counted yet
+    batchCount = 0;               // no folders changed yet
+    batchFolder = null;           // no changes pending yet
+    batchList.clear();
+    batchMillis = batchRetries = 0;
+    batchSlowest.clear();
+    cacheFileHits = cacheFolderHits = 0; // but keep saved results
+    cancelFlag = job.cancelFlag;  // may be cancelled before starting
+    driftStats.clear();           // no clock drift estimates yet
+    rateStarted = System.currentTimeMillis(); // buckets may be shared
+    runningJob = job;             // output goes to job's listener, if any
+    sidecarNames = null;          // not in a folder yet
+    Arrays.fill(tracePhases, 0);  // no time in any phase yet
+    totalBytes = totalChange = totalCorrect = totalError = totalFiles
+      = totalFolders = totalNoData = 0; // no files found yet
+    zoneFolder = null;            // rules may differ from the last job
+
+    /* Loop once for each file or folder name.  Don't assume that these are all
+    valid file names. */
+
+    for (i = 0; i < job.files.length; i ++)
+    {
+      if (cancelFlag) break;      // exit <for> loop if cancel or fatal error
+      processFileOrFolder(job.files[i]); // process this file or folder
+    }
+    flushBatch();                 // make any changes still pending
+    reportBatches(0);             // wait for folders in other threads
+    printSummary();               // what we found and what was changed
+
+    job.totalBytes = totalBytes;  // give totals to caller
+    job.totalChange = totalChange;
+    job.totalCorrect = totalCorrect;
+    job.totalError = totalError;
+    job.totalFiles = totalFiles;
+    job.totalFolders = totalFolders;
+    job.totalNoData = totalNoData;
+    job.engine = null;            // cancel no longer reaches this engine
+    runningJob = null;            // output goes to standard output or GUI
+    stopBatches();                // our threads for the -b# option end
+  }
+
+
+/*
+  runServer() method
+
+  Run as a server for other programs on the same computer (-v option), so they
+  don't have to start a new JVM for each small batch of files.  We listen only
+  on the local loopback address, but any user on this computer may connect,
+  so clients must send a token if there is one.  Each connection gets its own
+  thread for reading requests.  Requests are done by a pool of engines, one
+  per processor, which are created once and used again, so later requests run
+  in code that the JVM has already compiled.  This method never returns.
+*/
+  void runServer()
+  {
+    int i;                        // index variable
+    ServerSocket listener;        // listens for connections from clients
+    Socket socket;                // one connection from a client
+    Thread thread;                // one thread in our pool of engines
+
+    if ((planOutput != null) || (resultIndex != null) || (shardCount > 1))
+    {
+      System.err.println(
+        "Server can't write a change plan, keep an index, or have workers.");
+      System.exit(EXIT_FAILURE);  // exit application after error
+    }
+    cacheFiles = new RedatePhotoFile3Cache(CACHE_FILES); // save results for
+    cacheFolders = new RedatePhotoFile3Cache(CACHE_FOLDERS); // next request
+    serverDefaults = new RedatePhotoFile3Options(this); // save our options
+    serverQueue = new Vector();   // no clients waiting yet
+    for (i = 0; i < Runtime.getRuntime().availableProcessors(); i ++)
+    {
+      thread = new Thread(new RedatePhotoFile3Pool(serverQueue),
+        ("engine" + (i + 1)));
+      thread.setDaemon(true);     // don't keep JVM running after main()
+      thread.start();
+    }
+    try                           // catch errors opening, accepting sockets
+    {
+      listener = new ServerSocket(serverPort, 50,
+        InetAddress.getByName("127.0.0.1")); // local connections only
+      System.err.println("Server listening on local port " + serverPort);
+      if (serverToken == null)    // can anyone send us requests?
+        System.err.println(
+          "Server has no token, so any local user may change files.");
+      while (true)                // forever, or until killed
+      {
+        socket = listener.accept(); // wait for next client
+        new Thread(new RedatePhotoFile3Server(this, socket), "serveRequest")
+          .start();
+      }
+    }
+    catch (IOException ioe)       // port in use, etc
+    {
+      System.err.println("Can't run server on port " + serverPort + ": "
+        + ioe.getMessage());
+      System.exit(EXIT_FAILURE);  // exit application after error
+    }
+  }
+
+
+/*
+  runShards() method
+
+  Divide file and folder names from the command line among several worker
+  processes, each a new copy of this program in its own Java virtual machine
+  (JVM).  A stable hash of the full path name decides which worker gets each
+  name, so the same names always go to the same worker.  All options from the
+  command line are given to every worker, so that each worker's report has
+  already been filtered the same way as ours would be.  Names from lists (the
+  -l option) are divided the same way, and written to a temporary list file
+  for each worker, so that we never hold a long list in memory.  Each worker
+  writes its own change plan (the -c option), which we add to our plan.
+
+  With the -k option, names are instead put into units of work, and the
+  largest folders are split into smaller units.  Each worker reads names from
+  its standard input, and asks for more by writing a line after each name.
+  Units are given out largest first, as workers ask for them, so that a large
+  folder doesn't finish alone at the end.  This keeps all names from lists in
+  memory.
+
+  Workers run at the same time.  Their reports are saved in temporary files
+  and copied to our output one worker at a time, so that lines from different
+  workers are not mixed together.  Totals from all workers are added to ours
+  for the summary.
+*/
+  void runShards(String[] args)
+  {
+    byte[] buffer;                // bytes copied from a worker's change plan
+    Vector command;               // command line for one worker process
+    int count;                    // number of bytes from one read() call
+    RedatePhotoFile3Feeder[] feeders; // feed names to workers, with -k option
+    boolean foundTotals;          // true if worker gave us totals
+    int i;                        // index variable
+    Reader input;                 // for reading names from a list
+    int k;                        // which worker gets a name
+    String line;                  // one line from worker's report
+    File[] listFile;              // temporary list of names for each worker
+    Writer[] listWriter;          // for writing to <listFile>
+    String name;                  // one file or folder name from a list
+    Vector options;               // options from our command line
+    File[] outputFile;            // temporary files for worker reports
+    DataInputStream plan;         // for reading a worker's change plan
+    File[] planFile;              // temporary change plan for each worker
+    Process[] process;            // worker processes that we started
+    BufferedReader report;        // for reading worker's report
+    Vector[] shards;              // file and folder names for each worker
+    long[] sizes;                 // total number of names for each worker
+    String status;                // worker's exit status, if known
+    Thread[] threads;             // threads copying output from workers
+    StringTokenizer tokens;       // numbers from worker's totals line
+    RedatePhotoFile3Unit units;   // unit for file names from command line
+    String word;                  // one parameter from command line
+
+    /* Separate options from file and folder names.  Options for workers have
+    already been checked by our main() method. */
+
+    listFile = new File[shardCount];
+    listWriter = new Writer[shardCount];
+    options = new Vector();
+    shards = new Vector[shardCount];
+    sizes = new long[shardCount];
+    for (i = 0; i < shardCount; i ++)
+      shards[i] = new Vector();
+    units = null;                 // no file names from command line yet
+    if (balanceFlag && (balanceFile != null)) // is there a history file?
+      readBalanceHistory();       // folder sizes from earlier run
+    try                           // catch errors on temporary list files
+    {
+      for (i = 0; i < args.length; i ++)
+      {
+        word = args[i].toLowerCase(); // easier to process if consistent case
+        if (word.length() == 0)   // ignore empty parameters
+          { /* do nothing */ }
+        else if (word.startsWith("-c") || (mswinFlag && word.startsWith("/c")))
+          { /* each worker gets its own change plan file */ }
+        else if (word.startsWith("-e") || (mswinFlag && word.startsWith("/e")))
+          { /* we already made the changes from the plan */ }
+        else if ((word.startsWith("-i(") || (mswinFlag
+          && word.startsWith("/i("))) && (rateFileName == null))
+        {
+          /* Each worker gets an equal share of the rate limits.  Zero is no
+          limit, and otherwise, the share is at least one. */
+
+          options.add("-i(" + ((rateBytes.rate + shardCount - 1) / shardCount)
+            + "," + ((rateFiles.rate + shardCount - 1) / shardCount) + ","
+            + ((rateWrites.rate + shardCount - 1) / shardCount) + ")");
+        }
+        else if (word.startsWith("-j") || (mswinFlag && word.startsWith("/j")))
+          { /* don't give our worker option to workers */ }
+        else if (word.startsWith("-k") || (mswinFlag && word.startsWith("/k")))
+          { /* workers don't need to know how we give out names */ }
+        else if (word.startsWith("-l") || (mswinFlag && word.startsWith("/l")))
+        {
+          /* Read names from a list and write each name to the temporary list
+          for one worker, as a null-terminated string.  With the -k option,
+          each name goes into a unit of work. */
+
+          input = openNameList(args[i].substring(2));
+          if (input == null) continue; // error message already printed
+          while ((name = readNameList(input)) != null)
+          {
+            if (balanceFlag)      // are we giving out units of work?
+            {
+              units = addBalanceName(units, name);
+              continue;
+            }
+            k = shardIndex(name); // which worker gets this name
+            if (listWriter[k] == null) // first name from a list?
+            {
+              listFile[k] = File.createTempFile("RedatePhotoFile3-", ".lst");
+              listWriter[k] = new BufferedWriter(new FileWriter(listFile[k]));
+            }
+            listWriter[k].write(name);
+            listWriter[k].write(0); // null byte allows any name in list
+            sizes[k] ++;          // one more name for this worker
+          }
+          if (input != stdinReader) input.close();
+        }
+        else if (word.startsWith("-") || (mswinFlag && word.startsWith("/")))
+          options.add(args[i]);   // give all other options to all workers
+        else if (balanceFlag)     // are we giving out units of work?
+          units = addBalanceName(units, args[i]);
+        else
+        {
+          k = shardIndex(args[i]); // which worker gets this name
+          shards[k].add(args[i]); // add name to command line for worker
+          sizes[k] ++;            // one more name for this worker
+        }
+      }
+      for (i = 0; i < shardCount; i ++) // close all temporary lists
+        if (listWriter[i] != null) listWriter[i].close();
+    }
+    catch (IOException ioe)       // can't create or write temporary lists
+    {
+      putOutput("Can't write list of names for workers: "
+        + ioe.getMessage());
+      totalError ++;              // count as error, since names not done
+      return;                     // without starting any workers
+    }
+
+    /* With the -k option, split large folders, then start as many workers as
+    there are units of work, up to the number of workers requested.  Each
+    worker reads names from its standard input. */
+
+    if (balanceFlag)              // are we giving out units of work?
+    {
+      splitBalanceUnits();        // several units for each worker
+      for (i = 0; i < Math.min(shardCount, balanceUnits.size()); i ++)
+        sizes[i] = 1;             // start this worker, actual count later
+    }
+
+    /* Start one worker process for each non-empty share of names. */
+
+    feeders = new RedatePhotoFile3Feeder[shardCount];
+    outputFile = new File[shardCount];
+    planFile = new File[shardCount];
+    process = new Process[shardCount];
+    threads = new Thread[shardCount * 2];
+    for (i = 0; i < shardCount; i ++)
+    {
+      if (sizes[i] == 0)          // no names for this worker?
+        continue;                 // then don't start a process
+      command = new Vector();
+      command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add("RedatePhotoFile3");
+      command.addAll(options);    // same options as we were given
+      command.add("-jw");         // tell worker to report totals to us
+      if (balanceFlag)            // are we giving out units of work?
+        command.add("-l");        // names come from standard input
+      else if (listFile[i] != null) // were there any names from lists?
+        command.add("-l" + listFile[i].getPath());
+      command.addAll(shards[i]);  // and this worker's share of names
+      putOutDebug("Starting worker " + (i + 1) + " with "
+        + formatComma.format(sizes[i]) + ((sizes[i] == 1) ? " name"
+        : " names"));
+      try
+      {
+        if (planOutput != null)   // are we writing a change plan?
+        {
+          planFile[i] = File.createTempFile("RedatePhotoFile3-", ".dat");
+          command.add(command.indexOf("-jw"), ("-c"
+            + planFile[i].getPath())); // with options, before names
+        }
+        outputFile[i] = File.createTempFile("RedatePhotoFile3-", ".txt");
+        process[i] = Runtime.getRuntime().exec((String[]) command.toArray(
+          new String[0]));
+        if (balanceFlag)          // are we giving out units of work?
+        {
+          feeders[i] = new RedatePhotoFile3Feeder(this,
+            process[i].getInputStream(), process[i].getOutputStream(),
+            new FileOutputStream(outputFile[i])); // feed names, copy output
+          threads[i * 2] = new Thread(feeders[i], ("worker" + (i + 1)
+            + "feed"));
+        }
+        else
+          threads[i * 2] = new Thread(new RedatePhotoFile3Copy(
+            process[i].getInputStream(), new FileOutputStream(
+            outputFile[i])), ("worker" + (i + 1) + "out"));
+        threads[i * 2].start();   // copy standard output to temporary file
+        threads[(i * 2) + 1] = new Thread(new RedatePhotoFile3Copy(
+          process[i].getErrorStream(), System.err), ("worker" + (i + 1)
+          + "err"));
+        threads[(i * 2) + 1].start(); // copy standard error to our own
+      }
+      catch (IOException ioe)     // can't create file or start process
+      {
+        putOutput("Can't start worker " + (i + 1) + ": " + ioe.getMessage());
+        process[i] = null;        // no process to wait for
+        totalError ++;            // count as error, since names not done
+      }
+    }
+
+    /* Wait for each worker to finish, then copy its report to our output and
+    add its totals to ours.  A worker without totals has failed badly. */
+
+    for (i = 0; i < shardCount; i ++)
+    {
+      if (process[i] == null)     // was a process started for this worker?
+        continue;                 // no, nothing to wait for
+      foundTotals = false;        // no totals from this worker yet
+      try
+      {
+        process[i].waitFor();     // wait for worker process to finish
+        threads[i * 2].join();    // and for all output to be copied
+        threads[(i * 2) + 1].join();
+        if (feeders[i] != null)   // did we feed names to this worker?
+          sizes[i] = feeders[i].sent; // actual number of names
+        report = new BufferedReader(new FileReader(outputFile[i]));
+                                  // read worker's report from temporary file
+        while ((line = report.readLine()) != null)
+        {
+          if (line.startsWith(SHARD_DRIFT)) // clock drift estimate?
+            addDriftTotals(line);
+          else if (line.startsWith(SHARD_TOTALS)) // is this the totals line?
+          {
+            tokens = new StringTokenizer(line.substring(
+              SHARD_TOTALS.length())); // must match main() method
+            totalBytes += Long.parseLong(tokens.nextToken());
+            totalChange += Long.parseLong(tokens.nextToken());
+            totalCorrect += Long.parseLong(tokens.nextToken());
+            totalError += Long.parseLong(tokens.nextToken());
+            totalFiles += Long.parseLong(tokens.nextToken());
+            totalFolders += Long.parseLong(tokens.nextToken());
+            totalNoData += Long.parseLong(tokens.nextToken());
+            planCount += Long.parseLong(tokens.nextToken());
+            foundTotals = true;   // this worker finished normally
+          }
+          else
+            putOutput(line);      // already filtered by worker
+        }
+        report.close();
+
+        /* Add this worker's change plan to ours, without its header. */
+
+        if (foundTotals && (planFile[i] != null))
+        {
+          plan = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(planFile[i])));
+          if (plan.readUTF().equals(PLAN_HEADER)) // same as applyPlan()
+          {
+            buffer = new byte[0x4000]; // 16 KB at a time
+            while ((count = plan.read(buffer)) > 0)
+              planOutput.write(buffer, 0, count);
+          }
+          plan.close();
+        }
+      }
+      catch (InterruptedException ie) { /* treat as failure below */ }
+      catch (IOException ioe) { /* treat as failure below */ }
+      catch (RuntimeException re) { /* bad totals, treat as failure below */ }
+      outputFile[i].delete();     // try to delete temporary files
+      if (listFile[i] != null) listFile[i].delete();
+      if (planFile[i] != null) planFile[i].delete();
+      if (foundTotals == false)   // did worker fail without totals?
+      {
+        try { status = String.valueOf(process[i].exitValue()); }
+        catch (IllegalThreadStateException itse) // interrupted, still running
+        {
+          process[i].destroy();   // we aren't waiting for it any longer
+          status = "unknown";
+        }
+        putOutput("Worker " + (i + 1) + " failed with exit status " + status
+          + " for " + formatComma.format(sizes[i]) + ((sizes[i] == 1)
+          ? " name" : " names"));
+        totalError ++;            // count as one error for whole worker
+      }
+    }
+
+    /* With the -k option, check that all units of work were given out, then
+    keep the number of files in each folder for the next run. */
+
+    if (balanceFlag)              // were we giving out units of work?
+    {
+      if (balanceUnits.size() > 0) // did workers stop before all work done?
+      {
+        putOutput("Workers stopped with " + formatComma.format(
+          balanceUnits.size()) + " units of work not done");
+        totalError ++;            // count as one error for all units
+      }
+      else if (balanceFile != null) // do we keep a history of folder sizes?
+        writeBalanceHistory();
+    }
+  } // end of runShards() method
+
+
+/*
+  serveRequest() method
+
+  Do one request from a client of our server.  Options from our command line
+  are the starting point, so that options from one request don't leak into the
+  next request.  Only options that make sense per request are accepted.  The
+  request is parsed by the client's own engine, then waits for an engine from
+  our pool.  The client gets all output, then a line with the totals.  This is
+  called in the client's thread.
+*/
+  void serveRequest(Vector request, RedatePhotoFile3Server client)
+  {
+    int i;                        // index variable
+    RedatePhotoFile3Job job;      // job for this request
+    String line;                  // one line of the request
+    Vector names;                 // file and folder names from request
+    RedatePhotoFile3Options options; // options for this request
+    Vector words;                 // options from request
+
+    names = new Vector();
+    words = new Vector();
+    for (i = 0; i < request.size(); i ++)
+    {
+      line = (String) request.get(i);
+      if (line.startsWith("-") || (mswinFlag && line.startsWith("/")))
+        words.add(line);          // options come before or after names
+      else
+        names.add(new File(line)); // assume this is a file or folder name
+    }
+    try { options = client.parser.parseOptions(serverDefaults, words); }
+    catch (IllegalArgumentException iae) // bad option, don't process names
+    {
+      client.output.println(SERVER_ERROR + " " + iae.getMessage());
+      client.output.flush();
+      return;
+    }
+    job = new RedatePhotoFile3Job(options, (File[]) names.toArray(
+      new File[0]), client);
+    client.job = job;             // client may cancel if connection closes
+    client.totals = null;         // no totals until job is done
+    synchronized (serverQueue)    // give client to next free engine
+    {
+      serverQueue.add(client);
+      serverQueue.notifyAll();
+    }
+    synchronized (client)         // wait for engine to finish job
+    {
+      while (client.totals == null)
+      {
+        try { client.wait(); }
+        catch (InterruptedException ie) { /* ignore errors */ }
+      }
+    }
+    client.message(client.totals); // same totals as a machine-readable line
+    client.output.flush();
+  }
+
+
+/*
+  serverOption() method
+
+  Accept one option from a server request, with the same syntax as on the
+  command line.  Return null if the option was accepted, or an error message.
+*/
+  String serverOption(String text)
+  {
+    String word = text.toLowerCase(); // easier to process if consistent case
+    if (mswinFlag && word.startsWith("/")) // Windows options may use slash
+      word = "-" + word.substring(1);
+
+    if (word.startsWith("-a"))
+    {
+      try { adjustValueSecond = Integer.parseInt(word.substring(2)); }
+      catch (NumberFormatException nfe) // if not a number or bad syntax
+        { return("Invalid number of seconds: " + text); }
+    }
+    else if (word.equals("-b"))
+      batchFlag = true;           // change files after each folder
+    else if (word.equals("-d"))
+      debugFlag = true;           // show debug information, change nothing
+    else if (word.equals("-f0"))
+      { auditFlag = false; redateFlag = false; renameFlag = false; }
+    else if (word.equals("-f1"))
+      { auditFlag = false; redateFlag = true; renameFlag = false; }
+    else if (word.equals("-f2"))
+      { auditFlag = false; redateFlag = false; renameFlag = true; }
+    else if (word.equals("-f3"))
+      { auditFlag = false; redateFlag = true; renameFlag = true; }
+    else if (word.equals("-f4"))
+      { auditFlag = true; redateFlag = false; renameFlag = false; }
+    else if (word.equals("-g") || word.equals("-g1"))
+      driftMode = 1;              // estimate clock drift for each camera
+    else if (word.equals("-g0"))
+      driftMode = 0;              // don't estimate clock drift
+    else if (word.equals("-g2"))
+      driftMode = 2;              // estimate clock drift for each folder
+    else if (word.matches("-m[0-9]")) // only one digit is accepted
+    {
+      showIndex = word.charAt(2) - '0';
+      if (showIndex >= SHOW_CHOICES.length)
+        return("Message index must be from 0 to " + (SHOW_CHOICES.length - 1)
+          + ": " + text);
+    }
+    else if (word.startsWith("-p"))
+    {
+      try { setRenameFormat(text.substring(2)); }
+      catch (IllegalArgumentException iae) // pattern was not accepted
+        { return("Invalid rename pattern (" + iae.getMessage() + "): " + text); }
+      renameFlag = (renameDateString.length() > 0); // pattern enables option
+    }
+    else if (word.equals("-s") || word.equals("-s1"))
+      recurseFlag = true;         // do subfolders
+    else if (word.equals("-s0"))
+      recurseFlag = false;        // no subfolders
+    else if (word.equals("-t") || word.equals("-t1"))
+      oldDateFlag = false;        // find newest (modified) dates
+    else if (word.equals("-t0"))
+      oldDateFlag = true;         // find oldest (original) dates
+    else if (word.startsWith("-t("))
+    {
+      try { setRankRules(text.substring(2)); }
+      catch (IllegalArgumentException iae) // rules were not accepted
+        { return("Invalid date rules (" + iae.getMessage() + "): " + text); }
+    }
+    else if (word.equals("-y") || word.equals("-y1"))
+      sidecarMode = 1;            // XMP sidecar date if no date in file
+    else if (word.equals("-y0"))
+      sidecarMode = 0;            // don't look for XMP sidecars
+    else if (word.equals("-y2"))
+      sidecarMode = 2;            // XMP sidecar date before date in file
+    else
+      return("Option not recognized in server request: " + text);
+    return(null);                 // option was accepted
+  }
+
+
+/*
+  setOrganizeFolder() method
+
+  Set the root folder and the subfolder pattern for moving files into folders
+  by date (-o option).  The pattern is optional, in parentheses before the
+  root folder, and must not leave the root folder.  Throw an exception if the
+  root folder or the pattern is not accepted.
+*/
+  void setOrganizeFolder(String text)
+  {
+    int close;                    // index of closing parenthesis, or -1
+    SimpleDateFormat format;      // formats date folder names
+    String pattern;               // SimpleDateFormat pattern for subfolders
+    String root;                  // root folder name, without pattern
+
+    pattern = ORGANIZE_FORMAT;    // default date folders
+    root = text;
+    close = text.indexOf(')');
+    if (text.startsWith("(") && (close > 0)) // is there a pattern?
+    {
+      pattern = text.substring(1, close);
+      root = text.substring(close + 1);
+    }
+    if ((pattern.length() == 0) || pattern.startsWith("/")
+      || (pattern.indexOf("..") >= 0)) // must stay below root folder
+    {
+      throw new IllegalArgumentException("folders must be below root");
+    }
+    if (root.length() == 0)       // is there a root folder?
+      throw new IllegalArgumentException("no root folder");
+    format = new SimpleDateFormat(pattern); // may throw exception
+    organizeFormat = format;      // accept pattern only if valid
+    organizeFolders = Collections.synchronizedSet(new HashSet());
+    try { organizeRoot = (new File(root)).getCanonicalFile(); }
+    catch (IOException ioe) { organizeRoot = new File(root); } // as given
+  }
+
+
+/*
+  setRankRules() method
+
+  Set the rules for ranking dates found in a file (-t option), from a list of
+  rule names in parentheses, separated by commas.  Throw an exception if the
+  list is not accepted.
+*/
+  void setRankRules(String text)
+  {
+    int i;                        // index variable
+    int rules;                    // RANK_* bits for accepted rules
+    String word;                  // one rule name, trimmed and lowercase
+    String[] words;               // rule names from caller's list
+
+    if ((text.startsWith("(") == false) || (text.endsWith(")") == false))
+      throw new IllegalArgumentException("rules must be in parentheses");
+    rules = 0;                    // no rules accepted yet
+    words = text.substring(1, (text.length() - 1)).split(",");
+    for (i = 0; i < words.length; i ++)
+    {
+      word = words[i].trim().toLowerCase();
+      if (word.equals("original")) // prefer DateTimeOriginal, Digitized
+        rules |= RANK_ORIGINAL;
+      else if (word.equals("nothumb")) // ignore dates in thumbnail image
+        rules |= RANK_THUMBNAIL;
+      else if (word.equals("nofuture")) // ignore dates in the future
+        rules |= RANK_FUTURE;
+      else if (word.length() > 0)
+        throw new IllegalArgumentException("unknown rule " + word);
+    }
+    rankRules = rules;            // accept rules only if all are valid
+  }
+
+
+/*
+  setRates() method
+
+  Parse a list of three numbers for the rate limits: bytes read per second,
+  files opened per second, and files changed per second.  Zero means no limit.
+  Return true if the syntax is correct and the limits have been set.
+*/
+  boolean setRates(String text)
+  {
+    Pattern pattern = Pattern.compile(
+      "\\s*\\(\\s*(\\d{1,12})\\s*,\\s*(\\d{1,9})\\s*,\\s*(\\d{1,9})\\s*\\)\\s*");
+    Matcher matcher = pattern.matcher(text); // parse caller's text
+    if (matcher.matches() == false) // bad syntax or too many digits
+      return(false);
+    rateBytes.setRate(Long.parseLong(matcher.group(1)));
+    rateFiles.setRate(Long.parseLong(matcher.group(2)));
+    rateWrites.setRate(Long.parseLong(matcher.group(3)));
+    return(true);
+  }
+
+
+/*
+  setRenameFormat() method
+
+  Set the pattern for renaming files: either a SimpleDateFormat pattern for a
+  date and time prefix, or a template with tokens in braces for the whole new
+  name.  Templates are compiled once here, not for each file.  Throws
+  IllegalArgumentException if the pattern isn't valid, without changing the
+  current pattern.
+*/
+  void setRenameFormat(String text)
+  {
+    SimpleDateFormat format;      // date prefix, or null for template
+    RedatePhotoFile3Template template; // template, or null for date prefix
+
+    format = null;
+    template = null;
+    if (text.indexOf('{') >= 0)   // is this a template?
+      template = new RedatePhotoFile3Template(text);
+    else
+      format = new SimpleDateFormat(text);
+    renameDateFormat = format;    // pattern is valid, use it
+    renameDateString = text;
+    renameTemplate = template;
+  }
+
+
+/*
+  setStatusMessage() method
+
+  Set the text for the status message if we are running as a GUI application.
+  This gives the user some indication of our progress when processing is slow.
+  The console doesn't show running status.  A library caller gets the status
+  through its listener, and the GUI replaces this method.
+*/
+  void setStatusMessage(String text)
+  {
+    if ((runningJob != null) && (runningJob.listener != null))
+      runningJob.listener.progress(totalFiles, text); // caller shows progress
+  }
+
+
+/*
+  shardIndex() method
+
+  Return the worker number (from zero) for a file or folder name, using a hash
+  of the full path name.  Java defines the hash code for strings, so the same
+  name always goes to the same worker, even in different runs.
+*/
+  int shardIndex(String name)
+  {
+    File file;                    // file or folder name
+    String path;                  // full path name
+
+    file = new File(name);
+    try { path = file.getCanonicalPath(); } // full directory search
+    catch (IOException ioe) { path = file.getAbsolutePath(); }
+    return((path.hashCode() & 0x7FFFFFFF) % shardCount);
+  }
+
+
+/*
+  showHelp() method
+
+  Show the help summary.  This is a UNIX standard and is expected for all
+  console applications, even very simple ones.
+*/
+  void showHelp()
+  {
+    System.err.println();
+    System.err.println(PROGRAM_TITLE);
+    System.err.println();
+    System.err.println("  java  RedatePhotoFile3  [options]  [fileOrFolderNames]");
+    System.err.println();
+    System.err.println("Options:");
+    System.err.println("  -? = -help = show summary of command-line syntax");
+    System.err.println("  -a# = number of seconds to add to date and time found (may be negative)");
+    System.err.println("  -b# = change file dates and names after reading all files in each folder;");
+    System.err.println("      # is optional number of folders changed at the same time; example: -b4");
+    System.err.println("  -c# = write plan of changes to a file, but don't change files; example:");
+    System.err.println("      -cplan.dat (see -e option)");
+    System.err.println("  -d = show debug information (may be verbose)");
+    System.err.println("  -e# = make changes from a plan file written earlier with -c option; only");
+    System.err.println("      files with the same size and date as in the plan are changed");
+//  System.err.println("  -f0 = find dates, times but do not change file date or rename");
+    System.err.println("  -f1 = change file date in system file directory (default)");
+    System.err.println("  -f2 = rename file with date, time prefix (see -p option)");
+    System.err.println("  -f3 = change file date and rename file with date, time prefix");
+    System.err.println("  -f4 = audit only: count files where file date differs from date found, with");
+    System.err.println("      totals by difference and by folder; no changes; each file only with -d");
+    System.err.println("  -g0 = don't estimate camera clock drift (default)");
+    System.err.println("  -g1 = -g = estimate clock drift from GPS times for each camera model and");
+    System.err.println("      serial number, and correct dates; also use camera time zone if given");
+    System.err.println("  -g2 = estimate clock drift from GPS times for each folder");
+    System.err.println("  -i(#,#,#) = limit bytes read, files opened, files changed per second; zero");
+    System.err.println("      is no limit; divided among workers; example: -i(2000000,20,5)");
+    System.err.println("  -i# = read -i(#,#,#) limits from first line of a file, again if file");
+    System.err.println("      changes while running; not divided among workers; example: -irates.txt");
+    System.err.println("  -j# = number of worker processes (JVMs) to share files and folders;");
+    System.err.println("      default is -j1 for no workers; must come before file or folder names;");
+    System.err.println("      each name goes to one worker, so use -k to share one big folder");
+    System.err.println("  -k# = with -j, give workers the largest folders first, splitting big folders;");
+    System.err.println("      # is an optional file for folder sizes between runs; example: -ksizes.txt");
+    System.err.println("  -l# = read file or folder names from a list, one per line or separated by");
+    System.err.println("      null bytes; from standard input if no file name; example: -lnames.txt");
+    System.err.println("  -m0 = show all files and general comments (default)");
+    System.err.println("  -m1 = show only files with successful changes");
+    System.err.println("  -m2 = show files with changes or with errors");
+    System.err.println("  -m3 = show only files with failures to change");
+    System.err.println("  -n# = show time for each phase, and # slowest files and folders; default");
+    System.err.println("      is -n10 if no number; example: -n25");
+    System.err.println("  -o# = move files into date folders below this root folder, with optional");
+    System.err.println("      SimpleDateFormat for folders first in parentheses; default pattern is");
+    System.err.println("      (" + ORGANIZE_FORMAT + "); example: -o(yyyy/MM)d:\\sorted");
+    System.err.println("  -p# = SimpleDateFormat for renaming; default is -p\"" + RENAME_FORMAT + "\"");
+    System.err.println("      or template with {date:pattern} {camera} {seq:04} {name} {ext}, and / for");
+    System.err.println("      subfolders; example: -p\"{date:yyyy/MM}/{camera}_{seq:04}{ext}\"");
+    System.err.println("  -q# = after processing, list files in index (see -r option) with file date");
+    System.err.println("      and embedded date different by more than # seconds; example: -q3600");
+    System.err.println("  -r# = keep an index of results for each file, added to if file exists;");
+    System.err.println("      temporary if no file name; example: -rindex.dat");
+    System.err.println("  -s0 = do only given files or folders, no subfolders (default)");
+    System.err.println("  -s1 = -s = process files, folders, and subfolders");
+    System.err.println("  -t0 = find oldest (original) date and time (default)");
+    System.err.println("  -t1 = -t = find newest (modified) date and time");
+    System.err.println("  -t(#) = rules for choosing dates: original = prefer DateTimeOriginal tag,");
+    System.err.println("      nothumb = ignore dates in thumbnail, nofuture = ignore future dates; then");
+    System.err.println("      oldest or newest; example: -t(original,nothumb,nofuture)");
+    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
+    System.err.println("      example: -u16");
+    System.err.println("  -v# = run as a server on this local port; each request is options (-a -b");
+    System.err.println("      -d -f -g -m -p -s -t -y) and names, one per line, then an empty line");
+    System.err.println("  -v#,# = server with token file; clients first send \"#RedatePhotoFile3 token\"");
+    System.err.println("      and the token; without a token, any local user may send requests");
+    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
+    System.err.println("      example: -w(50,50,700,500)");
+    System.err.println("  -x = maximize application window; default is normal window");
+    System.err.println("  -y0 = don't look for XMP sidecar files (default)");
+    System.err.println("  -y1 = -y = use date in XMP sidecar file (same name, .xmp) if no date in photo");
+    System.err.println("  -y2 = use date in XMP sidecar file before date in photo");
+    System.err.println("  -z# = rules file for adjusting dates by folder or camera model; each line");
+    System.err.println("      has seconds (+/-) or a time zone, then a folder (* for any one folder)");
+    System.err.println("      or model=name; example: -zrules.txt");
+    System.err.println();
+    System.err.println("Output may be redirected with the \">\" operator.  If no file or folder names");
+    System.err.println("are given on the command line, then a graphical interface will open.");
+    System.err.println();
+    System.err.println(COPYRIGHT_NOTICE);
+//  System.err.println();
+
+  } // end of showHelp() method
+
+
+/*
+  sortFileList() method
+
+  When we ask for a list of files or subfolders in a directory, the list is not
+  likely to be in our preferred order.  Java does not guarantee any particular
+  order, and the observed order is whatever is supplied by the underlying file
+  system (which can be very jumbled for FAT16/FAT32).  We would like the file
+  names to be sorted, and since we recurse on subfolders, we also want the
+  subfolders to appear in order.
+
+  The caller's parameter may be <null> and this may happen if the caller asks
+  File.listFiles() for the contents of a protected system directory.  All calls
+  to listFiles() in this program are wrapped inside a call to us, so we replace
+  a null parameter with an empty array as our result.
+*/
+  File[] sortFileList(File[] input)
+  {
+    String fileName;              // file name without the path
+    int i;                        // index variable
+    TreeMap list;                 // our list of files
+    File[] result;                // our result
+    StringBuffer sortKey;         // created sorting key for each file
+
+    if (input == null)            // were we given a null pointer?
+      result = new File[0];       // yes, replace with an empty array
+    else if (input.length < 2)    // don't sort lists with zero or one element
+      result = input;             // just copy input array as result array
+    else
+    {
+      /* First, create a sorted list with our choice of index keys and the File
+      objects as data.  Names are sorted as files or folders, then in lowercase
+      to ignore differences in uppercase versus lowercase, then in the original
+      form for systems where case is distinct. */
+
+      list = new TreeMap();       // create empty sorted list with keys
+      sortKey = new StringBuffer(); // allocate empty string buffer for keys
+      for (i = 0; i < input.length; i ++)
+      {
+        sortKey.setLength(0);     // empty any previous contents of buffer
+        if (input[i].isDirectory()) // is this "file" actually a folder?
+          sortKey.append("2 ");   // yes, put subfolders after files
+        else                      // must be a file or an unknown object
+          sortKey.append("1 ");   // put files before subfolders
+
+        fileName = input[i].getName(); // get the file name without the path
+        sortKey.append(fileName.toLowerCase()); // start by ignoring case
+        sortKey.append(" ");      // separate lowercase from original case
+        sortKey.append(fileName); // then sort file name on original case
+        list.put(sortKey.toString(), input[i]); // put file into sorted list
+      }
+
+      /* Second, now that the TreeMap object has done all the hard work of
+      sorting, pull the File objects from the list in order as determined by
+      the sort keys that we created. */
+
+      result = (File[]) list.values().toArray(new File[0]);
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of sortFileList() method
+
+
+/*
+  splitBalanceUnits() method
+
+  Split the largest folders into smaller units of work for worker processes
+  (-k option), until there are several units for each worker, then sort the
+  units from largest to smallest.  A folder's files are divided into units of
+  file names, and each subfolder is a new unit.  We count and report a split
+  folder here, the same as a worker would have.
+*/
+  void splitBalanceUnits()
+  {
+    RedatePhotoFile3Unit chunk;   // unit for files in one folder
+    File[] contents;              // contents of folder being split
+    int i, k;                     // index variables
+    File next;                    // next File object from <contents>
+    int splits;                   // number of folders split
+    RedatePhotoFile3Unit unit;    // folder being split
+
+    for (splits = 0; (splits < BALANCE_SPLITS) && (balanceUnits.size()
+      < (BALANCE_UNITS * shardCount)); splits ++)
+    {
+      k = -1;                     // find largest folder that isn't split
+      for (i = 0; i < balanceUnits.size(); i ++)
+      {
+        unit = (RedatePhotoFile3Unit) balanceUnits.get(i);
+        if ((unit.folder != null) && ((k < 0) || (unit.weight
+          > ((RedatePhotoFile3Unit) balanceUnits.get(k)).weight)))
+        {
+          k = i;
+        }
+      }
+      if (k < 0) break;           // no folders left, only file names
+      unit = (RedatePhotoFile3Unit) balanceUnits.remove(k);
+      totalFolders ++;            // one more folder or subfolder found
+      if (debugFlag || (auditFlag == false)) // audit has totals only
+        putOutput("Searching folder " + unit.folder.getPath());
+      contents = sortFileList(unit.folder.listFiles()); // sorted, no filter
+      chunk = null;               // no file names from this folder yet
+      for (i = 0; i < contents.length; i ++)
+      {
+        next = contents[i];       // same tests as processFileOrFolder()
+        if (next.isHidden() && (hiddenFlag == false))
+        {
+          putOutComment(next.getName()
+            + " - ignoring hidden file or subfolder");
+        }
+        else if (next.isDirectory()) // is this a subfolder?
+        {
+          if (recurseFlag)        // should we look at subfolders?
+            addBalanceFolder(next, unit); // yes, a new unit of work
+          else
+            putOutComment(next.getName() + " - ignoring subfolder");
+        }
+        else if ((sidecarMode > 0)
+          && next.getName().toLowerCase().endsWith(".xmp"))
+        {
+          putOutComment(next.getName() + " - XMP sidecar, not a photo");
+        }
+        else if (next.isFile())   // is this a file?
+          chunk = addBalanceFile(chunk, unit, next.getPath());
+      }
+    }
+    Collections.sort(balanceUnits); // largest units first
+  }
+
+
+/*
+  stopBatches() method
+
+  Stop the threads that change folders (-b# option) when a job is done, so
+  that engines for many jobs don't leave idle threads behind.  The threads
+  stop when they see that their queue was replaced, and the next job starts
+  new threads with the new queue.
+*/
+  void stopBatches()
+  {
+    Vector queue = batchQueue;    // queue for threads that will stop
+
+    synchronized (queue)
+    {
+      batchQueue = new Vector();  // for threads started by the next job
+      batchStarted = 0;
+      queue.notifyAll();          // wake up waiting threads, so they stop
+    }
+  }
+
+
+/*
+  totalsText() method
+
+  Return one line with all totals, for a coordinator (the -j option) or for a
+  program that sends requests to our server (the -v option).  The format must
+  match what runShards() expects.
+*/
+  String totalsText()
+  {
+    return(SHARD_TOTALS + " " + totalBytes + " " + totalChange + " "
+      + totalCorrect + " " + totalError + " " + totalFiles + " " + totalFolders
+      + " " + totalNoData + " " + planCount);
+  }
+
+
+/*
+  tracePhase() and traceTime() methods
+
+  Add the time since <start> to one phase of processing, if we are tracing (-n
+  option), and return the time added.  The starting time comes from
+  traceTime(), which is zero if we aren't tracing, so that untraced runs don't
+  ask for the current time.
+*/
+  long tracePhase(int phase, long start)
+  {
+    long elapsed;                 // milliseconds since <start>
+
+    if (traceCount == 0)          // are we timing files and folders?
+      return(0);                  // no, nothing to add
+    elapsed = System.currentTimeMillis() - start;
+    tracePhases[phase] += elapsed;
+    return(elapsed);
+  }
+
+  long traceTime()
+  {
+    return((traceCount == 0) ? 0 : System.currentTimeMillis());
+  }
+
+
+/*
+  writeBalanceHistory() method
+
+  Write the number of files in each folder after a run (-k option), including
+  folders from earlier runs that weren't in this run.  See
+  readBalanceHistory() for the format.
+*/
+  void writeBalanceHistory()
+  {
+    Iterator folders;             // for all folders in history
+    long[] history;               // number of files from earlier run, or null
+    String name;                  // one folder name
+    Writer output;                // for writing history file
+    RedatePhotoFile3Unit unit;    // one folder from this run
+
+    folders = balanceFolders.iterator();
+    while (folders.hasNext())     // update history with this run
+    {
+      unit = (RedatePhotoFile3Unit) folders.next();
+      history = (long[]) balanceHistory.get(unit.folder.getPath());
+      if (history == null)        // first run for this folder?
+        balanceHistory.put(unit.folder.getPath(), new long[] {unit.files});
+      else
+        history[0] = unit.files;  // replace count from earlier run
+    }
+    try
+    {
+      output = new BufferedWriter(new FileWriter(balanceFile));
+      folders = (new TreeSet(balanceHistory.keySet())).iterator();
+      while (folders.hasNext())   // sorted order for people who look
+      {
+        name = (String) folders.next();
+        output.write(((long[]) balanceHistory.get(name))[0] + " " + name);
+        output.write(System.getProperty("line.separator"));
+      }
+      output.close();
+    }
+    catch (IOException ioe)       // can't write file, not a fatal error
+    {
+      putOutput("Can't write folder sizes to " + balanceFile + ": "
+        + ioe.getMessage());
+    }
+  }
+
+
+/*
+  writePlan() method
+
+  Write one record to the change plan file.  A new date of -1 means no change
+  to the date, and an empty name means no change to the name.  A write error is
+  fatal, since the plan would be incomplete.
+*/
+  void writePlan(String path, long oldSize, long oldMillis,
+    long newMillis, String newName)
+  {
+    try
+    {
+      planOutput.writeByte(PLAN_RECORD); // same order as applyPlan()
+      planOutput.writeUTF(path);
+      planOutput.writeLong(oldSize);
+      planOutput.writeLong(oldMillis);
+      planOutput.writeLong(newMillis);
+      planOutput.writeUTF((newName != null) ? newName : "");
+      planCount ++;               // one more change in plan
+    }
+    catch (IOException ioe)       // disk full, etc
+    {
+      putOutput("Can't write change plan file: " + ioe.getMessage());
+      cancelFlag = true;          // don't do anything more
+      totalError ++;              // count as error, plan is incomplete
+    }
+  }
+
+} // end of RedatePhotoFile3 class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Gui class
+
+  This class has the graphical user interface (GUI): the main window, buttons,
+  options, and the output text area.  It is kept apart from the main class so
+  that a console application never loads the AWT or Swing classes, which take
+  longer to load than the rest of the program takes to do a small folder.  The
+  main class creates us only when there are no file or folder names on the
+  command line.  We extend the main class, so the GUI is an engine with its
+  own variables, and we replace the methods for output and status messages.
+*/
+
+class RedatePhotoFile3Gui extends RedatePhotoFile3
+{
+  /* constants */
+
+  static final String EMPTY_STATUS = ""; // message when no status to display
+  static final String[] FONT_SIZES = {"10", "12", "14", "16", "18", "20", "24",
+    "30"};                        // point sizes for text in output text area
+  static final int MIN_FRAME = 200; // minimum window height or width in pixels
+  static final String PROGRESS_SAMPLE =
+    "999,999 of 999,999 files, 9,999 per second, 99:59:59 left";
+                                  // longest text expected in progress bar
+  static final int PROGRESS_SCALE = 1000; // progress bar maximum (per mille)
+  static final String[] RATE_CHOICES = {"no I/O limits", "light I/O",
+    "lighter I/O", "minimal I/O"}; // rate limits for shared storage
+  static final String[] RATE_LIMITS = {"(0,0,0)", "(8000000,50,20)",
+    "(2000000,10,5)", "(500000,2,1)"}; // bytes, files, changes per second
+  static final String SYSTEM_FONT = "Dialog"; // this font is always available
+  static final int TIMER_DELAY = 1000; // 1.000 seconds between status updates
+  static final int UPDATE_DONE = 1; // update in GUI thread: run is done
+  static final int UPDATE_OUTPUT = 2; // update in GUI thread: add output text
+
+  /* instance variables */
+
+  JCheckBox adjustCheckbox;       // option to adjust dates and times
+  JTextField adjustFieldYear, adjustFieldMonth, adjustFieldDay,
+    adjustFieldHour, adjustFieldMinute, adjustFieldSecond; // from big to small
+  JLabel adjustLabelYear, adjustLabelMonth, adjustLabelDay,
+    adjustLabelHour, adjustLabelMinute, adjustLabelSecond;
+  JButton cancelButton;           // graphical button for <cancelFlag>
+  JCheckBox debugCheckbox;        // graphical option for <debugFlag>
+  JButton exitButton;             // "Exit" button for ending this application
+  JFileChooser fileChooser;       // asks for input and output file names
+  String fontName;                // font name for text in output text area
+  JComboBox fontNameDialog;       // graphical option for <fontName>
+  int fontSize;                   // point size for text in output text area
+  JComboBox fontSizeDialog;       // graphical option for <fontSize>
+  JFrame mainFrame;               // this application's GUI window
+  JCheckBox newDateCheckbox;      // graphical option for <oldDateFlag>
+  JCheckBox oldDateCheckbox;      // graphical option for <oldDateFlag>
+  JButton openButton;             // "Open" button for files or folders
+  File[] openFileList;            // list of files selected by user
+  Thread openFilesThread;         // separate thread for doOpenButton() method
+  StringBuffer outputPending;     // lines not yet in <outputText>
+  boolean outputScheduled;        // true if GUI thread will add lines soon
+  JTextArea outputText;           // generated report while opening files
+  RedatePhotoFile3Update outputUpdate; // adds lines in GUI thread
+  JProgressBar progressBar;       // files done out of files counted
+  HashMap progressCounts;         // files in earlier runs, as long[1] values
+  volatile boolean progressFinished; // true when current run is done
+  String progressKey;             // selection for <progressCounts>, or null
+  volatile RedatePhotoFile3Progress progressNow; // latest progress
+                                  // ... from worker thread, read by timer
+  volatile int progressRun;       // run number, so old counts are ignored
+  long progressStarted;           // when current run started, in milliseconds
+  volatile long progressTotal;    // files counted for this run, or -1
+  JComboBox rateDialog;           // graphical choice for rate limits
+  String rateGiven;               // rate limits from command line, or null
+  JCheckBox recurseCheckbox;      // graphical option for <recurseFlag>
+  JCheckBox redateCheckbox;       // graphical option for <redateFlag>
+  JCheckBox renameCheckbox;       // graphical option for <renameFlag>
+  JButton renameFormatButton;     // button for editing rename date format
+  JPanel renameFormatDialog;      // entire dialog panel for editing format
+  JTextField renamePatternText;   // user edits text to change pattern
+  JTextField renameResultText;    // we show user result after format
+  JButton renameTestButton;       // button for testing date, time format
+  JButton saveButton;             // "Save" button for writing output text
+  JComboBox showDialog;           // graphical choice for message selection
+  JLabel statusDialog;            // status message during extended processing
+  String statusPending;           // will become <statusDialog> after delay
+  javax.swing.Timer statusTimer;  // timer for updating status message
+
+/*
+  RedatePhotoFile3Gui() constructor
+
+  Create the GUI with the options from the command line, which were parsed by
+  another engine before we knew that there would be a window.  Each run from
+  the "Open" button is a job done by this engine, in the worker thread.
+*/
+  public RedatePhotoFile3Gui(RedatePhotoFile3 options)
+  {
+    super();                      // default values for all variables
+    (new RedatePhotoFile3Options(options)).apply(this); // same options
+  }
+
+
+/*
+  countFiles() method
+
+  Count the files that will be processed for the user's selection, in our own
+  thread while the files are being processed, using the same rules for hidden
+  files, subfolders, and XMP sidecars.  The count is only for the progress
+  bar, and is ignored if a newer run has started.  Folders are listed again
+  here, but most file systems keep recent folder lists in memory.
+*/
+  void countFiles(File[] files, int run)
+  {
+    File[] contents;              // contents of one folder, or null
+    long count;                   // number of files found so far
+    int i;                        // index variable
+    File next;                    // next File object from <contents>
+    Vector waiting;               // folders not yet listed
+
+    count = 0;
+    waiting = new Vector();
+    for (i = 0; i < files.length; i ++) // selected files and folders
+    {
+      if (files[i].isDirectory()) // always look inside selected folders
+        waiting.add(files[i]);
+      else if (files[i].isFile())
+        count ++;
+    }
+    while ((waiting.size() > 0) && (run == progressRun)
+      && (cancelFlag == false))   // stop if newer run or cancelled
+    {
+      contents = ((File) waiting.remove(waiting.size() - 1)).listFiles();
+      if (contents == null)       // folder may be gone or protected
+        continue;
+      for (i = 0; i < contents.length; i ++)
+      {
+        next = contents[i];
+        if ((hiddenFlag == false) && next.isHidden())
+          { /* ignore hidden files and subfolders */ }
+        else if (next.isDirectory()) // count subfolders only if asked
+        {
+          if (recurseFlag) waiting.add(next);
+        }
+        else if ((sidecarMode > 0)
+          && next.getName().toLowerCase().endsWith(".xmp"))
+          { /* XMP sidecars are not counted as photos */ }
+        else if (next.isFile())
+          count ++;
+      }
+    }
+    if ((run == progressRun) && (cancelFlag == false)) // still wanted?
+      progressTotal = count;      // timer shows progress from now on
+  }
+
+
+/*
+  createWindow() method
+
+  Create the graphical user interface (GUI), with options from the command
+  line.  The caller has decided that we are not a console application.
+*/
+  void createWindow(int buttonSize, boolean maximizeFlag,
+    int windowLeft, int windowTop, int windowWidth, int windowHeight)
+  {
+    ActionListener action;        // our shared action listener
+    Font buttonFont;              // font for buttons, labels, status, etc
+    Border emptyBorder;           // remove borders around text areas
+    int i;                        // index variable
+    Insets inputMargins;          // margins on input text areas
+    String word;                  // one font size as a string
+
+    /* Initialize variables used only by the GUI application. */
+
+    buttonFont = null;            // by default, don't use customized font
+    fontName = "Verdana";         // preferred font name for output text area
+    fontSize = 16;                // default point size for output text area
+    outputPending = new StringBuffer(); // no lines waiting for GUI thread
+    outputScheduled = false;
+    outputUpdate = new RedatePhotoFile3Update(this, UPDATE_OUTPUT);
+    progressCounts = new HashMap(); // no earlier runs yet
+    progressFinished = true;      // nothing running yet
+    progressKey = null;
+    progressNow = new RedatePhotoFile3Progress(0, EMPTY_STATUS);
+    progressRun = 0;
+    progressStarted = System.currentTimeMillis();
+    progressTotal = -1;           // no files counted yet
+    statusPending = EMPTY_STATUS; // begin with no text for <statusDialog>
+
+    if (buttonSize > 0)           // did the user give a font size (-u)?
+    {
+      buttonFont = new Font(SYSTEM_FONT, Font.PLAIN, buttonSize); // big sizes
+//    buttonFont = new Font(SYSTEM_FONT, Font.BOLD, buttonSize); // small sizes
+      fontSize = buttonSize;      // use same point size for output text font
+    }
+
+    /* The standard Java interface style is the most reliable, but you can
+    switch to something closer to the local system, if you want. */
+
+//  try
+//  {
+//    UIManager.setLookAndFeel(
+//      UIManager.getCrossPlatformLookAndFeelClassName());
+////    UIManager.getSystemLookAndFeelClassName());
+//  }
+//  catch (Exception ulafe)
+//  {
+//    System.err.println("Unsupported Java look-and-feel: " + ulafe);
+//  }
+
+    /* Initialize shared graphical objects. */
+
+    action = new RedatePhotoFile3User(this); // our shared action listener
+    emptyBorder = BorderFactory.createEmptyBorder(); // for removing borders
+    fileChooser = new JFileChooser(); // create our shared file chooser
+    inputMargins = new Insets(1, 3, 2, 3); // top, left, bottom, right margins
+    statusTimer = new javax.swing.Timer(TIMER_DELAY, action);
+                                  // update status message on clock ticks only
+
+    /* If our preferred font is not available for the output text area, then
+    use the boring default font for the local system. */
+
+    if (fontName.equals((new Font(fontName, Font.PLAIN, fontSize)).getFamily())
+      == false)                   // create font, read back created name
+    {
+      fontName = SYSTEM_FONT;     // must replace with standard system font
+    }
+
+    /* Create the graphical interface as a series of little panels inside
+    bigger panels.  The intermediate panel names are of no lasting importance
+    and hence are only numbered (panel01, panel02, etc). */
+
+    /* Create a vertical box to stack buttons and options. */
+
+    JPanel panel01 = new JPanel();
+    panel01.setLayout(new BoxLayout(panel01, BoxLayout.Y_AXIS));
+
+    /* Create a horizontal panel for the action buttons. */
+
+    JPanel panel11 = new JPanel(new BorderLayout(0, 0));
+
+    openButton = new JButton("Open Files...");
+    openButton.addActionListener(action);
+    if (buttonFont != null) openButton.setFont(buttonFont);
+    openButton.setMnemonic(KeyEvent.VK_O);
+    openButton.setToolTipText("Start finding/opening files.");
+    panel11.add(openButton, BorderLayout.WEST);
+
+    JPanel panel12 = new JPanel(new FlowLayout(FlowLayout.CENTER, 30, 0));
+
+    cancelButton = new JButton("Cancel");
+    cancelButton.addActionListener(action);
+    cancelButton.setEnabled(false);
+    if (buttonFont != null) cancelButton.setFont(buttonFont);
+    cancelButton.setMnemonic(KeyEvent.VK_C);
+    cancelButton.setToolTipText("Stop finding/opening files.");
+    panel12.add(cancelButton);
+
+    saveButton = new JButton("Save Output...");
+    saveButton.addActionListener(action);
+    if (buttonFont != null) saveButton.setFont(buttonFont);
+    saveButton.setMnemonic(KeyEvent.VK_S);
+    saveButton.setToolTipText("Copy output text to a file.");
+    panel12.add(saveButton);
+
+    panel11.add(panel12, BorderLayout.CENTER);
+
+    exitButton = new JButton("Exit");
+    exitButton.addActionListener(action);
+    if (buttonFont != null) exitButton.setFont(buttonFont);
+    exitButton.setMnemonic(KeyEvent.VK_X);
+    exitButton.setToolTipText("Close this program.");
+    panel11.add(exitButton, BorderLayout.EAST);
+
+    panel01.add(panel11);
+    panel01.add(Box.createVerticalStrut(10)); // space between panels
+
+    /* Options for changing which dates and times we search for. */
+
+    JPanel panel21 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    oldDateCheckbox = new JCheckBox(
+      "Search files for oldest date and time (original), or else ",
+      oldDateFlag);
+    if (buttonFont != null) oldDateCheckbox.setFont(buttonFont);
+    oldDateCheckbox.addActionListener(action); // do last so don't fire early
+    panel21.add(oldDateCheckbox);
+    panel21.add(Box.createHorizontalStrut(1));
+
+    newDateCheckbox = new JCheckBox("newest (modified) date.", (! oldDateFlag));
+    if (buttonFont != null) newDateCheckbox.setFont(buttonFont);
+    newDateCheckbox.addActionListener(action); // do last so don't fire early
+    panel21.add(newDateCheckbox);
+
+    panel01.add(panel21);
+    panel01.add(Box.createVerticalStrut(6)); // space between panels
+
+    /* Options for adjusting dates and times by seconds, minutes, etc. */
+
+    JPanel panel23 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    adjustCheckbox = new JCheckBox(
+      "Adjust date and time found by adding to each as follows (or subtracting if negative):",
+      ((adjustValueYear != 0) || (adjustValueMonth != 0)
+        || (adjustValueDay != 0) || (adjustValueHour != 0)
+        || (adjustValueMinute != 0) || (adjustValueSecond != 0)));
+    if (buttonFont != null) adjustCheckbox.setFont(buttonFont);
+    panel23.add(adjustCheckbox);
+    panel01.add(panel23);
+    panel01.add(Box.createVerticalStrut(7)); // space between panels
+
+    JPanel panel24 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    panel24.add(Box.createHorizontalStrut(22));
+
+    adjustFieldYear = new JTextField(String.valueOf(adjustValueYear), 3);
+    if (buttonFont != null) adjustFieldYear.setFont(buttonFont);
+    adjustFieldYear.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldYear.setMargin(inputMargins);
+    adjustFieldYear.setOpaque(false);
+    panel24.add(adjustFieldYear);
+    adjustLabelYear = new JLabel(" years, ");
+    if (buttonFont != null) adjustLabelYear.setFont(buttonFont);
+    panel24.add(adjustLabelYear);
+
+    adjustFieldMonth = new JTextField(String.valueOf(adjustValueMonth), 3);
+    if (buttonFont != null) adjustFieldMonth.setFont(buttonFont);
+    adjustFieldMonth.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldMonth.setMargin(inputMargins);
+    adjustFieldMonth.setOpaque(false);
+    panel24.add(adjustFieldMonth);
+    adjustLabelMonth = new JLabel(" months, ");
+    if (buttonFont != null) adjustLabelMonth.setFont(buttonFont);
+    panel24.add(adjustLabelMonth);
+
+    adjustFieldDay = new JTextField(String.valueOf(adjustValueDay), 3);
+    if (buttonFont != null) adjustFieldDay.setFont(buttonFont);
+    adjustFieldDay.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldDay.setMargin(inputMargins);
+    adjustFieldDay.setOpaque(false);
+    panel24.add(adjustFieldDay);
+    adjustLabelDay = new JLabel(" days, ");
+    if (buttonFont != null) adjustLabelDay.setFont(buttonFont);
+    panel24.add(adjustLabelDay);
+
+    adjustFieldHour = new JTextField(String.valueOf(adjustValueHour), 3);
+    if (buttonFont != null) adjustFieldHour.setFont(buttonFont);
+    adjustFieldHour.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldHour.setMargin(inputMargins);
+    adjustFieldHour.setOpaque(false);
+    panel24.add(adjustFieldHour);
+    adjustLabelHour = new JLabel(" hours, ");
+    if (buttonFont != null) adjustLabelHour.setFont(buttonFont);
+    panel24.add(adjustLabelHour);
+
+    adjustFieldMinute = new JTextField(String.valueOf(adjustValueMinute), 3);
+    if (buttonFont != null) adjustFieldMinute.setFont(buttonFont);
+    adjustFieldMinute.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldMinute.setMargin(inputMargins);
+    adjustFieldMinute.setOpaque(false);
+    panel24.add(adjustFieldMinute);
+    adjustLabelMinute = new JLabel(" minutes, ");
+    if (buttonFont != null) adjustLabelMinute.setFont(buttonFont);
+    panel24.add(adjustLabelMinute);
+
+    adjustFieldSecond = new JTextField(String.valueOf(adjustValueSecond), 3);
+    if (buttonFont != null) adjustFieldSecond.setFont(buttonFont);
+    adjustFieldSecond.setHorizontalAlignment(JTextField.RIGHT);
+    adjustFieldSecond.setMargin(inputMargins);
+    adjustFieldSecond.setOpaque(false);
+    panel24.add(adjustFieldSecond);
+    adjustLabelSecond = new JLabel(" seconds.");
+    if (buttonFont != null) adjustLabelSecond.setFont(buttonFont);
+    panel24.add(adjustLabelSecond);
+
+    panel01.add(panel24);
+    panel01.add(Box.createVerticalStrut(6)); // space between panels
+
+    /* Options for changing the file modification date. */
+
+    JPanel panel25 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    redateCheckbox = new JCheckBox(
+      "Change date in system file directory using date and time as found above or adjusted.",
+      redateFlag);
+    if (buttonFont != null) redateCheckbox.setFont(buttonFont);
+    redateCheckbox.addActionListener(action); // do last so don't fire early
+    panel25.add(redateCheckbox);
+
+    panel01.add(panel25);
+    panel01.add(Box.createVerticalStrut(5)); // space between panels
+
+    /* Options for changing the file directory name. */
+
+    JPanel panel27 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    renameCheckbox = new JCheckBox(
+      ("Rename files with a date and time prefix, similar to: "
+      + RENAME_FORMAT), renameFlag);
+    if (buttonFont != null) renameCheckbox.setFont(buttonFont);
+    renameCheckbox.addActionListener(action); // do last so don't fire early
+    panel27.add(renameCheckbox);
+    panel27.add(Box.createHorizontalStrut(5));
+
+    renameFormatButton = new JButton("Set Format...");
+    renameFormatButton.addActionListener(action);
+    if (buttonFont != null) renameFormatButton.setFont(buttonFont);
+    renameFormatButton.setMnemonic(KeyEvent.VK_F);
+    renameFormatButton.setToolTipText("Edit date, time format for renaming.");
+    panel27.add(renameFormatButton);
+
+    panel01.add(panel27);
+    panel01.add(Box.createVerticalStrut(10)); // space between panels
+
+    /* Miscellaneous options. */
+
+    JPanel panel31 = new JPanel(new BorderLayout(10, 0));
 
     JPanel panel32 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
 
-    fontNameDialog = new JComboBox(GraphicsEnvironment
-      .getLocalGraphicsEnvironment().getAvailableFontFamilyNames());
-    if (buttonFont != null) fontNameDialog.setFont(buttonFont);
-    fontNameDialog.setSelectedItem(fontName); // select default font name
-    fontNameDialog.setToolTipText("Font name for output text.");
-    fontNameDialog.addActionListener(action); // do last so don't fire early
-    panel32.add(fontNameDialog);
-    panel32.add(Box.createHorizontalStrut(5));
+    fontNameDialog = new JComboBox(GraphicsEnvironment
+      .getLocalGraphicsEnvironment().getAvailableFontFamilyNames());
+    if (buttonFont != null) fontNameDialog.setFont(buttonFont);
+    fontNameDialog.setSelectedItem(fontName); // select default font name
+    fontNameDialog.setToolTipText("Font name for output text.");
+    fontNameDialog.addActionListener(action); // do last so don't fire early
+    panel32.add(fontNameDialog);
+    panel32.add(Box.createHorizontalStrut(5));
+
+    TreeSet sizelist = new TreeSet(); // collect font sizes 10 to 99 in order
+    word = String.valueOf(fontSize); // convert number to a string we can use
+    sizelist.add(word);           // add default or user's chosen font size
+    for (i = 0; i < FONT_SIZES.length; i ++) // add our preferred size list
+      sizelist.add(FONT_SIZES[i]); // assume sizes are all two digits (10-99)
+    fontSizeDialog = new JComboBox(sizelist.toArray()); // give user nice list
+    if (buttonFont != null) fontSizeDialog.setFont(buttonFont);
+    fontSizeDialog.setSelectedItem(word); // selected item is our default size
+    fontSizeDialog.setToolTipText("Point size for output text.");
+    fontSizeDialog.addActionListener(action); // do last so don't fire early
+    panel32.add(fontSizeDialog);
+
+    panel31.add(panel32, BorderLayout.WEST);
+
+    JPanel panel33 = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 0));
+
+    debugCheckbox = new JCheckBox("debug mode", debugFlag);
+    if (buttonFont != null) debugCheckbox.setFont(buttonFont);
+    debugCheckbox.setToolTipText("Verbose output, don't change real files.");
+    debugCheckbox.addActionListener(action); // do last so don't fire early
+    panel33.add(debugCheckbox);
+
+    recurseCheckbox = new JCheckBox("subfolders", recurseFlag);
+    if (buttonFont != null) recurseCheckbox.setFont(buttonFont);
+    recurseCheckbox.setToolTipText("Select to search folders and subfolders.");
+    recurseCheckbox.addActionListener(action); // do last so don't fire early
+    panel33.add(recurseCheckbox);
+
+    /* Rate limits can be changed while files are being processed, so this
+    dialog is never disabled.  Limits from the command line (-i option) are
+    added as one more choice. */
+
+    Vector ratelist = new Vector(Arrays.asList(RATE_CHOICES));
+    rateGiven = null;             // assume no limits from command line
+    if ((rateBytes.rate > 0) || (rateFiles.rate > 0) || (rateWrites.rate > 0))
+    {
+      rateGiven = "(" + rateBytes.rate + "," + rateFiles.rate + ","
+        + rateWrites.rate + ")";
+      ratelist.add("given I/O limits");
+    }
+    rateDialog = new JComboBox(ratelist.toArray());
+    if (buttonFont != null) rateDialog.setFont(buttonFont);
+    rateDialog.setSelectedIndex(ratelist.size() - ((rateGiven == null)
+      ? RATE_CHOICES.length : 1)); // no limits, or limits from command line
+    rateDialog.setToolTipText("Limit disk use for shared storage.");
+    rateDialog.addActionListener(action); // do last so don't fire early
+    panel33.add(rateDialog);
+
+    panel31.add(panel33, BorderLayout.CENTER);
+
+    showDialog = new JComboBox(SHOW_CHOICES);
+    if (buttonFont != null) showDialog.setFont(buttonFont);
+    showDialog.setSelectedIndex(showIndex);
+    showDialog.setToolTipText("Select which files to report.");
+    showDialog.addActionListener(action); // do last so don't fire early
+    panel31.add(showDialog, BorderLayout.EAST);
+
+    panel01.add(panel31);
+    panel01.add(Box.createVerticalStrut(15)); // space between panels
+
+    /* Bind all of the buttons and options above into a single panel so that
+    the layout does not change when the window changes. */
+
+    JPanel panel41 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+    panel41.add(panel01);
+
+    /* Create a scrolling text area for the generated output. */
+
+    outputText = new JTextArea(20, 40);
+    outputText.setEditable(false); // user can't change this text area
+    outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+    outputText.setLineWrap(false); // don't wrap text lines
+    outputText.setMargin(new Insets(5, 6, 5, 6)); // top, left, bottom, right
+    outputText.setText(
+      "\nChange file names or the \"last modified\" date for JPEG photo files,"
+      + "\nusing an embedded date and time found in most JPEG files.  The"
+      + "\ncontents of the files are not changed."
+      + "\n\nChoose your options; then open files or folders to search.  There"
+      + "\nis no \"undo\" feature.  If in doubt, select the \"debug mode\" option."
+      + "\n\nBe careful when renaming files.  A new prefix is added each time"
+      + "\nthere is a difference.  Old prefixes are not replaced or removed."
+      + "\n\nCopyright (c) 2017 by Keith Fenske.  By using this program, you"
+      + "\nagree to terms and conditions of the Apache License and/or GNU"
+      + "\nGeneral Public License.\n\n");
+
+    JScrollPane panel51 = new JScrollPane(outputText);
+    panel51.setBorder(emptyBorder); // no border necessary here
+
+    /* Create an entire panel just for the progress bar and the status message.
+    Set margins with a BorderLayout, because a few pixels higher or lower can
+    make a difference in whether the position of the status text looks correct.
+    The progress bar is as wide as its longest expected text. */
+
+    progressBar = new JProgressBar(0, PROGRESS_SCALE);
+    if (buttonFont != null) progressBar.setFont(buttonFont);
+    progressBar.setStringPainted(true); // show counts and rates as text
+    progressBar.setString(PROGRESS_SAMPLE); // measure longest text
+    progressBar.setPreferredSize(progressBar.getPreferredSize());
+    progressBar.setString(EMPTY_STATUS); // nothing to show yet
+
+    statusDialog = new JLabel(statusPending, JLabel.RIGHT);
+    if (buttonFont != null) statusDialog.setFont(buttonFont);
+
+    JPanel panel61 = new JPanel(new BorderLayout(10, 0));
+    panel61.add(progressBar, BorderLayout.WEST);
+    panel61.add(statusDialog, BorderLayout.CENTER);
+
+    JPanel panel62 = new JPanel(new BorderLayout(0, 0));
+    panel62.add(Box.createVerticalStrut(7), BorderLayout.NORTH);
+    panel62.add(Box.createHorizontalStrut(10), BorderLayout.WEST);
+    panel62.add(panel61, BorderLayout.CENTER);
+    panel62.add(Box.createHorizontalStrut(10), BorderLayout.EAST);
+//  panel62.add(Box.createVerticalStrut(5), BorderLayout.SOUTH);
+
+    /* Combine buttons and options with output text.  The text area expands and
+    contracts with the window size.  Put our status message at the bottom. */
+
+    JPanel panel71 = new JPanel(new BorderLayout(0, 0));
+    panel71.add(panel41, BorderLayout.NORTH); // buttons and options
+    panel71.add(panel51, BorderLayout.CENTER); // text area
+    panel71.add(panel62, BorderLayout.SOUTH); // progress, status message
+
+    /* Create the main window frame for this application.  We supply our own
+    margins using the edges of the frame's border layout. */
+
+    mainFrame = new JFrame(PROGRAM_TITLE);
+    cacheFiles = new RedatePhotoFile3Cache(CACHE_FILES); // save results for
+    cacheFolders = new RedatePhotoFile3Cache(CACHE_FOLDERS); // next run
+    Container panel72 = mainFrame.getContentPane(); // where content meets frame
+    panel72.setLayout(new BorderLayout(0, 0));
+    panel72.add(Box.createVerticalStrut(15), BorderLayout.NORTH); // top margin
+    panel72.add(Box.createHorizontalStrut(5), BorderLayout.WEST); // left
+    panel72.add(panel71, BorderLayout.CENTER); // actual content in center
+    panel72.add(Box.createHorizontalStrut(5), BorderLayout.EAST); // right
+    panel72.add(Box.createVerticalStrut(5), BorderLayout.SOUTH); // bottom
+
+    mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    mainFrame.setLocation(windowLeft, windowTop); // normal top-left corner
+    if ((windowHeight < MIN_FRAME) || (windowWidth < MIN_FRAME))
+      mainFrame.pack();           // do component layout with minimum size
+    else                          // the user has given us a window size
+      mainFrame.setSize(windowWidth, windowHeight); // size of normal window
+    if (maximizeFlag) mainFrame.setExtendedState(JFrame.MAXIMIZED_BOTH);
+    mainFrame.validate();         // recheck application window layout
+    mainFrame.setVisible(true);   // and then show application window
+
+    /* We don't need this dialog box yet, but create a panel that will be used
+    to edit the date and time format (pattern) for renaming files. */
+
+    renameFormatDialog = new JPanel();
+    renameFormatDialog.setLayout(new BoxLayout(renameFormatDialog,
+      BoxLayout.Y_AXIS));
+    renameFormatDialog.add(Box.createVerticalStrut(5));
+
+    JTextArea text81 = new JTextArea(8, 30);
+    if (buttonFont != null) text81.setFont(buttonFont);
+    text81.setLineWrap(true);
+    text81.setMargin(new Insets(1, 3, 2, 3)); // top, left, bottom, right
+    text81.setOpaque(false);
+    text81.setWrapStyleWord(true);
+    text81.setText("Create or edit a SimpleDateFormat pattern to be used as a"
+      + " prefix when renaming files, where: yyyy = 4-digit year, MM = 2-digit"
+      + " month, dd = 2-digit day, HH = 2-digit hour (24-hour clock), mm ="
+      + " 2-digit minute, ss = 2-digit second. Click the Test button to check"
+      + " your pattern. Avoid the characters \" * / : < > ? \\ | and don't"
+      + " start with . or a space. For a whole new name, use a template like"
+      + " {date:yyyy-MM}/{camera}_{seq:04}{ext} where / is a subfolder.");
+    renameFormatDialog.add(text81);
+    renameFormatDialog.add(Box.createVerticalStrut(5));
+
+    renamePatternText = new JTextField(30);
+    if (buttonFont != null) renamePatternText.setFont(buttonFont);
+    renamePatternText.setMargin(new Insets(1, 4, 2, 4));
+    renameFormatDialog.add(renamePatternText);
+    renameFormatDialog.add(Box.createVerticalStrut(8));
+
+    JPanel panel82 = new JPanel(new BorderLayout(10, 0));
+
+    renameTestButton = new JButton("Test");
+    renameTestButton.addActionListener(action);
+//  if (buttonFont != null) renameTestButton.setFont(buttonFont);
+    renameTestButton.setMnemonic(KeyEvent.VK_T);
+    renameTestButton.setToolTipText("Format current date, time.");
+    panel82.add(renameTestButton, BorderLayout.WEST);
+
+    renameResultText = new JTextField(20);
+    if (buttonFont != null) renameResultText.setFont(buttonFont);
+    renameResultText.setMargin(new Insets(1, 4, 3, 4));
+    renameResultText.setOpaque(false);
+    panel82.add(renameResultText, BorderLayout.CENTER);
+
+    renameFormatDialog.add(panel82);
+    renameFormatDialog.add(Box.createVerticalStrut(15));
+
+    /* Let the graphical interface run the application now. */
+
+    openButton.requestFocusInWindow(); // give keyboard focus to "Open" button
+
+  } // end of createWindow() method
+
+
+/*
+  doCancelButton() method
+
+  This method is called while we are opening files or folders if the user wants
+  to end the processing early, perhaps because it is taking too long.  We must
+  cleanly terminate any secondary threads.  Leave whatever output has already
+  been generated in the output text area.
+*/
+  void doCancelButton()
+  {
+    cancelFlag = true;            // tell other threads that all work stops now
+    putOutput("Cancelled by user."); // print message and scroll
+  }
+
+
+/*
+  doFormatButton() method
+
+  Edit and test a new SimpleDateFormat pattern, which will be used when files
+  are renamed with a date and time prefix.
+*/
+  void doFormatButton()
+  {
+    renamePatternText.setText(renameDateString); // current pattern string
+    doFormatTest();               // attempt to format with current pattern
+    if (JOptionPane.showConfirmDialog(mainFrame, renameFormatDialog,
+      "Edit Date, Time Format", JOptionPane.OK_CANCEL_OPTION,
+      JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+    {
+      return;                     // user cancelled, ignore changes
+    }
+    try                           // is this date, time pattern valid?
+    {
+      setRenameFormat(renamePatternText.getText()); // use if valid
+    }
+    catch (IllegalArgumentException iae) // pattern was not accepted
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        "Sorry, that date and time pattern is not valid.\nUsing the previous pattern.");
+      return;
+    }
+    renameFlag = (renameDateString.length() > 0); // pattern enables option
+    renameCheckbox.setSelected(renameFlag); // adjust GUI element to match
+
+  } // end of doFormatButton() method
+
+
+/*
+  doFormatTest() method
+
+  Check the SimpleDateFormat pattern by attempting to format the current date
+  and time.  Only the creation of a SimpleDateFormat object may generate an
+  exception; the formatting never does.  A template is previewed with a sample
+  camera model and file name, without renaming any files.
+*/
+  void doFormatTest()
+  {
+    String text = renamePatternText.getText(); // pattern or template
+
+    try
+    {
+      if (text.indexOf('{') >= 0) // is this a template?
+      {
+        text = new RedatePhotoFile3Template(text).format(new Date(),
+          "Canon EOS 5D", "IMG_1234.JPG"); // null if name leaves folder
+        renameResultText.setText((text != null) ? text
+          : "Template makes a name outside the folder.");
+      }
+      else
+        renameResultText.setText(new SimpleDateFormat(text).format(
+          new Date()));
+    }
+    catch (IllegalArgumentException iae) // pattern was not accepted
+    {
+      renameResultText.setText((text.indexOf('{') >= 0) ? iae.getMessage()
+        : "Date and time pattern is not valid.");
+    }
+  }
+
+
+/*
+  doOpenButton() method
+
+  Allow the user to select one or more files or folders for processing.
+*/
+  void doOpenButton()
+  {
+    Thread counter;               // counts files for progress bar
+    int i;                        // index variable
+
+    /* The user's options for adjusting dates and times are easier to check
+    here than with GUI listeners. */
+
+    if (adjustCheckbox.isSelected()) // does the user want this option?
+    {
+      if ((adjustValueYear = doOpenNumber("years", adjustFieldYear, -99, 99))
+        == Integer.MAX_VALUE) return;
+      if ((adjustValueMonth = doOpenNumber("months", adjustFieldMonth, -999,
+        999)) == Integer.MAX_VALUE) return;
+      if ((adjustValueDay = doOpenNumber("days", adjustFieldDay, -9999, 9999))
+        == Integer.MAX_VALUE) return;
+      if ((adjustValueHour = doOpenNumber("hours", adjustFieldHour, -99999,
+        99999)) == Integer.MAX_VALUE) return;
+      if ((adjustValueMinute = doOpenNumber("minutes", adjustFieldMinute,
+        -999999, 999999)) == Integer.MAX_VALUE) return;
+      if ((adjustValueSecond = doOpenNumber("seconds", adjustFieldSecond,
+        -9999999, 9999999)) == Integer.MAX_VALUE) return;
+    }
+    else                          // this option has not been selected
+      adjustValueYear = adjustValueMonth = adjustValueDay = adjustValueHour
+        = adjustValueMinute = adjustValueSecond = 0; // do not adjust dates
+
+    /* Ask the user for input files or folders. */
+
+    fileChooser.resetChoosableFileFilters(); // remove any existing filters
+    fileChooser.setDialogTitle("Open Files or Folders...");
+    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+    fileChooser.setMultiSelectionEnabled(true); // allow more than one file
+    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
+      return;                     // user cancelled file selection dialog box
+    openFileList = sortFileList(fileChooser.getSelectedFiles());
+                                  // get list of files selected by user
+
+    /* We have a list of files or folders.  Disable the "Open" button until we
+    are done, and enable a "Cancel" button in case our secondary thread runs
+    for a long time and the user panics. */
+
+    adjustCheckbox.setEnabled(false); // can't change this while running
+    adjustFieldYear.setEnabled(false); // from big to small
+    adjustFieldMonth.setEnabled(false);
+    adjustFieldDay.setEnabled(false);
+    adjustFieldHour.setEnabled(false);
+    adjustFieldMinute.setEnabled(false);
+    adjustFieldSecond.setEnabled(false);
+    adjustLabelYear.setEnabled(false); // from big to small
+    adjustLabelMonth.setEnabled(false);
+    adjustLabelDay.setEnabled(false);
+    adjustLabelHour.setEnabled(false);
+    adjustLabelMinute.setEnabled(false);
+    adjustLabelSecond.setEnabled(false);
+    cancelButton.setEnabled(true); // enable button to cancel this processing
+    cancelFlag = false;           // but don't cancel unless user complains
+    newDateCheckbox.setEnabled(false);
+    oldDateCheckbox.setEnabled(false);
+    openButton.setEnabled(false); // suspend "Open" button until we are done
+    outputText.setText("");       // clear output text area
+    redateCheckbox.setEnabled(false);
+    renameCheckbox.setEnabled(false);
+    renameFormatButton.setEnabled(false);
+
+    /* Count the files in the background while the files are processed, so
+    the progress bar knows when we will be done.  Until the count finishes, use
+    the number of files from an earlier run with the same selection. */
+
+    progressFinished = false;     // new run is starting
+    progressKey = String.valueOf(recurseFlag); // selection and subfolders
+    for (i = 0; i < openFileList.length; i ++)
+      progressKey += "\n" + openFileList[i].getPath();
+    progressNow = new RedatePhotoFile3Progress(0, EMPTY_STATUS);
+    progressRun ++;               // any older count is ignored
+    progressStarted = System.currentTimeMillis();
+    progressTotal = progressCounts.containsKey(progressKey) ? ((long[])
+      progressCounts.get(progressKey))[0] : -1;
+    counter = new Thread(new RedatePhotoFile3Counter(this, openFileList,
+      progressRun), "countFiles");
+    counter.setPriority(Thread.MIN_PRIORITY); // listing folders is secondary
+    counter.start();
+
+    setStatusMessage(EMPTY_STATUS); // clear text in status message
+    statusTimer.start();          // start updating status on clock ticks
+    updateProgress();             // show estimate now, if there is one
+
+    openFilesThread = new Thread(new RedatePhotoFile3User(this),
+      "doOpenRunner");
+    openFilesThread.setPriority(Thread.MIN_PRIORITY);
+                                  // use low priority for heavy-duty workers
+    openFilesThread.start();      // run separate thread to open files, report
+
+  } // end of doOpenButton() method
+
+
+/*
+  doOpenDone() method
+
+  Turn off the "Cancel" button and allow the user to click the "Open" button
+  again, after doOpenRunner() is done.  Called in the GUI thread, so that all
+  buttons and options change together in one update.
+*/
+  void doOpenDone()
+  {
+    adjustCheckbox.setEnabled(true); // allow changes once again
+    adjustFieldYear.setEnabled(true); // from big to small
+    adjustFieldMonth.setEnabled(true);
+    adjustFieldDay.setEnabled(true);
+    adjustFieldHour.setEnabled(true);
+    adjustFieldMinute.setEnabled(true);
+    adjustFieldSecond.setEnabled(true);
+    adjustLabelYear.setEnabled(true); // from big to small
+    adjustLabelMonth.setEnabled(true);
+    adjustLabelDay.setEnabled(true);
+    adjustLabelHour.setEnabled(true);
+    adjustLabelMinute.setEnabled(true);
+    adjustLabelSecond.setEnabled(true);
+    cancelButton.setEnabled(false); // disable "Cancel" button
+    newDateCheckbox.setEnabled(true);
+    oldDateCheckbox.setEnabled(true);
+    openButton.setEnabled(true);  // enable "Open" button
+    redateCheckbox.setEnabled(true);
+    renameCheckbox.setEnabled(true);
+    renameFormatButton.setEnabled(true);
+    setStatusMessage(EMPTY_STATUS); // clear any previous status message
+  }
+
+
+/*
+  doOpenNumber() method
+
+  This is a helper method for doOpenButton() to parse an integer field, check
+  the range, and return the result or Integer.MAX_VALUE for an error.
+*/
+  int doOpenNumber(String tag, JTextField field, int lower, int upper)
+  {
+    int result;                   // our result, as an integer or otherwise
+    String text;                  // text from caller's field
+
+    text = field.getText();       // may be empty, a number, or bad syntax
+    if (text.length() > 0)        // any non-empty string should be a number
+    {
+      try { result = Integer.parseInt(text); } // parse as signed integer
+      catch (NumberFormatException nfe) { result = Integer.MAX_VALUE; }
+    }
+    else
+      result = 0;                 // assume empty string means integer zero
+
+    if ((result < lower) || (result > upper))
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        ("A date or time adjustment in " + tag + "\nmust be from " + lower
+        + " to " + upper + "."));
+      result = Integer.MAX_VALUE;
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of doOpenNumber() method
+
+
+/*
+  doOpenRunner() method
+
+  This method is called inside a separate thread by the runnable interface of
+  our "user" class to process the user's selected files in the context of the
+  "main" class.  By doing all the heavy-duty work in a separate thread, we
+  won't stall the main thread that runs the graphical interface, and we allow
+  the user to cancel the processing if it takes too long.
+*/
+  void doOpenRunner()
+  {
+    RedatePhotoFile3Job job;      // one job with all selected files
+
+    /* Process the selected files and folders as one job with our current
+    options.  Output goes into the text area, and a summary is printed even if
+    we were cancelled. */
+
+    job = new RedatePhotoFile3Job(new RedatePhotoFile3Options(this),
+      openFileList, null);
+    runJob(job);                  // process files with our own variables
+
+    /* Remember how many files there were, unless we were cancelled, to show
+    progress at once the next time.  The timer shows the final progress and
+    then stops itself, so we never change the progress bar in this thread. */
+
+    if (cancelFlag == false)      // did we see all files?
+      progressCounts.put(progressKey, new long[] {job.totalFiles});
+    progressNow = new RedatePhotoFile3Progress(job.totalFiles, EMPTY_STATUS);
+    progressTotal = job.totalFiles; // no more files than we saw
+    progressFinished = true;      // timer stops after showing final progress
+
+    /* We are done.  Change the buttons and options in the GUI thread, after
+    any output lines that are still waiting. */
+
+    SwingUtilities.invokeLater(new RedatePhotoFile3Update(this,
+      UPDATE_DONE));
+
+  } // end of doOpenRunner() method
+
+
+/*
+  doSaveButton() method
+
+  Ask the user for an output file name, create or replace that file, and copy
+  the contents of our output text area to that file.  The output file will be
+  in the default character set for the system, so if there are special Unicode
+  characters in the displayed text (Arabic, Chinese, Eastern European, etc),
+  then you are better off copying and pasting the output text directly into a
+  Unicode-aware application like Microsoft Word.
+*/
+  void doSaveButton()
+  {
+    FileWriter output;            // output file stream
+    File userFile;                // file chosen by the user
+
+    /* Ask the user for an output file name. */
+
+    fileChooser.resetChoosableFileFilters(); // remove any existing filters
+    fileChooser.setDialogTitle("Save Output as Text File...");
+    fileChooser.setFileHidingEnabled(true); // don't show hidden files
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    fileChooser.setMultiSelectionEnabled(false); // allow only one file
+    if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
+      return;                     // user cancelled file selection dialog box
+    userFile = fileChooser.getSelectedFile();
+
+    /* See if we can write to the user's chosen file. */
+
+    if (userFile.isDirectory())   // can't write to directories or folders
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is a directory or folder.\nPlease select a normal file."));
+      return;
+    }
+    else if (userFile.isHidden()) // won't write to hidden (protected) files
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is a hidden or protected file.\nPlease select a normal file."));
+      return;
+    }
+    else if (userFile.isFile() == false) // if file doesn't exist
+    {
+      /* Maybe we can create a new file by this name.  Do nothing here. */
+    }
+    else if (userFile.canWrite() == false) // file exists, but is read-only
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is locked or write protected.\nCan't write to this file."));
+      return;
+    }
+    else if (JOptionPane.showConfirmDialog(mainFrame, (userFile.getName()
+      + " already exists.\nDo you want to replace this with a new file?"))
+      != JOptionPane.YES_OPTION)
+    {
+      return;                     // user cancelled file replacement dialog
+    }
+
+    /* Write lines to output file. */
 
-    TreeSet sizelist = new TreeSet(); // collect font sizes 10 to 99 in order
-    word = String.valueOf(fontSize); // convert number to a string we can use
-    sizelist.add(word);           // add default or user's chosen font size
-    for (i = 0; i < FONT_SIZES.length; i ++) // add our preferred size list
-      sizelist.add(FONT_SIZES[i]); // assume sizes are all two digits (10-99)
-    fontSizeDialog = new JComboBox(sizelist.toArray()); // give user nice list
-    if (buttonFont != null) fontSizeDialog.setFont(buttonFont);
-    fontSizeDialog.setSelectedItem(word); // selected item is our default size
-    fontSizeDialog.setToolTipText("Point size for output text.");
-    fontSizeDialog.addActionListener(action); // do last so don't fire early
-    panel32.add(fontSizeDialog);
+    try                           // catch file I/O errors
+    {
+      output = new FileWriter(userFile); // try to open output file
+      outputText.write(output);   // couldn't be much easier for writing!
+      output.close();             // try to close output file
+    }
+    catch (IOException ioe)
+    {
+      putOutput("Can't write to text file: " + ioe.getMessage());
+    }
+  } // end of doSaveButton() method
 
-    panel31.add(panel32, BorderLayout.WEST);
 
-    JPanel panel33 = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 0));
+/*
+  putOutput() method
 
-    debugCheckbox = new JCheckBox("debug mode", debugFlag);
-    if (buttonFont != null) debugCheckbox.setFont(buttonFont);
-    debugCheckbox.setToolTipText("Verbose output, don't change real files.");
-    debugCheckbox.addActionListener(action); // do last so don't fire early
-    panel33.add(debugCheckbox);
+  Append a complete line of text to the end of the output text area, instead
+  of standard output as in the main class.  This is usually called from the
+  worker thread, which must not change Swing objects, so lines are saved and
+  added later by putOutputPending() in the GUI thread.  Only one update is
+  waiting at a time.  Lines that arrive in the meantime are added together,
+  with one change to the text area and one repaint.
+*/
+  void putOutput(String text)
+  {
+    synchronized (outputPending)  // worker and GUI threads both add lines
+    {
+      outputPending.append(text); // graphical output goes into text area
+      outputPending.append('\n');
+      if (outputScheduled)        // is an update already waiting?
+        return;                   // yes, it will add this line too
+      outputScheduled = true;
+    }
+    SwingUtilities.invokeLater(outputUpdate); // add lines in GUI thread
+  }
 
-    recurseCheckbox = new JCheckBox("subfolders", recurseFlag);
-    if (buttonFont != null) recurseCheckbox.setFont(buttonFont);
-    recurseCheckbox.setToolTipText("Select to search folders and subfolders.");
-    recurseCheckbox.addActionListener(action); // do last so don't fire early
-    panel33.add(recurseCheckbox);
 
-    panel31.add(panel33, BorderLayout.CENTER);
+/*
+  putOutputPending() method
 
-    showDialog = new JComboBox(SHOW_CHOICES);
-    if (buttonFont != null) showDialog.setFont(buttonFont);
-    showDialog.setSelectedIndex(showIndex);
-    showDialog.setToolTipText("Select which files to report.");
-    showDialog.addActionListener(action); // do last so don't fire early
-    panel31.add(showDialog, BorderLayout.EAST);
+  Add all waiting lines to the end of the output text area, in the GUI thread.
 
-    panel01.add(panel31);
-    panel01.add(Box.createVerticalStrut(15)); // space between panels
+  The output text area is forced to scroll to the end, after the text lines
+  are written, by selecting character positions that are much too large (and
+  which are allowed by the definition of the JTextComponent.select() method).
+  This is easier and faster than manipulating the scroll bars directly.
+  However, it does cancel any selection that the user might have made, for
+  example, to copy text from the output area.
+*/
+  void putOutputPending()
+  {
+    String text;                  // all lines waiting for GUI thread
 
-    /* Bind all of the buttons and options above into a single panel so that
-    the layout does not change when the window changes. */
+    synchronized (outputPending)
+    {
+      text = outputPending.toString();
+      outputPending.setLength(0); // start over with next line
+      outputScheduled = false;    // next line needs a new update
+    }
+    if (text.length() > 0)        // were there any lines?
+    {
+      outputText.append(text);    // all lines with one change to text area
+      outputText.select(999999999, 999999999); // force scroll to end of text
+    }
+  }
 
-    JPanel panel41 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
-    panel41.add(panel01);
 
-    /* Create a scrolling text area for the generated output. */
+/*
+  setStatusMessage() method
 
-    outputText = new JTextArea(20, 40);
-    outputText.setEditable(false); // user can't change this text area
-    outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    outputText.setLineWrap(false); // don't wrap text lines
-    outputText.setMargin(new Insets(5, 6, 5, 6)); // top, left, bottom, right
-    outputText.setText(
-      "\nChange file names or the \"last modified\" date for JPEG photo files,"
-      + "\nusing an embedded date and time found in most JPEG files.  The"
-      + "\ncontents of the files are not changed."
-      + "\n\nChoose your options; then open files or folders to search.  There"
-      + "\nis no \"undo\" feature.  If in doubt, select the \"debug mode\" option."
-      + "\n\nBe careful when renaming files.  A new prefix is added each time"
-      + "\nthere is a difference.  Old prefixes are not replaced or removed."
-      + "\n\nCopyright (c) 2017 by Keith Fenske.  By using this program, you"
-      + "\nagree to terms and conditions of the Apache License and/or GNU"
-      + "\nGeneral Public License.\n\n");
+  Set the text for the status message, which the main class ignores for the
+  console.  If the update timer is running, then this message will not
+  appear until the timer kicks in.  This prevents the status from being
+  updated too often, and hence being unreadable.  While the timer is running,
+  the message and the number of files are saved together as one progress
+  object, which the timer reads without locking.
+*/
+  void setStatusMessage(String text)
+  {
+    statusPending = text;         // always save caller's status message
+    if (statusTimer.isRunning())  // are we updating on a timed basis?
+    {
+      progressNow = new RedatePhotoFile3Progress(totalFiles, text);
+      return;                     // yes, wait for the timer to do an update
+    }
+    statusDialog.setText(statusPending); // show the status message now
+  }
 
-    JScrollPane panel51 = new JScrollPane(outputText);
-    panel51.setBorder(emptyBorder); // no border necessary here
 
-    /* Create an entire panel just for the status message.  Set margins with a
-    BorderLayout, because a few pixels higher or lower can make a difference in
-    whether the position of the status text looks correct. */
+/*
+  updateProgress() method
+
+  Show the latest progress from the worker thread, called by the update timer
+  in the GUI thread.  Until the files are counted, the progress bar moves back
+  and forth, and only the number of files and the rate are shown.
+*/
+  void updateProgress()
+  {
+    long done;                    // files done, never more than total
+    long millis;                  // milliseconds since run started
+    RedatePhotoFile3Progress now; // latest progress from worker thread
+    long total;                   // files counted, or -1 if not yet known
+    String text;                  // text for progress bar
+
+    now = progressNow;            // read each shared value only once
+    total = progressTotal;
+    if (now.text.equals(statusDialog.getText()) == false)
+      statusDialog.setText(now.text); // new status, update the display
+    millis = Math.max(1, (now.millis - progressStarted));
+    text = formatComma.format(now.files * 1000 / millis) + " per second";
+    if (total < 0)                // files not counted yet?
+    {
+      progressBar.setIndeterminate(true);
+      progressBar.setString(formatComma.format(now.files) + " files, " + text);
+      return;
+    }
+    done = Math.min(now.files, total);
+    total = Math.max(1, total);   // avoid dividing by zero
+    progressBar.setIndeterminate(false);
+    progressBar.setValue((int) (done * PROGRESS_SCALE / total));
+    if (progressFinished)         // show time taken when done
+      text += ", done in " + updateProgressTime(millis);
+    else if (done > 0)            // estimate from rate so far
+      text += ", " + updateProgressTime((total - done) * millis / done)
+        + " left";
+    progressBar.setString(formatComma.format(done) + " of "
+      + formatComma.format(total) + " files, " + text);
+  }
+
+
+/*
+  updateProgressTime() method
+
+  This is a helper method for updateProgress() to format milliseconds as hours,
+  minutes, and seconds: h:mm:ss or m:ss.
+*/
+  String updateProgressTime(long millis)
+  {
+    long seconds;                 // whole seconds, rounded up
+
+    seconds = (millis + 999) / 1000;
+    return(((seconds >= 3600) ? ((seconds / 3600) + ":"
+      + ((seconds % 3600 < 600) ? "0" : "")) : "") + ((seconds % 3600) / 60)
+      + ":" + ((seconds % 60 < 10) ? "0" : "") + (seconds % 60));
+  }
+
+
+/*
+  userButton() method
+
+  This method is called by our action listener actionPerformed() to process
+  buttons, in the context of the main RedatePhotoFile3 class.
+*/
+  void userButton(ActionEvent event)
+  {
+    int index;                    // index of user's choice from a list
+    Object source = event.getSource(); // where the event came from
+    if (source == cancelButton)   // "Cancel" button
+    {
+      doCancelButton();           // stop opening files or folders
+    }
+    else if (source == debugCheckbox) // if we show debug information
+    {
+      debugFlag = debugCheckbox.isSelected();
+    }
+    else if (source == exitButton) // "Exit" button
+    {
+      System.exit(0);             // always exit with zero status from GUI
+    }
+    else if (source == fontNameDialog) // font name for output text area
+    {
+      /* We can safely assume that the font name is valid, because we obtained
+      the names from getAvailableFontFamilyNames(), and the user can't edit
+      this dialog field. */
+
+      fontName = (String) fontNameDialog.getSelectedItem();
+      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+    }
+    else if (source == fontSizeDialog) // point size for output text area
+    {
+      /* We can safely parse the point size as an integer, because we supply
+      the only choices allowed, and the user can't edit this dialog field. */
+
+      fontSize = Integer.parseInt((String) fontSizeDialog.getSelectedItem());
+      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+    }
+    else if (source == newDateCheckbox) // if we find newest (modified) dates
+    {
+      oldDateFlag = ! newDateCheckbox.isSelected();
+      oldDateCheckbox.setSelected(oldDateFlag); // fake radio button
+    }
+    else if (source == oldDateCheckbox) // if we find oldest (original) dates
+    {
+      oldDateFlag = oldDateCheckbox.isSelected();
+      newDateCheckbox.setSelected(! oldDateFlag); // fake radio button
+    }
+    else if (source == openButton) // "Open" button for files or folders
+    {
+      doOpenButton();             // open files or folders for processing
+    }
+    else if (source == rateDialog) // rate limits for bytes, files, changes
+    {
+      /* We can safely parse the limits, because we supply the only choices
+      allowed, and the user can't edit this dialog field. */
+
+      index = rateDialog.getSelectedIndex();
+      setRates((index < RATE_LIMITS.length) ? RATE_LIMITS[index] : rateGiven);
+    }
+    else if (source == recurseCheckbox) // if we search folders and subfolders
+    {
+      recurseFlag = recurseCheckbox.isSelected();
+    }
+    else if (source == redateCheckbox) // if we change file modification date
+    {
+      redateFlag = redateCheckbox.isSelected();
+    }
+    else if (source == renameCheckbox) // if we rename file with date prefix
+    {
+      renameFlag = renameCheckbox.isSelected();
+    }
+    else if (source == renameFormatButton) // "Format" button for renaming
+    {
+      doFormatButton();           // edit and test new date, time format
+    }
+    else if (source == renameTestButton) // "Test" button while editing format
+    {
+      doFormatTest();             // attempt to format with current pattern
+    }
+    else if (source == saveButton) // "Save Output" button
+    {
+      doSaveButton();             // write output text area to a file
+    }
+    else if (source == showDialog) // which files or conditions to report
+    {
+      showIndex = showDialog.getSelectedIndex(); // no meaning assigned here
+    }
+    else if (source == statusTimer) // update timer for status message text
+    {
+      updateProgress();           // show latest progress from worker thread
+      if (progressFinished)       // was that the final progress?
+        statusTimer.stop();       // yes, stop updating on clock ticks
+    }
+    else                          // fault in program logic, not by user
+    {
+      System.err.println("Error in userButton(): unknown ActionEvent: "
+        + event);                 // should never happen, so write on console
+    }
+  } // end of userButton() method
+
+} // end of RedatePhotoFile3Gui class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Update class
+
+  This class is one update for the GUI thread, given to invokeLater() by the
+  worker thread, which must not change Swing objects itself.
+*/
+
+class RedatePhotoFile3Update implements Runnable
+{
+  RedatePhotoFile3Gui gui;        // window to be updated
+  int kind;                       // type of update, UPDATE_* constants
+
+  public RedatePhotoFile3Update(RedatePhotoFile3Gui gui, int kind)
+  {
+    this.gui = gui;
+    this.kind = kind;
+  }
+
+  public void run()
+  {
+    if (kind == RedatePhotoFile3Gui.UPDATE_DONE) // worker thread is done?
+      gui.doOpenDone();
+    else                          // lines are waiting for output text area
+      gui.putOutputPending();
+  }
+
+} // end of RedatePhotoFile3Update class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3User class
+
+  This class listens to input from the user and passes back event parameters to
+  a method in the GUI class.
+*/
+
+class RedatePhotoFile3User implements ActionListener, Runnable
+{
+  RedatePhotoFile3Gui gui;        // window that gets events and work
+
+  public RedatePhotoFile3User(RedatePhotoFile3Gui gui)
+  {
+    this.gui = gui;
+  }
+
+  /* button listener, dialog boxes, etc */
+
+  public void actionPerformed(ActionEvent event)
+  {
+    gui.userButton(event);
+  }
 
-    statusDialog = new JLabel(statusPending, JLabel.RIGHT);
-    if (buttonFont != null) statusDialog.setFont(buttonFont);
+  /* separate heavy-duty processing thread */
 
-    JPanel panel61 = new JPanel(new BorderLayout(0, 0));
-    panel61.add(Box.createVerticalStrut(7), BorderLayout.NORTH);
-    panel61.add(Box.createHorizontalStrut(10), BorderLayout.WEST);
-    panel61.add(statusDialog, BorderLayout.CENTER);
-    panel61.add(Box.createHorizontalStrut(10), BorderLayout.EAST);
-//  panel61.add(Box.createVerticalStrut(5), BorderLayout.SOUTH);
+  public void run()
+  {
+    gui.doOpenRunner();
+  }
 
-    /* Combine buttons and options with output text.  The text area expands and
-    contracts with the window size.  Put our status message at the bottom. */
+} // end of RedatePhotoFile3User class
 
-    JPanel panel71 = new JPanel(new BorderLayout(0, 0));
-    panel71.add(panel41, BorderLayout.NORTH); // buttons and options
-    panel71.add(panel51, BorderLayout.CENTER); // text area
-    panel71.add(panel61, BorderLayout.SOUTH); // status message
+// ------------------------------------------------------------------------- //
 
-    /* Create the main window frame for this application.  We supply our own
-    margins using the edges of the frame's border layout. */
+/*
+  RedatePhotoFile3Audit class
 
-    mainFrame = new JFrame(PROGRAM_TITLE);
-    Container panel72 = mainFrame.getContentPane(); // where content meets frame
-    panel72.setLayout(new BorderLayout(0, 0));
-    panel72.add(Box.createVerticalStrut(15), BorderLayout.NORTH); // top margin
-    panel72.add(Box.createHorizontalStrut(5), BorderLayout.WEST); // left
-    panel72.add(panel71, BorderLayout.CENTER); // actual content in center
-    panel72.add(Box.createHorizontalStrut(5), BorderLayout.EAST); // right
-    panel72.add(Box.createVerticalStrut(5), BorderLayout.SOUTH); // bottom
+  This class counts how far file dates are from the dates found in files, for
+  the audit mode (-f4 option).  Differences are counted in a few buckets, from
+  seconds to years.  Folders are counted when the next folder starts, and only
+  the folders and files with the largest differences are kept, so a run with
+  millions of files uses no more memory than a run with a few files.
+*/
 
-    mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-    mainFrame.setLocation(windowLeft, windowTop); // normal top-left corner
-    if ((windowHeight < MIN_FRAME) || (windowWidth < MIN_FRAME))
-      mainFrame.pack();           // do component layout with minimum size
-    else                          // the user has given us a window size
-      mainFrame.setSize(windowWidth, windowHeight); // size of normal window
-    if (maximizeFlag) mainFrame.setExtendedState(JFrame.MAXIMIZED_BOTH);
-    mainFrame.validate();         // recheck application window layout
-    mainFrame.setVisible(true);   // and then show application window
+class RedatePhotoFile3Audit
+{
+  static final long[] LIMITS = {RedatePhotoFile3.MILLI_FUZZ, 60000L, 3600000L,
+    86400000L, 2592000000L, 31536000000L}; // bucket limits in milliseconds
+  static final String[] NAMES = {"same", "under 1 minute", "under 1 hour",
+    "under 1 day", "under 30 days", "under 1 year", "1 year or more"};
+
+  long[] buckets;                 // number of files in each bucket
+  long earlier;                   // files with file date before found date
+  String folder;                  // current folder name, or null
+  long folderDiffer;              // files in current folder with differences
+  long folderFiles;               // files in current folder with dates
+  long folders;                   // folders with at least one date
+  long foldersDiffer;             // folders with at least one difference
+  NumberFormat format;            // formats numbers with commas
+  long later;                     // files with file date after found date
+  RedatePhotoFile3Slowest worstFiles; // files with largest differences
+  RedatePhotoFile3Slowest worstFolders; // folders with most different files
+
+  public RedatePhotoFile3Audit(int size, NumberFormat format)
+  {
+    this.buckets = new long[NAMES.length];
+    this.format = format;
+    this.worstFiles = new RedatePhotoFile3Slowest(size);
+    this.worstFolders = new RedatePhotoFile3Slowest(size);
+    clear();
+  }
 
-    /* We don't need this dialog box yet, but create a panel that will be used
-    to edit the date and time format (pattern) for renaming files. */
+  public void add(File file, long newMillis, long oldMillis)
+  {
+    long difference;              // absolute difference in milliseconds
+    int i;                        // index variable
+    String parent;                // folder name for file, or null
 
-    renameFormatDialog = new JPanel();
-    renameFormatDialog.setLayout(new BoxLayout(renameFormatDialog,
-      BoxLayout.Y_AXIS));
-    renameFormatDialog.add(Box.createVerticalStrut(5));
+    parent = file.getParent();
+    if ((folder == null) || (folder.equals(parent) == false))
+    {
+      finish();                   // count files in previous folder
+      folder = parent;
+    }
+    folderFiles ++;
+    difference = Math.abs(oldMillis - newMillis);
+    i = 0;
+    while ((i < LIMITS.length) && (difference >= LIMITS[i]))
+      i ++;                       // find bucket for this difference
+    buckets[i] ++;
+    if (i == 0)                   // same date, within file system limits?
+      return;
+    folderDiffer ++;
+    if (oldMillis > newMillis) later ++; else earlier ++;
+    if (worstFiles.keeps(difference)) // only create text if kept
+      worstFiles.add(difference, file.getPath());
+  }
 
-    JTextArea text81 = new JTextArea(8, 30);
-    if (buttonFont != null) text81.setFont(buttonFont);
-    text81.setLineWrap(true);
-    text81.setMargin(new Insets(1, 3, 2, 3)); // top, left, bottom, right
-    text81.setOpaque(false);
-    text81.setWrapStyleWord(true);
-    text81.setText("Create or edit a SimpleDateFormat pattern to be used as a"
-      + " prefix when renaming files, where: yyyy = 4-digit year, MM = 2-digit"
-      + " month, dd = 2-digit day, HH = 2-digit hour (24-hour clock), mm ="
-      + " 2-digit minute, ss = 2-digit second. Click the Test button to check"
-      + " your pattern. Avoid the characters \" * / : < > ? \\ | and don't"
-      + " start with . or a space.");
-    renameFormatDialog.add(text81);
-    renameFormatDialog.add(Box.createVerticalStrut(5));
+  public void clear()
+  {
+    Arrays.fill(buckets, 0);
+    earlier = later = 0;
+    folder = null;                // no current folder
+    folderDiffer = folderFiles = folders = foldersDiffer = 0;
+    worstFiles.clear();
+    worstFolders.clear();
+  }
 
-    renamePatternText = new JTextField(30);
-    if (buttonFont != null) renamePatternText.setFont(buttonFont);
-    renamePatternText.setMargin(new Insets(1, 4, 2, 4));
-    renameFormatDialog.add(renamePatternText);
-    renameFormatDialog.add(Box.createVerticalStrut(8));
+  public void finish()
+  {
+    if (folderFiles > 0)          // were there files in current folder?
+    {
+      folders ++;
+      if (folderDiffer > 0)       // any differences in this folder?
+      {
+        foldersDiffer ++;
+        worstFolders.add(folderDiffer, format.format(folderFiles)
+          + ((folderFiles == 1) ? " file: " : " files: ") + folder);
+      }
+    }
+    folderDiffer = folderFiles = 0; // nothing counted in next folder yet
+  }
 
-    JPanel panel82 = new JPanel(new BorderLayout(10, 0));
+} // end of RedatePhotoFile3Audit class
 
-    renameTestButton = new JButton("Test");
-    renameTestButton.addActionListener(action);
-//  if (buttonFont != null) renameTestButton.setFont(buttonFont);
-    renameTestButton.setMnemonic(KeyEvent.VK_T);
-    renameTestButton.setToolTipText("Format current date, time.");
-    panel82.add(renameTestButton, BorderLayout.WEST);
+// ------------------------------------------------------------------------- //
 
-    renameResultText = new JTextField(20);
-    if (buttonFont != null) renameResultText.setFont(buttonFont);
-    renameResultText.setMargin(new Insets(1, 4, 3, 4));
-    renameResultText.setOpaque(false);
-    panel82.add(renameResultText, BorderLayout.CENTER);
+/*
+  RedatePhotoFile3Batch class
 
-    renameFormatDialog.add(panel82);
-    renameFormatDialog.add(Box.createVerticalStrut(15));
+  This class holds all changes for one folder with the -b# option, while the
+  folder is waiting for a thread, being changed, or waiting to be reported.
+*/
 
-    /* Let the graphical interface run the application now. */
+class RedatePhotoFile3Batch
+{
+  Vector changes;                 // changes for files in folder, in order
+  boolean done;                   // true when all changes have been tried
+  File folder;                    // folder with the files
+  long millis;                    // time for making all changes
 
-    openButton.requestFocusInWindow(); // give keyboard focus to "Open" button
+  public RedatePhotoFile3Batch(File folder, Vector changes)
+  {
+    this.changes = changes;
+    this.done = false;
+    this.folder = folder;
+    this.millis = 0;
+  }
 
-  } // end of main() method
+} // end of RedatePhotoFile3Batch class
 
 // ------------------------------------------------------------------------- //
 
 /*
-  doCancelButton() method
-
-  This method is called while we are opening files or folders if the user wants
-  to end the processing early, perhaps because it is taking too long.  We must
-  cleanly terminate any secondary threads.  Leave whatever output has already
-  been generated in the output text area.
+  RedatePhotoFile3Bucket class
+
+  This class is a "token bucket" for limiting how fast something is done: bytes
+  read, files opened, or files changed.  Tokens are added at <rate> per second,
+  up to one second's worth, and taking more tokens than are available puts the
+  bucket in debt.  The caller then waits until the debt is paid.  We wait in
+  small steps, so that a new rate from the user takes effect quickly, and so
+  that the "Cancel" button isn't ignored.  Engines in several threads may share
+  one bucket, and each waits with its own cancel flag.
 */
-  static void doCancelButton()
+
+class RedatePhotoFile3Bucket
+{
+  static final long WAIT_STEP = 200; // maximum milliseconds for each sleep()
+
+  long rate;                      // tokens per second, or zero for no limit
+  double tokens;                  // tokens available, negative if in debt
+  long updated;                   // when <tokens> was last refilled
+
+  public RedatePhotoFile3Bucket()
   {
-    cancelFlag = true;            // tell other threads that all work stops now
-    putOutput("Cancelled by user."); // print message and scroll
+    this.rate = 0;                // no limit until caller sets a rate
+    reset();
   }
 
+  public synchronized long refill()
+  {
+    long now = System.currentTimeMillis(); // current time in milliseconds
 
-/*
-  doFormatButton() method
+    if (rate <= 0)                // is there no limit?
+      tokens = 0;                 // forget any debt
+    else
+      tokens = Math.min((double) rate, (tokens + (Math.max(0, (now - updated))
+        * (double) rate / 1000.0))); // add tokens for time since last refill
+    updated = now;
+    return((tokens < 0) ? (long) Math.ceil(-tokens * 1000.0 / rate) : 0);
+  }                               // milliseconds until debt is paid
 
-  Edit and test a new SimpleDateFormat pattern, which will be used when files
-  are renamed with a date and time prefix.
-*/
-  static void doFormatButton()
+  public synchronized void reset()
   {
-    renamePatternText.setText(renameDateString); // current pattern string
-    doFormatTest();               // attempt to format with current pattern
-    if (JOptionPane.showConfirmDialog(mainFrame, renameFormatDialog,
-      "Edit Date, Time Format", JOptionPane.OK_CANCEL_OPTION,
-      JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
-    {
-      return;                     // user cancelled, ignore changes
-    }
-    try                           // is this date, time pattern valid?
-    {
-      SimpleDateFormat sdf = new SimpleDateFormat(renamePatternText.getText());
-    }
-    catch (IllegalArgumentException iae) // pattern was not accepted
+    tokens = 0;                   // start empty, without any debt
+    updated = System.currentTimeMillis();
+  }
+
+  public synchronized void setRate(long rate)
+  {
+    refill();                     // use old rate up to now
+    this.rate = Math.max(0, rate);
+  }
+
+  public void take(long amount, RedatePhotoFile3 engine)
+  {
+    long wait;                    // milliseconds to wait for tokens
+
+    if (rate <= 0) return;        // quick exit if there is no limit
+    synchronized (this) { refill(); tokens -= amount; }
+    while (((wait = refill()) > 0) && (engine.cancelFlag == false))
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        "Sorry, that date and time pattern is not valid.\nUsing the previous pattern.");
-      return;
+      try { Thread.sleep(Math.min(wait, WAIT_STEP)); }
+      catch (InterruptedException ie) { break; }
     }
-    renameDateString = renamePatternText.getText(); // pattern is valid
-    renameDateFormat = new SimpleDateFormat(renameDateString);
-    renameFlag = (renameDateString.length() > 0); // pattern enables option
-    renameCheckbox.setSelected(renameFlag); // adjust GUI element to match
+  }
 
-  } // end of doFormatButton() method
+} // end of RedatePhotoFile3Bucket class
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doFormatTest() method
+  RedatePhotoFile3Cache class
 
-  Check the SimpleDateFormat pattern by attempting to format the current date
-  and time.  Only the creation of a SimpleDateFormat object may generate an
-  exception; the formatting never does.
+  This class is a map with a size limit, for saving results between runs in
+  the GUI or the server.  When the map is full, the entry used longest ago is
+  removed.  Keys are full file or folder names, and values are
+  RedatePhotoFile3Cached objects.  Engines in several threads may share one
+  map, so changes are synchronized, and so is get(), which changes the order.
 */
-  static void doFormatTest()
+
+class RedatePhotoFile3Cache extends LinkedHashMap
+{
+  static final long serialVersionUID = 1; // required, never serialized
+
+  int limit;                      // most entries in map
+
+  public RedatePhotoFile3Cache(int limit)
   {
-    try
-    {
-      renameResultText.setText(new SimpleDateFormat(
-        renamePatternText.getText()).format(new Date()));
-    }
-    catch (IllegalArgumentException iae) // pattern was not accepted
-    {
-      renameResultText.setText("Date and time pattern is not valid.");
-    }
+    super(16, 0.75f, true);       // iterate in order of access, not insertion
+    this.limit = limit;
   }
 
+  public synchronized Object get(Object key)
+  {
+    return(super.get(key));       // also moves entry to most recently used
+  }
 
-/*
-  doOpenButton() method
+  public synchronized Object put(Object key, Object value)
+  {
+    return(super.put(key, value));
+  }
 
-  Allow the user to select one or more files or folders for processing.
-*/
-  static void doOpenButton()
+  public synchronized Object remove(Object key)
   {
-    int i;                        // index variable
+    return(super.remove(key));
+  }
 
-    /* The user's options for adjusting dates and times are easier to check
-    here than with GUI listeners. */
+  protected boolean removeEldestEntry(Map.Entry eldest)
+  {
+    return(size() > limit);       // remove least recently used when full
+  }
 
-    if (adjustCheckbox.isSelected()) // does the user want this option?
-    {
-      if ((adjustValueYear = doOpenNumber("years", adjustFieldYear, -99, 99))
-        == Integer.MAX_VALUE) return;
-      if ((adjustValueMonth = doOpenNumber("months", adjustFieldMonth, -999,
-        999)) == Integer.MAX_VALUE) return;
-      if ((adjustValueDay = doOpenNumber("days", adjustFieldDay, -9999, 9999))
-        == Integer.MAX_VALUE) return;
-      if ((adjustValueHour = doOpenNumber("hours", adjustFieldHour, -99999,
-        99999)) == Integer.MAX_VALUE) return;
-      if ((adjustValueMinute = doOpenNumber("minutes", adjustFieldMinute,
-        -999999, 999999)) == Integer.MAX_VALUE) return;
-      if ((adjustValueSecond = doOpenNumber("seconds", adjustFieldSecond,
-        -9999999, 9999999)) == Integer.MAX_VALUE) return;
-    }
-    else                          // this option has not been selected
-      adjustValueYear = adjustValueMonth = adjustValueDay = adjustValueHour
-        = adjustValueMinute = adjustValueSecond = 0; // do not adjust dates
+} // end of RedatePhotoFile3Cache class
 
-    /* Ask the user for input files or folders. */
+// ------------------------------------------------------------------------- //
 
-    fileChooser.resetChoosableFileFilters(); // remove any existing filters
-    fileChooser.setDialogTitle("Open Files or Folders...");
-    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
-    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
-    fileChooser.setMultiSelectionEnabled(true); // allow more than one file
-    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
-      return;                     // user cancelled file selection dialog box
-    openFileList = sortFileList(fileChooser.getSelectedFiles());
-                                  // get list of files selected by user
+/*
+  RedatePhotoFile3Cached class
 
-    /* We have a list of files or folders.  Disable the "Open" button until we
-    are done, and enable a "Cancel" button in case our secondary thread runs
-    for a long time and the user panics. */
+  This class is one saved result in a RedatePhotoFile3Cache: the best date
+  found in a file, or a sorted folder list with hidden flags.  The file or
+  folder date (and file size) when saved tell us if the result is still good.
+*/
 
-    adjustCheckbox.setEnabled(false); // can't change this while running
-    adjustFieldYear.setEnabled(false); // from big to small
-    adjustFieldMonth.setEnabled(false);
-    adjustFieldDay.setEnabled(false);
-    adjustFieldHour.setEnabled(false);
-    adjustFieldMinute.setEnabled(false);
-    adjustFieldSecond.setEnabled(false);
-    adjustLabelYear.setEnabled(false); // from big to small
-    adjustLabelMonth.setEnabled(false);
-    adjustLabelDay.setEnabled(false);
-    adjustLabelHour.setEnabled(false);
-    adjustLabelMinute.setEnabled(false);
-    adjustLabelSecond.setEnabled(false);
-    cancelButton.setEnabled(true); // enable button to cancel this processing
-    cancelFlag = false;           // but don't cancel unless user complains
-    newDateCheckbox.setEnabled(false);
-    oldDateCheckbox.setEnabled(false);
-    openButton.setEnabled(false); // suspend "Open" button until we are done
-    outputText.setText("");       // clear output text area
-    redateCheckbox.setEnabled(false);
-    renameCheckbox.setEnabled(false);
-    renameFormatButton.setEnabled(false);
-    totalChange = totalCorrect = totalError = totalFiles = totalFolders
-      = totalNoData = 0;          // no files found yet
+class RedatePhotoFile3Cached
+{
+  File[] contents;                // sorted folder contents, or null
+  String date;                    // best date found in file, or null
+  boolean[] hidden;               // hidden flag for each of <contents>
+  long length;                    // file size in bytes, zero for folders
+  long modified;                  // file or folder date when saved
+  boolean oldDate;                // <oldDateFlag> when date was found
+  int rankRules;                  // <rankRules> when date was found
+
+  public RedatePhotoFile3Cached(long modified, long length)
+  {
+    this.contents = null;
+    this.date = null;
+    this.hidden = null;
+    this.length = length;
+    this.modified = modified;
+    this.oldDate = true;
+    this.rankRules = 0;
+  }
 
-    setStatusMessage(EMPTY_STATUS); // clear text in status message
-    statusTimer.start();          // start updating status on clock ticks
+} // end of RedatePhotoFile3Cached class
 
-    openFilesThread = new Thread(new RedatePhotoFile3User(), "doOpenRunner");
-    openFilesThread.setPriority(Thread.MIN_PRIORITY);
-                                  // use low priority for heavy-duty workers
-    openFilesThread.start();      // run separate thread to open files, report
+// ------------------------------------------------------------------------- //
 
-  } // end of doOpenButton() method
+/*
+  RedatePhotoFile3Change class
+
+  This class holds the changes decided for one file, so that the changes can
+  be made later.  There are no methods here, only data.
+*/
+
+class RedatePhotoFile3Change
+{
+  boolean applied;                // true if changes have been tried
+  boolean dateFailed;             // true if date couldn't be changed
+  boolean errorFlag;              // true if an earlier error was reported
+  File file;                      // file to be changed
+  long foundMillis;               // date found in file, or -1
+  boolean moveFailed;             // true if file couldn't be moved
+  File moveFolder;                // new date folder (-o option), or null
+  boolean nameFailed;             // true if file couldn't be renamed
+  long newMillis;                 // new Java date in milliseconds, or -1
+  String newName;                 // new file name, or null or empty string
+  long oldMillis;                 // old Java date in milliseconds for file
+  String oldText;                 // old date and time that we show user
+  int retries;                    // number of times a change was tried again
+
+  public RedatePhotoFile3Change(File file, long oldMillis, long foundMillis,
+    long newMillis, String newName, String oldText)
+  {
+    this.applied = this.dateFailed = this.errorFlag = this.moveFailed
+      = this.nameFailed = false;
+    this.file = file;
+    this.foundMillis = foundMillis;
+    this.moveFolder = null;
+    this.newMillis = newMillis;
+    this.newName = newName;
+    this.oldMillis = oldMillis;
+    this.oldText = oldText;
+    this.retries = 0;
+  }
+
+} // end of RedatePhotoFile3Change class
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doOpenNumber() method
+  RedatePhotoFile3Copy class
 
-  This is a helper method for doOpenButton() to parse an integer field, check
-  the range, and return the result or Integer.MAX_VALUE for an error.
+  This class copies bytes from an input stream to an output stream in its own
+  thread, until the end of the input.  The output stream is closed at the end,
+  unless it is the standard error stream.  We use this for reading output from
+  worker processes, which may stop if nobody reads their output.
 */
-  static int doOpenNumber(String tag, JTextField field, int lower, int upper)
+
+class RedatePhotoFile3Copy implements Runnable
+{
+  InputStream input;              // where bytes come from
+  OutputStream output;            // where bytes go to
+
+  public RedatePhotoFile3Copy(InputStream input, OutputStream output)
+  {
+    this.input = input;
+    this.output = output;
+  }
+
+  public void run()
   {
-    int result;                   // our result, as an integer or otherwise
-    String text;                  // text from caller's field
+    byte[] buffer = new byte[0x4000]; // 16 KB at a time
+    int count;                    // number of bytes from one read() call
 
-    text = field.getText();       // may be empty, a number, or bad syntax
-    if (text.length() > 0)        // any non-empty string should be a number
+    try
     {
-      try { result = Integer.parseInt(text); } // parse as signed integer
-      catch (NumberFormatException nfe) { result = Integer.MAX_VALUE; }
+      while ((count = input.read(buffer)) > 0)
+        output.write(buffer, 0, count);
+      input.close();
+      if (output == System.err) output.flush(); // don't close standard error
+      else output.close();
     }
-    else
-      result = 0;                 // assume empty string means integer zero
-
-    if ((result < lower) || (result > upper))
+    catch (IOException ioe)
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        ("A date or time adjustment in " + tag + "\nmust be from " + lower
-        + " to " + upper + "."));
-      result = Integer.MAX_VALUE;
+      System.err.println("Error copying output: " + ioe.getMessage());
     }
-    return(result);               // give caller whatever we could find
+  }
 
-  } // end of doOpenNumber() method
+} // end of RedatePhotoFile3Copy class
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doOpenRunner() method
+  RedatePhotoFile3Counter class
 
-  This method is called inside a separate thread by the runnable interface of
-  our "user" class to process the user's selected files in the context of the
-  "main" class.  By doing all the heavy-duty work in a separate thread, we
-  won't stall the main thread that runs the graphical interface, and we allow
-  the user to cancel the processing if it takes too long.
+  This class counts files for the GUI's progress bar in its own thread, while
+  another thread processes the same files.
 */
-  static void doOpenRunner()
-  {
-    int i;                        // index variable
 
-    /* Loop once for each file name selected.  Don't assume that these are all
-    valid file names. */
+class RedatePhotoFile3Counter implements Runnable
+{
+  File[] files;                   // user's selected files and folders
+  RedatePhotoFile3Gui gui;        // window with the progress bar
+  int run;                        // GUI run number when counting started
 
-    for (i = 0; i < openFileList.length; i ++)
-    {
-      if (cancelFlag) break;      // exit <for> loop if cancel or fatal error
-      processFileOrFolder(openFileList[i]); // process this file or folder
-    }
+  public RedatePhotoFile3Counter(RedatePhotoFile3Gui gui, File[] files,
+    int run)
+  {
+    this.files = files;
+    this.gui = gui;
+    this.run = run;
+  }
 
-    /* Print a summary and scroll the output, even if we were cancelled. */
+  public void run()
+  {
+    gui.countFiles(files, run);
+  }
 
-    printSummary();               // what we found and what was changed
+} // end of RedatePhotoFile3Counter class
 
-    /* We are done.  Turn off the "Cancel" button and allow the user to click
-    the "Start" button again. */
+// ------------------------------------------------------------------------- //
 
-    adjustCheckbox.setEnabled(true); // allow changes once again
-    adjustFieldYear.setEnabled(true); // from big to small
-    adjustFieldMonth.setEnabled(true);
-    adjustFieldDay.setEnabled(true);
-    adjustFieldHour.setEnabled(true);
-    adjustFieldMinute.setEnabled(true);
-    adjustFieldSecond.setEnabled(true);
-    adjustLabelYear.setEnabled(true); // from big to small
-    adjustLabelMonth.setEnabled(true);
-    adjustLabelDay.setEnabled(true);
-    adjustLabelHour.setEnabled(true);
-    adjustLabelMinute.setEnabled(true);
-    adjustLabelSecond.setEnabled(true);
-    cancelButton.setEnabled(false); // disable "Cancel" button
-    newDateCheckbox.setEnabled(true);
-    oldDateCheckbox.setEnabled(true);
-    openButton.setEnabled(true);  // enable "Open" button
-    redateCheckbox.setEnabled(true);
-    renameCheckbox.setEnabled(true);
-    renameFormatButton.setEnabled(true);
+/*
+  RedatePhotoFile3Extractor interface
+
+  This interface is for library callers who find dates in files their own way,
+  such as for a file format that we don't know.  The extractor gets the engine
+  and the open file, and returns a date and time as "yyyy-MM-dd HH:mm:ss", or
+  null if there is no date.  An extractor may call the engine's
+  findDateByFormat() for files that it doesn't handle.  One extractor may be
+  called by engines in several threads at the same time.
+*/
 
-    statusTimer.stop();           // stop updating status message by timer
-    setStatusMessage(EMPTY_STATUS); // and clear any previous status message
+interface RedatePhotoFile3Extractor
+{
+  public String findDate(RedatePhotoFile3 engine, RandomAccessFile input,
+    String givenName) throws IOException;
 
-  } // end of doOpenRunner() method
+} // end of RedatePhotoFile3Extractor interface
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doSaveButton() method
-
-  Ask the user for an output file name, create or replace that file, and copy
-  the contents of our output text area to that file.  The output file will be
-  in the default character set for the system, so if there are special Unicode
-  characters in the displayed text (Arabic, Chinese, Eastern European, etc),
-  then you are better off copying and pasting the output text directly into a
-  Unicode-aware application like Microsoft Word.
+  RedatePhotoFile3Feeder class
+
+  This class feeds names from units of work to one worker process (-k option)
+  in its own thread, and copies the worker's output to a temporary file.  The
+  worker writes a "done" line after each name, with its total number of files,
+  and we send another name.  Only a few names are sent ahead, so that a worker
+  always has something to do, but most units are left for whichever worker
+  asks first.  The worker's input is closed when there are no units left.
 */
-  static void doSaveButton()
+
+class RedatePhotoFile3Feeder implements Runnable
+{
+  static final int AHEAD = 8;     // most names sent but not done
+
+  Writer copy;                    // where worker's output goes
+  long done;                      // worker's total files after last name
+  RedatePhotoFile3 engine;        // coordinator that gives out units
+  int index;                      // index of next name in <unit>
+  BufferedReader input;           // worker's standard output
+  Writer names;                   // worker's standard input, or null
+  Vector pending;                 // units for names sent but not done
+  int sent;                       // number of names sent to worker
+  RedatePhotoFile3Unit unit;      // current unit of work, or null
+
+  public RedatePhotoFile3Feeder(RedatePhotoFile3 engine, InputStream input,
+    OutputStream names, OutputStream copy)
   {
-    FileWriter output;            // output file stream
-    File userFile;                // file chosen by the user
+    this.copy = new BufferedWriter(new OutputStreamWriter(copy));
+    this.done = 0;
+    this.engine = engine;
+    this.index = 0;
+    this.input = new BufferedReader(new InputStreamReader(input));
+    this.names = new BufferedWriter(new OutputStreamWriter(names));
+    this.pending = new Vector();
+    this.sent = 0;
+    this.unit = null;
+  }
 
-    /* Ask the user for an output file name. */
+  /* Send one more name to the worker, if there is any work left.  Close the
+  worker's input when there is nothing left and all names are done. */
 
-    fileChooser.resetChoosableFileFilters(); // remove any existing filters
-    fileChooser.setDialogTitle("Save Output as Text File...");
-    fileChooser.setFileHidingEnabled(true); // don't show hidden files
-    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-    fileChooser.setMultiSelectionEnabled(false); // allow only one file
-    if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
-      return;                     // user cancelled file selection dialog box
-    userFile = fileChooser.getSelectedFile();
+  void feed()
+  {
+    while ((names != null) && ((unit == null) || (index
+      >= unit.names.size())))     // need another unit of work?
+    {
+      index = 0;                  // start at first name in unit
+      if ((unit = engine.nextUnit()) == null)
+      {
+        if (pending.size() > 0)   // wait for worker to finish names
+          return;
+        try { names.close(); }    // tell worker that there are no more names
+        catch (IOException ioe) { /* worker may have already stopped */ }
+        names = null;
+      }
+    }
+    if (names == null)            // nothing more to send?
+      return;
+    try
+    {
+      names.write((String) unit.names.get(index));
+      names.write(0x00);          // null-terminated strings
+      names.flush();
+      pending.add(unit);          // remember unit until name is done
+      index ++;
+      sent ++;
+    }
+    catch (IOException ioe)       // worker probably stopped early
+    {
+      names = null;               // coordinator reports worker's error
+    }
+  }
 
-    /* See if we can write to the user's chosen file. */
+  public void run()
+  {
+    long files;                   // worker's total files from "done" line
+    String line;                  // one line of output from worker
+    String prefix;                // start of "done" line from worker
 
-    if (userFile.isDirectory())   // can't write to directories or folders
+    prefix = RedatePhotoFile3.SHARD_DONE + " ";
+    try
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is a directory or folder.\nPlease select a normal file."));
-      return;
+      do feed();                  // send first few names
+      while ((names != null) && (unit != null) && (pending.size() < AHEAD));
+      while ((line = input.readLine()) != null)
+      {
+        if (line.startsWith(prefix) && (pending.size() > 0))
+        {
+          try { files = Long.parseLong(line.substring(prefix.length())); }
+          catch (NumberFormatException nfe) { files = done; }
+          engine.finishName((RedatePhotoFile3Unit) pending.remove(0),
+            (files - done));      // count files for this name
+          done = files;
+          feed();                 // send another name, if any left
+        }
+        else
+        {
+          copy.write(line);       // same output as worker without -k option
+          copy.write(System.getProperty("line.separator"));
+        }
+      }
+      input.close();
+      copy.close();
     }
-    else if (userFile.isHidden()) // won't write to hidden (protected) files
+    catch (IOException ioe)
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is a hidden or protected file.\nPlease select a normal file."));
-      return;
+      System.err.println("Error copying output: " + ioe.getMessage());
     }
-    else if (userFile.isFile() == false) // if file doesn't exist
+  }
+
+} // end of RedatePhotoFile3Feeder class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Index class
+
+  This class keeps a compact index of results for each file outside of the Java
+  heap, in memory-mapped files, so that very large runs don't need one Java
+  object per file.  Each row (file) has the folder name and file name as offsets
+  into a separate names file, the embedded date, the file date after any
+  changes, and a status byte.  Rows are stored by column in fixed-size
+  segments, and only one segment is mapped into memory at a time.  Folder
+  names are written once per folder, not once per file.  The index file has a
+  small header with a signature and the number of rows, so that the index can
+  be opened and added to later.  Jobs in several threads may share one index,
+  and add rows one at a time.
+*/
+
+class RedatePhotoFile3Index
+{
+  static final int HEADER_SIZE = 64; // bytes before first segment
+  static final int ROW_SIZE = 33; // bytes per row, in all columns
+  static final int SEGMENT_ROWS = 0x10000; // rows per memory-mapped segment
+  static final int SIGNATURE = 0x52504649; // "RPFI" at start of index file
+
+  FileChannel channel;            // channel for memory-mapping <file>
+  RandomAccessFile file;          // index file with header and segments
+  String folderName;              // most recent folder name, or null
+  long folderOffset;              // offset of <folderName> in names file
+  MappedByteBuffer header;        // memory-mapped header
+  RandomAccessFile names;         // folder and file names as UTF strings
+  long namesSize;                 // number of bytes in <names>
+  long rowCount;                  // number of rows in index
+  MappedByteBuffer segment;       // current memory-mapped segment, or null
+  long segmentNumber;             // segment number for <segment>, or -1
+
+  /* Open an existing index, or create a new index if the file doesn't exist
+  or is empty.  An empty file name creates a temporary index. */
+
+  public RedatePhotoFile3Index(String fileName) throws IOException
+  {
+    File indexFile, namesFile;    // index file and names file
+
+    if (fileName.length() == 0)   // temporary index?
     {
-      /* Maybe we can create a new file by this name.  Do nothing here. */
+      indexFile = File.createTempFile("RedatePhotoFile3-", ".idx");
+      namesFile = new File(indexFile.getPath() + ".names");
+      indexFile.deleteOnExit();   // delete both files when we exit
+      namesFile.deleteOnExit();
     }
-    else if (userFile.canWrite() == false) // file exists, but is read-only
+    else
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is locked or write protected.\nCan't write to this file."));
-      return;
+      indexFile = new File(fileName);
+      namesFile = new File(fileName + ".names");
     }
-    else if (JOptionPane.showConfirmDialog(mainFrame, (userFile.getName()
-      + " already exists.\nDo you want to replace this with a new file?"))
-      != JOptionPane.YES_OPTION)
+    file = new RandomAccessFile(indexFile, "rw");
+    if ((file.length() > 0) && ((file.length() < HEADER_SIZE)
+      || (file.readInt() != SIGNATURE)))
     {
-      return;                     // user cancelled file replacement dialog
+      file.close();
+      throw new IOException("not an index file");
     }
+    channel = file.getChannel();
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    header.putInt(0, SIGNATURE);  // in case this is a new index
+    rowCount = header.getLong(8);
+    folderName = null;            // no folder name written yet
+    names = new RandomAccessFile(namesFile, "rw");
+    namesSize = names.length();   // new names go after existing names
+    segment = null;               // no segment mapped yet
+    segmentNumber = -1;
+  }
 
-    /* Write lines to output file. */
+  /* Add one row to the index. */
 
-    try                           // catch file I/O errors
+  synchronized void add(File file, long newMillis, long oldMillis, int status)
+    throws IOException
+  {
+    String folder;                // folder name for <file>
+    long nameOffset;              // offset of file name in names file
+    int row;                      // row number within segment
+
+    folder = file.getParent();
+    if (folder == null) folder = ""; // no folder (shouldn't happen)
+    if (folder.equals(folderName) == false) // different from previous file?
     {
-      output = new FileWriter(userFile); // try to open output file
-      outputText.write(output);   // couldn't be much easier for writing!
-      output.close();             // try to close output file
+      folderName = folder;        // write each folder name only once
+      folderOffset = writeName(folder);
     }
-    catch (IOException ioe)
+    nameOffset = writeName(file.getName());
+    row = selectRow(rowCount);
+    segment.putLong((row * 8), folderOffset); // column 1: folder name
+    segment.putLong(((SEGMENT_ROWS * 8) + (row * 8)), nameOffset);
+    segment.putLong(((SEGMENT_ROWS * 16) + (row * 8)), newMillis);
+    segment.putLong(((SEGMENT_ROWS * 24) + (row * 8)), oldMillis);
+    segment.put(((SEGMENT_ROWS * 32) + row), (byte) status); // last column
+    rowCount ++;                  // one more row in index
+    header.putLong(8, rowCount);  // update header as each row is added
+  }
+
+  /* Close the index, writing everything to disk. */
+
+  synchronized void close() throws IOException
+  {
+    if (segment != null) segment.force();
+    header.force();
+    channel.close();
+    file.close();
+    names.close();
+  }
+
+  /* List files where the embedded date and the file date differ by more than
+  some number of milliseconds, and return the number of files found.  A file
+  processed in several runs has several rows, and only the newest row counts,
+  so rows are read from newest to oldest, remembering each file name once.
+  Unlike adding rows, a query keeps one name per file on the Java heap.  Files
+  are listed in the order they were added, as output from the caller's
+  engine. */
+
+  synchronized long query(RedatePhotoFile3 engine, long limit)
+    throws IOException
+  {
+    String folder;                // folder name for one row
+    Vector found;                 // paths and dates found, newest first
+    long i;                       // index variable
+    long newMillis, oldMillis;    // dates for one row
+    String path;                  // full file name for one row
+    int row;                      // row number within segment
+    HashSet seen;                 // file names with a newer row
+
+    found = new Vector();
+    seen = new HashSet();
+    for (i = rowCount - 1; i >= 0; i --)
     {
-      putOutput("Can't write to text file: " + ioe.getMessage());
+      row = selectRow(i);
+      names.seek(segment.getLong(row * 8)); // folder name
+      folder = names.readUTF();
+      names.seek(segment.getLong((SEGMENT_ROWS * 8) + (row * 8))); // file
+      path = (new File(folder, names.readUTF())).getPath();
+      if (seen.add(path) == false) // is there a newer row for this file?
+        continue;                 // yes, older rows don't count
+      newMillis = segment.getLong((SEGMENT_ROWS * 16) + (row * 8));
+      oldMillis = segment.getLong((SEGMENT_ROWS * 24) + (row * 8));
+      if ((newMillis < 0) || (Math.abs(newMillis - oldMillis) <= limit))
+        continue;                 // no date, or difference is small enough
+      found.add(path + " - file date " + engine.ourDateFormat.format(new Date(
+        oldMillis)) + ", embedded date " + engine.ourDateFormat.format(
+        new Date(newMillis)));
     }
-  } // end of doSaveButton() method
+    for (i = found.size() - 1; i >= 0; i --) // oldest row first
+      engine.putOutput((String) found.get((int) i));
+    return(found.size());
+  }
 
+  /* Map the segment for a row number, if not already mapped, and return the
+  row number within that segment.  Mapping past the end of the file makes the
+  file bigger. */
 
-/*
-  printSummary() method
+  int selectRow(long row) throws IOException
+  {
+    long number = row / SEGMENT_ROWS; // segment number for this row
 
-  Tell the user what we found and what was changed.
+    if (number != segmentNumber)  // do we need a different segment?
+    {
+      if (segment != null) segment.force(); // write previous segment
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, (HEADER_SIZE
+        + (number * SEGMENT_ROWS * ROW_SIZE)), (SEGMENT_ROWS * ROW_SIZE));
+      segmentNumber = number;
+    }
+    return((int) (row % SEGMENT_ROWS));
+  }
+
+  /* Write a folder or file name at the end of the names file, and return the
+  offset where it was written. */
+
+  long writeName(String text) throws IOException
+  {
+    long result = namesSize;      // offset where name will be written
+
+    names.seek(namesSize);
+    names.writeUTF(text);
+    namesSize = names.getFilePointer();
+    return(result);
+  }
+
+} // end of RedatePhotoFile3Index class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Job class
+
+  This class is one job for a caller who uses RedatePhotoFile3 as a library:
+  options, files or folders, and a listener for output, progress, and results.
+  The job may be run in the caller's thread, or in a new thread.  Each run()
+  creates a new engine, so jobs in different threads are done at the same
+  time.  Callers with many small jobs may keep their own engines, and give
+  each job to an engine's runJob().  Totals are available after the job is
+  done.
 */
-  static void printSummary()
+
+class RedatePhotoFile3Job implements Runnable
+{
+  volatile boolean cancelFlag;    // true if caller wants this job to stop
+  volatile RedatePhotoFile3 engine; // engine doing this job now, or null
+  File[] files;                   // files and folders to process
+  RedatePhotoFile3Listener listener; // gets output and results, or null
+  RedatePhotoFile3Options options; // options for this job
+  long totalBytes, totalChange, totalCorrect, totalError, totalFiles,
+    totalFolders, totalNoData;    // same as engine, after job is done
+
+  public RedatePhotoFile3Job(RedatePhotoFile3Options options, File[] files,
+    RedatePhotoFile3Listener listener)
   {
-    putOutput("Found " + formatComma.format(totalFiles)
-      + ((totalFiles == 1) ? " file" : " files") + " in "
-      + formatComma.format(totalFolders)
-      + ((totalFolders == 1) ? " folder" : " folders") + ": "
-      + formatComma.format(totalCorrect) + " correct, "
-      + formatComma.format(totalChange) + " changed, "
-      + formatComma.format(totalError)
-      + ((totalError == 1) ? " error" : " errors") + ", "
-      + formatComma.format(totalNoData) + " no data.");
+    this.cancelFlag = false;
+    this.engine = null;
+    this.files = files;
+    this.listener = listener;
+    this.options = options;
+  }
+
+  public void cancel()
+  {
+    RedatePhotoFile3 running = engine; // same engine for test and change
+
+    this.cancelFlag = true;       // in case job hasn't started yet
+    if (running != null)          // is this job running now?
+      running.cancelFlag = true;
+  }
+
+  public void run()
+  {
+    (new RedatePhotoFile3()).runJob(this); // our own engine, no waiting
   }
 
+} // end of RedatePhotoFile3Job class
+
+// ------------------------------------------------------------------------- //
 
 /*
-  processFileOrFolder() method
+  RedatePhotoFile3Listener interface
+
+  This interface is for callers who run jobs and want the output, progress,
+  and results.  All methods are called in the job's thread.  Output lines are
+  the same as the report from the console application.  Progress has the
+  number of files so far and a status message, usually a file name.  Results
+  have the date found in the file (or -1), the file's old date (or -1), and a
+  status from the RESULT_* constants in the main class.
+*/
 
-  The caller gives us a Java File object that may be a file, a folder, or just
-  random garbage.  Search all files.  Get folder contents and process each file
-  found, doing subfolders only if the <recurseFlag> is true.
+interface RedatePhotoFile3Listener
+{
+  public void fileResult(File file, long newMillis, long oldMillis,
+    int status);
+  public void message(String text);
+  public void progress(long files, String text);
 
-  Do not call GUI methods or reference GUI objects here, because we may be
-  running from the command line as a "console" application.
+} // end of RedatePhotoFile3Listener interface
+
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Options class
+
+  This class holds the options for one job, copied from an engine when
+  created, and copied into the engine that runs the job by apply().  The
+  options can't be changed after they are created, so one options object may
+  be shared by many jobs, such as requests to our server.  Saved results, rate
+  limits, date folders, time zone rules, and the index of results are shared
+  by reference, and are safe to use from several engines at the same time.
 */
-  static void processFileOrFolder(File givenFile)
+
+class RedatePhotoFile3Options
+{
+  final int adjustValueYear, adjustValueMonth, adjustValueDay, adjustValueHour,
+    adjustValueMinute, adjustValueSecond; // from big to small
+  final boolean auditFlag;        // true if we only count date differences
+  final boolean batchFlag;        // true if we change files after each folder
+  final int batchThreads;         // number of folders changed at same time
+  final RedatePhotoFile3Cache cacheFiles; // saved dates by file, or null
+  final RedatePhotoFile3Cache cacheFolders; // saved lists by folder, or null
+  final boolean debugFlag;        // true if we show debug information
+  final int driftMode;            // 0 = no drift, 1 = by camera, 2 = by folder
+  final RedatePhotoFile3Extractor extractor; // finds dates in files, or null
+  final boolean hiddenFlag;       // true if we process hidden files or folders
+  final boolean oldDateFlag;      // true if we find oldest (original) dates
+  final Set organizeFolders;      // date folders known to exist, or null
+  final SimpleDateFormat organizeFormat; // date folder names (-o option)
+  final File organizeRoot;        // root folder for date folders, or null
+  final int rankRules;            // rules for ranking dates, RANK_* bits
+  final RedatePhotoFile3Bucket rateBytes; // limits bytes read per second
+  final RedatePhotoFile3Bucket rateFiles; // limits files opened per second
+  final String rateFileName;      // file with rate limits, or null
+  final long rateFileTime;        // modification date of <rateFileName>
+  final RedatePhotoFile3Bucket rateWrites; // limits file changes per second
+  final boolean recurseFlag;      // true if we search folders and subfolders
+  final boolean redateFlag;       // true if we change file modification date
+  final String renameDateString;  // date, time format for renaming files
+  final boolean renameFlag;       // true if we rename file with date prefix
+  final RedatePhotoFile3Index resultIndex; // index of results, or null
+  final int showIndex;            // index of current message selection
+  final int sidecarMode;          // 0 = no XMP, 1 = if no date, 2 = XMP first
+  final int traceCount;           // number of slowest files, or zero
+  final HashMap zoneModels;       // camera model rules, or null
+  final RedatePhotoFile3Rule zoneRoot; // tree of folder rules, or null
+
+  public RedatePhotoFile3Options(RedatePhotoFile3 engine)
   {
-    File canon;                   // full directory resolution of <givenFile>
-    char ch;                      // one input character (from byte)
-    File[] contents;              // contents if <givenFile> is a folder
-    boolean fileChangeFlag;       // true if this file has successful changes
-    boolean fileCorrectFlag;      // true if this file has correct date, prefix
-    boolean fileErrorFlag;        // true if this file has failures to change
-    char found[] = {'1', '9', '9', '9', '-', '1', '2', '-', '3', '1', ' ', '2',
-      '3', ':', '5', '9', ':', '5', '9'}; // matching characters found in file
-    String foundBestDate;         // best date, time found so far, or null
-    String givenName;             // caller's file name only, without path
-    String givenPath;             // name of caller's file, including path
-    int i;                        // index variable
-    BufferedInputStream input;    // for reading a file as bytes
-    File newFile;                 // renamed File object for <givenFile>
-    long newMillis;               // new Java date in milliseconds for file
-    String newName;               // new file or folder name
-    File next;                    // next File object from <contents>
-    long oldMillis;               // old Java date in milliseconds for file
-    String prefix;                // date, time prefix for file name
-    long readCount;               // total number of bytes read from file
-    int state;                    // current state number of parsing machine
-    String userNewDate, userOldDate; // dates and times that we show user
+    this.adjustValueYear = engine.adjustValueYear;
+    this.adjustValueMonth = engine.adjustValueMonth;
+    this.adjustValueDay = engine.adjustValueDay;
+    this.adjustValueHour = engine.adjustValueHour;
+    this.adjustValueMinute = engine.adjustValueMinute;
+    this.adjustValueSecond = engine.adjustValueSecond;
+    this.auditFlag = engine.auditFlag;
+    this.batchFlag = engine.batchFlag;
+    this.batchThreads = engine.batchThreads;
+    this.cacheFiles = engine.cacheFiles;
+    this.cacheFolders = engine.cacheFolders;
+    this.debugFlag = engine.debugFlag;
+    this.driftMode = engine.driftMode;
+    this.extractor = engine.extractor;
+    this.hiddenFlag = engine.hiddenFlag;
+    this.oldDateFlag = engine.oldDateFlag;
+    this.organizeFolders = engine.organizeFolders;
+    this.organizeFormat = engine.organizeFormat;
+    this.organizeRoot = engine.organizeRoot;
+    this.rankRules = engine.rankRules;
+    this.rateBytes = engine.rateBytes;
+    this.rateFiles = engine.rateFiles;
+    this.rateFileName = engine.rateFileName;
+    this.rateFileTime = engine.rateFileTime;
+    this.rateWrites = engine.rateWrites;
+    this.recurseFlag = engine.recurseFlag;
+    this.redateFlag = engine.redateFlag;
+    this.renameDateString = engine.renameDateString;
+    this.renameFlag = engine.renameFlag;
+    this.resultIndex = engine.resultIndex;
+    this.showIndex = engine.showIndex;
+    this.sidecarMode = engine.sidecarMode;
+    this.traceCount = engine.traceCount;
+    this.zoneModels = engine.zoneModels;
+    this.zoneRoot = engine.zoneRoot;
+  }
 
-    if (cancelFlag) return;       // stop if user cancel or fatal error
+  public void apply(RedatePhotoFile3 engine)
+  {
+    engine.adjustValueYear = this.adjustValueYear;
+    engine.adjustValueMonth = this.adjustValueMonth;
+    engine.adjustValueDay = this.adjustValueDay;
+    engine.adjustValueHour = this.adjustValueHour;
+    engine.adjustValueMinute = this.adjustValueMinute;
+    engine.adjustValueSecond = this.adjustValueSecond;
+    engine.auditFlag = this.auditFlag;
+    engine.batchFlag = this.batchFlag;
+    engine.batchThreads = this.batchThreads;
+    engine.cacheFiles = this.cacheFiles;
+    engine.cacheFolders = this.cacheFolders;
+    engine.debugFlag = this.debugFlag;
+    engine.driftMode = this.driftMode;
+    engine.extractor = this.extractor;
+    engine.hiddenFlag = this.hiddenFlag;
+    engine.oldDateFlag = this.oldDateFlag;
+    engine.organizeFolders = this.organizeFolders;
+    engine.organizeFormat = (this.organizeFormat == null) ? null
+      : (SimpleDateFormat) this.organizeFormat.clone(); // not thread safe
+    engine.organizeRoot = this.organizeRoot;
+    engine.rankRules = this.rankRules;
+    engine.rateBytes = this.rateBytes;
+    engine.rateFiles = this.rateFiles;
+    engine.rateFileName = this.rateFileName;
+    engine.rateFileTime = this.rateFileTime; // limits are already in buckets
+    engine.rateWrites = this.rateWrites;
+    engine.recurseFlag = this.recurseFlag;
+    engine.redateFlag = this.redateFlag;
+    engine.setRenameFormat(this.renameDateString);
+                                  // was accepted before, so still valid
+    engine.renameFlag = this.renameFlag;
+    engine.resultIndex = this.resultIndex;
+    engine.showIndex = this.showIndex;
+    engine.sidecarMode = this.sidecarMode;
+    engine.traceCount = this.traceCount;
+    engine.traceFiles = engine.traceFolders = null; // new lists for each job
+    if (this.traceCount > 0)      // are we timing files and folders?
+    {
+      engine.traceFiles = new RedatePhotoFile3Slowest(this.traceCount);
+      engine.traceFolders = new RedatePhotoFile3Slowest(this.traceCount);
+    }
+    engine.zoneModels = this.zoneModels;
+    engine.zoneRoot = this.zoneRoot;
+  }
 
-    /* Decide what kind of File object this is, if it's even real!  We process
-    all files/folders given to us, no matter whether they are hidden or not.
-    It's only when we look at subfolders that we pay attention to <hiddenFlag>
-    and <recurseFlag>. */
+} // end of RedatePhotoFile3Options class
 
-    try { canon = givenFile.getCanonicalFile(); } // full directory search
-    catch (IOException ioe) { canon = givenFile; } // accept abstract file
-    givenName = canon.getName();  // get the file name only
-    givenPath = canon.getPath();  // get file name with path
-    setStatusMessage(givenPath);  // use name with path for status text
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Pool class
+
+  This class is one thread in the server's pool of engines (-v option).  The
+  thread creates one engine and uses it again for each request, so requests
+  don't pay for a new engine, and they run in code that the JVM has already
+  compiled.  Clients wait in a shared queue, and whichever thread is free
+  takes the next client.
+*/
+
+class RedatePhotoFile3Pool implements Runnable
+{
+  Vector queue;                   // clients waiting for an engine
 
-    /* Most of the work is done later in this method.  Search through folders
-    and subfolders here, eliminate File objects that don't exist, and leave
-    only real files for later. */
+  public RedatePhotoFile3Pool(Vector queue)
+  {
+    this.queue = queue;
+  }
 
-    if (canon.isDirectory())      // is this a folder?
+  public void run()
+  {
+    RedatePhotoFile3Server client; // next client with a job
+    RedatePhotoFile3 engine;      // our engine, used again for each job
+
+    engine = new RedatePhotoFile3(); // created once, in our own thread
+    while (true)                  // daemon thread, until server is killed
     {
-      totalFolders ++;            // one more folder or subfolder found
-      putOutput("Searching folder " + givenPath);
-//    putOutComment("Searching folder " + givenPath);
-      contents = sortFileList(canon.listFiles()); // sorted, no filter
-      for (i = 0; i < contents.length; i ++) // for each file in order
+      synchronized (queue)
       {
-        if (cancelFlag) return;   // stop if user cancel or fatal error
-        next = contents[i];       // get next File object from <contents>
-        if (next.isHidden() && (hiddenFlag == false))
-        {
-          putOutComment(next.getName()
-            + " - ignoring hidden file or subfolder");
-        }
-        else if (next.isDirectory()) // is this a subfolder (in the folder)?
-        {
-          if (recurseFlag)        // should we look at subfolders?
-            processFileOrFolder(next); // yes, search this subfolder
-          else
-            putOutComment(next.getName() + " - ignoring subfolder");
-        }
-        else if (next.isFile())   // is this a file (in the folder)?
-        {
-          processFileOrFolder(next); // yes, call ourself to do this file
-        }
-        else
+        while (queue.size() == 0) // nothing for us to do?
         {
-          /* File or folder does not exist.  Ignore without comment. */
+          try { queue.wait(); }
+          catch (InterruptedException ie) { /* ignore errors */ }
         }
+        client = (RedatePhotoFile3Server) queue.remove(0);
+      }
+      try { client.runJob(engine); } // output goes straight to client
+      catch (RuntimeException re) // fault in program logic, not by client
+      {
+        System.err.println("Server engine error: " + re);
+        engine = new RedatePhotoFile3(); // don't trust old engine's state
       }
-      return;                     // folder is complete
-    }
-    else if (canon.isFile() == false) // most likely does not exist
-    {
-      putOutput(givenName + " - not a file or folder");
-//    cancelFlag = true;          // don't do anything more
-      totalError ++;              // count as error, even if don't know reason
-      return;
     }
-    totalFiles ++;                // one more file found, may be JPEG
+  }
 
-    /* Read through the file, picking out strings formatted as Exif dates and
-    times, including the null terminating byte.  There can be garbage bytes
-    before the string, some of which may look like a partial date or time.
-    This ugly code below is still easier and less error prone than parsing the
-    official Exif file format.  (Big endian data versus little endian, offset
-    pointers, range checking at every step, etc.)
+} // end of RedatePhotoFile3Pool class
 
-    As an exercise to the reader, calculate the probability that a sequence of
-    data bytes has the same format as an Exif date, assuming a uniform random
-    distribution of values for the bytes.  (Answer: 6.84e-35.) */
+// ------------------------------------------------------------------------- //
 
-    foundBestDate = null;         // no valid date, time found yet
-    try                           // catch I/O errors (file not found, etc)
-    {
-      input = new BufferedInputStream(new FileInputStream(canon));
-                                  // read file bytes as characters
-      readCount = 0;              // no bytes (characters) read from file yet
-      state = 0;                  // also number of characters found in string
-      while ((readCount < READ_LIMIT) && ((i = input.read()) >= 0))
-                                  // for each byte (character) in file
-      {
-        readCount ++;             // one more byte (character) read from file
-        ch = (char) i;            // convert byte integer to character
-        switch (state)            // helps that state is also parsed length
-        {
-          case (0):               // nothing found yet
-          case (1):               // found: 1?
-          case (2):               // found: 19?
-          case (3):               // found: 199?
-          case (5):               // found: 1999:?
-          case (6):               // found: 1999:1?
-          case (8):               // found: 1999:12:?
-          case (9):               // found: 1999:12:3?
-          case (11):              // found: 1999:12:31 ?
-          case (12):              // found: 1999:12:31 2?
-          case (14):              // found: 1999:12:31 23:?
-          case (15):              // found: 1999:12:31 23:5?
-          case (17):              // found: 1999:12:31 23:59:?
-          case (18):              // found: 1999:12:31 23:59:5?
-            if (Character.isDigit(ch)) // expecting digit (number)
-            {
-              found[state] = ch;  // save this digit
-              state ++;           // advance to next state
-            }
-            else state = 0;       // unexpected input, start from beginning
-            break;
+/*
+  RedatePhotoFile3Progress class
 
-          case (4):               // found: 1999?
-            if (ch == ':') { state ++; } // expecting colon (:)
-            else if (Character.isDigit(ch)) // too many digits for year
-            {
-              found[0] = found[1]; // drop first digit, shift others left
-              found[1] = found[2]; found[2] = found[3]; found[3] = ch;
-              /* and remain in state 4 */
-            }
-            else state = 0;
-            break;
-
-          case (7):               // found: 1999:12?
-          case (13):              // found: 1999:12:31 23?
-          case (16):              // found: 1999:12:31 23:59?
-            if (ch == ':') { state ++; } // expecting colon (:)
-            else if (Character.isDigit(ch)) // too many digits, restart year
-            {
-              found[0] = found[state - 2]; found[1] = found[state - 1];
-              found[2] = ch; state = 3;
-            }
-            else state = 0;
-            break;
+  This class is one snapshot of progress in the GUI: the number of files so
+  far, the status message, and when.  The worker thread creates a new object
+  each time, and the GUI timer reads whichever object is newest, so the timer
+  never sees a number of files from one moment and a message from another.
+*/
 
-          case (10):              // found: 1999:12:31?
-            if (ch == ' ') { state ++; } // expecting blank space
-            else if (Character.isDigit(ch)) // too many digits, restart year
-            {
-              found[0] = found[state - 2]; found[1] = found[state - 1];
-              found[2] = ch; state = 3;
-            }
-            else state = 0;
-            break;
+class RedatePhotoFile3Progress
+{
+  final long files;               // number of files before this one
+  final long millis;              // when this progress was saved
+  final String text;              // status message, usually a file name
 
-          case (19):              // found: 1999:12:31 23:59:59?
-            if (ch == 0x00)       // is string terminated by a null byte?
-            {
-              /* Found a date and time with valid syntax.  Is it within range
-              (not "0000-00-00", etc) and better than what we already have? */
+  public RedatePhotoFile3Progress(long files, String text)
+  {
+    this.files = files;
+    this.millis = System.currentTimeMillis();
+    this.text = text;
+  }
 
-              String foundThisDate = new String(found);
-                                  // convert character array to real string
-              putOutDebug(givenName + " - found date and time "
-                + foundThisDate);
-              if ((foundThisDate.compareTo(DATE_LOWER) < 0)
-                || (foundThisDate.compareTo(DATE_UPPER) > 0))
-              {
-                putOutDebug(givenName + " - not within limits " + DATE_LOWER
-                  + " to " + DATE_UPPER);
-              }
-              else if ((foundBestDate == null) // better than what we have?
-                || ((oldDateFlag == false) && (foundBestDate.compareTo(foundThisDate) < 0))
-                || ((oldDateFlag == true)  && (foundBestDate.compareTo(foundThisDate) > 0)))
-              {
-                foundBestDate = foundThisDate; // save the better date, time
-              }
-              state = 0;          // this string finished, look for next string
-            }
-            else if (Character.isDigit(ch)) // too many digits, restart year
-            {
-              found[0] = found[state - 2]; found[1] = found[state - 1];
-              found[2] = ch; state = 3;
-            }
-            else state = 0;
-            break;
+} // end of RedatePhotoFile3Progress class
 
-          default:
-            System.err.println("Error in checkDateTime(): unknown state = "
-              + state);           // should never happen, so write on console
-            state = 0;
-            break;
-        }
-      }
-      input.close();              // close (and unlock) user's file
-    }
-    catch (IOException ioe)       // file may be locked, invalid, etc
-    {
-      putOutput(givenName + " - " + ioe.getMessage());
-//    cancelFlag = true;          // don't do anything more
-      totalError ++;              // one more file with an error
-      return;
-    }
+// ------------------------------------------------------------------------- //
 
-    /* Did we find a valid date and time? */
+/*
+  RedatePhotoFile3Renamer class
 
-    if (cancelFlag) return;       // stop if user cancel or fatal error
+  This class is one thread that changes folders for the -b# option.  Threads
+  take the next folder from a shared queue, so several folders are changed at
+  the same time, but only one thread changes any given folder.  Threads with
+  an index past the current number of threads wait.  Threads stop when their
+  engine's job is done, and the engine replaces the queue.
+*/
 
-    if (foundBestDate == null)    // won't change from null if nothing found
-    {
-      putOutComment(givenName + " - date and time not found");
-      totalNoData ++;             // one more file with no date, time info
-      return;
-    }
-    else if (debugFlag)           // does user want details?
-    {
-      putOutput(givenName + " - using date and time " + foundBestDate);
-      /* ... and fall through to remaining code, even if both the redate and
-      rename flags are turned off. */
-    }
-    else if ((redateFlag == false) && (renameFlag == false))
-    {
-      putOutComment(givenName + " - found date and time " + foundBestDate);
-      return;
-    }
-    fileChangeFlag = fileCorrectFlag = fileErrorFlag = false;
-                                  // nothing known about this file yet
+class RedatePhotoFile3Renamer implements Runnable
+{
+  RedatePhotoFile3 engine;        // engine with the queue of folders
+  int index;                      // our thread number, starting from zero
 
-    /* Convert date and time digits into something Java can use.  Fortunately,
-    JPEG dates are very close to ISO standard dates, and we cleverly converted
-    the JPEG date into an ISO date while parsing.  (Look at how non-numeric
-    fields are initialized in the <found> character array.) */
+  public RedatePhotoFile3Renamer(RedatePhotoFile3 engine, int index)
+  {
+    this.engine = engine;
+    this.index = index;
+  }
 
-    try { newMillis = ourDateFormat.parse(foundBestDate).getTime(); }
-    catch (ParseException pe)     // unable to parse date, time string
+  public void run()
+  {
+    RedatePhotoFile3Batch batch;  // changes for one folder
+    Vector queue;                 // folders waiting for a thread
+
+    queue = engine.batchQueue;
+    while (true)                  // daemon thread, or until job is done
     {
-      putOutput(givenName + " - can't parse date and time " + foundBestDate);
-      totalError ++;              // one more file with an error
-      return;                     // don't continue after error
+      synchronized (queue)
+      {
+        while ((queue.size() == 0) || (index >= engine.batchThreads))
+        {                         // nothing for us to do?
+          if (queue != engine.batchQueue) // did stopBatches() replace queue?
+            return;
+          try { queue.wait(); }
+          catch (InterruptedException ie) { /* ignore errors */ }
+        }
+        batch = (RedatePhotoFile3Batch) queue.remove(0);
+      }
+      engine.runBatch(batch);     // change files, without reporting
+      synchronized (queue)
+      {
+        batch.done = true;        // ready to be reported
+        queue.notifyAll();        // wake up reportBatches()
+      }
     }
+  }
 
-    /* Don't adjust dates and times by adding to <newMillis> directly, because
-    not all days have the same number of seconds.  Clock changes like daylight
-    saving time (DST) insert and remove one hour twice a year.  Use a Calendar
-    object to avoid introducing bugs in these calculations. */
+} // end of RedatePhotoFile3Renamer class
 
-    adjustCalendar.clear();       // clear any previous date, time fields
-    adjustCalendar.setTimeInMillis(newMillis); // put millis into calendar
-    adjustCalendar.add(Calendar.YEAR, adjustValueYear); // usually just zero
-    adjustCalendar.add(Calendar.MONTH, adjustValueMonth);
-    adjustCalendar.add(Calendar.DATE, adjustValueDay);
-    adjustCalendar.add(Calendar.HOUR, adjustValueHour);
-    adjustCalendar.add(Calendar.MINUTE, adjustValueMinute);
-    adjustCalendar.add(Calendar.SECOND, adjustValueSecond);
-    newMillis = adjustCalendar.getTimeInMillis(); // bring back as millis
-    userNewDate = ourDateFormat.format(new Date(newMillis)); // reformat
-    if (foundBestDate.compareTo(userNewDate) != 0) // any difference?
-      putOutDebug(givenName + " - adjust date and time " + userNewDate);
-    prefix = renameDateFormat.format(new Date(newMillis));
-                                  // create rename prefix before adjusting DST
+// ------------------------------------------------------------------------- //
 
-    /* Microsoft Windows adjusts file dates and times using the current rules
-    for daylight saving time (DST), no matter which rules should be applied at
-    that actual date and time.  Correcting for this assumption is almost
-    impossible because both Java and Windows think they are in charge of time
-    zones and DST.  The following code only does local times, and is quite
-    likely to break if either the JRE or Windows changes. */
+/*
+  RedatePhotoFile3Rule class
 
-    if (mswinFlag)                // do we correct for Windows assumptions?
-      newMillis += ourTimeZone.getOffset(newMillis)
-        - ourTimeZone.getOffset((new Date()).getTime());
+  This class is one node in a tree (trie) of folder names for the rules in a -z
+  file, and is also used alone for camera model rules.  Children are found by
+  folder name (lowercase on Windows), with "*" for any one name.  A node has a
+  rule only if some line in the rules file ends at that folder.
+*/
 
-    /* When displaying an old date, we have the same problem as above, but in
-    reverse: daylight saving time.  This could devolve into a long discussion
-    about the difficulty of following date and time rules.  It would be easier
-    if we simply didn't show the old date! */
+class RedatePhotoFile3Rule
+{
+  HashMap children;               // child nodes by folder name, or null
+  int depth;                      // number of folder names from root
+  int seconds;                    // seconds to add to date and time found
+  String text;                    // rule as given, or null if no rule here
+  TimeZone zone;                  // time zone for camera clock, or null
 
-    oldMillis = canon.lastModified(); // save previous Java time stamp
-    if (mswinFlag)                // do we correct for Windows assumptions?
-    {
-      userOldDate = ourDateFormat.format(new Date(oldMillis
-        - ourTimeZone.getOffset(oldMillis)
-        + ourTimeZone.getOffset((new Date()).getTime())));
-    }
-    else                          // don't correct, use time stamp as-is
-      userOldDate = ourDateFormat.format(new Date(oldMillis));
-    putOutDebug(givenName + " - file date and time is " + userOldDate);
+  public RedatePhotoFile3Rule(int depth)
+  {
+    this.children = null;
+    this.depth = depth;
+    this.seconds = 0;
+    this.text = null;
+    this.zone = null;
+  }
 
-    /* Change the last modification date and time for the file. */
+  /* Add a rule for a folder, given as a list of folder names, creating nodes
+  as needed.  A later rule for the same folder replaces an earlier rule. */
 
-    if (cancelFlag) return;       // stop if user cancel or fatal error
+  void add(String[] names, RedatePhotoFile3Rule rule)
+  {
+    RedatePhotoFile3Rule child;   // next node down the tree
+    RedatePhotoFile3Rule node;    // current node in tree
+    int i;                        // index variable
 
-    if (redateFlag == false)      // does the user want date, time changed?
-    {
-      /* No, do nothing.  Count nothing. */
-    }
-    else if (Math.abs(newMillis - oldMillis) < MILLI_FUZZ)
+    node = this;
+    for (i = 0; i < names.length; i ++)
     {
-      putOutComment(givenName + " - has correct date and time");
-      fileCorrectFlag = true;     // at least one correct for this file
-    }
-    else if (canon.canWrite() == false)
-    {
-      putOutFailure(givenName + " - can't change read-only file to "
-        + userNewDate);
-      fileErrorFlag = true;       // at least one error for this file
-    }
-    else if (debugFlag)           // do we simulate the result?
-    {
-      putOutSuccess(givenName + " - simulate change " + userNewDate + " from "
-        + userOldDate);
+      if (node.children == null) node.children = new HashMap();
+      child = (RedatePhotoFile3Rule) node.children.get(names[i]);
+      if (child == null)          // first rule through this folder?
+      {
+        child = new RedatePhotoFile3Rule(node.depth + 1);
+        node.children.put(names[i], child);
+      }
+      node = child;
     }
-    else if (canon.setLastModified(newMillis)) // try to change date, time
+    node.seconds = rule.seconds;  // copy rule into node for this folder
+    node.text = rule.text;
+    node.zone = rule.zone;
+  }
+
+  /* Return the deepest node with a rule that matches a list of folder names,
+  starting at a given index, or null if no rule matches.  An exact name is
+  preferred over "*" when both match to the same depth. */
+
+  RedatePhotoFile3Rule match(String[] names, int index)
+  {
+    RedatePhotoFile3Rule best;    // best match so far, or null
+    RedatePhotoFile3Rule child;   // child node for next folder name
+    RedatePhotoFile3Rule found;   // match from one child, or null
+
+    best = (text != null) ? this : null;
+    if ((children == null) || (index >= names.length))
+      return(best);               // no more folder names to match
+    child = (RedatePhotoFile3Rule) children.get(names[index]);
+    if ((child != null) && ((found = child.match(names, (index + 1)))
+      != null))
     {
-      putOutSuccess(givenName + " - changed date to " + userNewDate + " from "
-        + userOldDate);
-      fileChangeFlag = true;      // at least one change for this file
+      best = found;               // deeper than this node
     }
-    else                          // error from setLastModified() method
+    child = (RedatePhotoFile3Rule) children.get("*");
+    if ((child != null) && ((found = child.match(names, (index + 1)))
+      != null) && ((best == null) || (found.depth > best.depth)))
     {
-      putOutFailure(givenName + " - failed change to " + userNewDate + " from "
-        + userOldDate);
-      fileErrorFlag = true;       // at least one error for this file
+      best = found;               // any folder name, but deeper
     }
+    return(best);
+  }
 
-    /* Change the file name by inserting a date and time at the beginning of
-    the name, if it isn't already there.  Only year-month-day (hour-minute-
-    second) order makes sense here, to put files in chronological order when
-    sorted by name. */
+} // end of RedatePhotoFile3Rule class
 
-    if (cancelFlag) return;       // stop if user cancel or fatal error
+// ------------------------------------------------------------------------- //
 
-    putOutDebug(givenName + " - file name prefix is <" + prefix + ">");
-    newName = prefix + givenName; // new file name, if prefix is necessary
+/*
+  RedatePhotoFile3Server class
+
+  This class reads requests from one client connection to our server, in its
+  own thread, so that a slow client doesn't stop other clients.  A request is
+  one or more lines ending with an empty line or with the end of the
+  connection.  Text is UTF-8 in both directions.  If the server has a token,
+  then the first line must be the token, or the connection is closed.  We are
+  also the listener for each job, and write output and results back to the
+  client.
+*/
 
-    if (renameFlag == false)      // does the user want file name changed?
-    {
-      /* No, do nothing.  Count nothing. */
-    }
-    else if (givenName.startsWith(prefix))
-    {
-      putOutComment(givenName + " - has correct file name prefix");
-      fileCorrectFlag = true;     // at least one correct for this file
-    }
-    else if (canon.canWrite() == false)
+class RedatePhotoFile3Server implements RedatePhotoFile3Listener, Runnable
+{
+  RedatePhotoFile3 engine;        // server with options from command line
+  RedatePhotoFile3Job job;        // job for current request, or null
+  PrintWriter output;             // for writing replies to client
+  RedatePhotoFile3 parser;        // our engine for parsing request options
+  Socket socket;                  // connection from one client
+  String totals;                  // totals line when job is done, or null
+
+  public RedatePhotoFile3Server(RedatePhotoFile3 engine, Socket socket)
+  {
+    this.engine = engine;
+    this.job = null;
+    this.output = null;
+    this.parser = null;
+    this.socket = socket;
+    this.totals = null;
+  }
+
+  public void fileResult(File file, long newMillis, long oldMillis,
+    int status)
+  {
+    message(RedatePhotoFile3.SERVER_RESULT + " " + status + " " + newMillis
+      + " " + oldMillis + " " + file.getPath());
+  }
+
+  public void message(String text)
+  {
+    output.println(text);         // reply goes to client's connection
+    if (output.checkError() && (job != null)) // did client go away?
+      job.cancel();               // then nobody wants the rest of the reply
+  }
+
+  public void progress(long files, String text)
+  {
+    /* client gets a reply line for each file, so no progress is sent */
+  }
+
+  public void run()
+  {
+    BufferedReader input;         // for reading requests from client
+    String line;                  // one line of a request
+    Vector request;               // lines of the current request
+
+    try                           // catch errors reading, writing socket
     {
-      putOutFailure(givenName + " - can't rename read-only file as "
-        + newName);
-      fileErrorFlag = true;       // at least one error for this file
+      input = new BufferedReader(new InputStreamReader(
+        socket.getInputStream(), "UTF-8"));
+      output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+        socket.getOutputStream(), "UTF-8")));
+      if (engine.serverToken != null) // must client send the token?
+      {
+        line = input.readLine();  // first line has only the token
+        if ((line == null) || (line.equals(RedatePhotoFile3.SERVER_TOKEN + " "
+          + engine.serverToken) == false))
+        {
+          output.println(RedatePhotoFile3.SERVER_ERROR
+            + " Token not accepted");
+          output.flush();
+          socket.close();         // no requests from this client
+          return;
+        }
+      }
+      parser = new RedatePhotoFile3(); // options for our requests only
+      request = new Vector();
+      do
+      {
+        line = input.readLine();  // null for end of connection
+        if ((line != null) && (line.length() > 0)) // more of same request?
+          request.add(line);
+        else if (request.size() > 0) // end of a request with something in it
+        {
+          engine.serveRequest(request, this);
+          request.clear();        // wait for next request, if any
+        }
+      } while (line != null);
+      socket.close();
     }
-    else if (debugFlag)           // do we simulate the result?
+    catch (IOException ioe)       // client went away, etc
     {
-      putOutSuccess(givenName + " - simulate rename " + newName);
-    }
-    else if (canon.renameTo(new File(canon.getParent(), newName)))
-    {                             // try to change file name
-      putOutSuccess(givenName + " - changed name to " + newName);
-      fileChangeFlag = true;      // at least one change for this file
+      System.err.println("Server connection error: " + ioe.getMessage());
     }
-    else                          // error from renameTo() method
+  }
+
+  /* Do the current job with an engine from the server's pool, in the pool's
+  thread, then wake up our own thread to send the totals. */
+
+  public void runJob(RedatePhotoFile3 pooled)
+  {
+    try { pooled.runJob(job); }   // output and results go to client
+    finally
     {
-      putOutFailure(givenName + " - failed rename as " + newName);
-      fileErrorFlag = true;       // at least one error for this file
+      synchronized (this)
+      {
+        totals = pooled.totalsText(); // same totals, machine-readable
+        notifyAll();
+      }
     }
+  }
 
-    /* Count this file once if we changed the date and time or the file name.
-    Otherwise, count as correct if at least one was correct. */
+} // end of RedatePhotoFile3Server class
 
-    if (fileChangeFlag)           // were there any successful changes?
-      totalChange ++;             // yes, one more file with changes
-    if (fileCorrectFlag && (! fileChangeFlag) && (! fileErrorFlag))
-      totalCorrect ++;            // only correct if no other changes, errors
-    if (fileErrorFlag)            // were there any failures to change?
-      totalError ++;              // one more file with an error
+// ------------------------------------------------------------------------- //
+
+/*
+  RedatePhotoFile3Sidecar class
+
+  This class is a SAX handler that looks for dates in an XMP sidecar file.
+  Dates may be attributes of an rdf:Description element, or elements with the
+  date as text.  The original date (exif:DateTimeOriginal) is preferred to the
+  creation date (xmp:CreateDate), and parsing stops when the original date is
+  found.  XMP dates are ISO 8601 strings, with an optional time zone that we
+  ignore, the same as Exif dates in photos are local times.
+*/
 
-  } // end of processFileOrFolder() method
+class RedatePhotoFile3Sidecar extends DefaultHandler
+{
+  static final Pattern DATE_PATTERN = Pattern.compile(
+    "\\s*(\\d{4}-\\d\\d-\\d\\d)T(\\d\\d:\\d\\d)(:\\d\\d)?.*", Pattern.DOTALL);
+  static final String EXIF_NAMESPACE = "http://ns.adobe.com/exif/1.0/";
+  static final String XMP_NAMESPACE = "http://ns.adobe.com/xap/1.0/";
+
+  String best;                    // best date and time found, or null
+  int bestRank;                   // rank of <best>: 0 = none, 2 = original
+  boolean stopped;                // true if we stopped parsing early
+  StringBuffer text;              // text for element with a date
+  int textRank;                   // rank of current element, or zero
+
+  public RedatePhotoFile3Sidecar()
+  {
+    this.best = null;
+    this.bestRank = 0;
+    this.stopped = false;
+    this.text = new StringBuffer();
+    this.textRank = 0;
+  }
 
+  public void characters(char[] buffer, int start, int length)
+  {
+    if (textRank > 0)             // only keep text for dates
+      text.append(buffer, start, length);
+  }
 
-/*
-  putOutput() method
+  public void endElement(String uri, String localName, String qName)
+    throws SAXException
+  {
+    if (textRank > 0)             // was this element a date?
+      offer(textRank, text.toString());
+    textRank = 0;
+  }
 
-  Append a complete line of text to the end of the output text area.  We add a
-  newline character at the end of the line, not the caller.  By forcing all
-  output to go through this same method, one complete line at a time, the
-  generated output is cleaner and can be redirected.
+  /* Accept a date if it has a higher rank than what we have, and stop parsing
+  if it's the original date.  Stopping is done by throwing an exception. */
 
-  The output text area is forced to scroll to the end, after the text line is
-  written, by selecting character positions that are much too large (and which
-  are allowed by the definition of the JTextComponent.select() method).  This
-  is easier and faster than manipulating the scroll bars directly.  However, it
-  does cancel any selection that the user might have made, for example, to copy
-  text from the output area.
-*/
-  static void putOutput(String text)
+  void offer(int rank, String value) throws SAXException
   {
-    if (mainFrame == null)        // during setup, there is no GUI window
-      System.out.println(text);   // console output goes onto standard output
-    else
+    Matcher matcher;              // pattern matcher for ISO date
+
+    if ((rank <= bestRank) || ((matcher = DATE_PATTERN.matcher(value))
+      .matches() == false))       // not better, or not a date?
     {
-      outputText.append(text + "\n"); // graphical output goes into text area
-      outputText.select(999999999, 999999999); // force scroll to end of text
+      return;
+    }
+    best = matcher.group(1) + " " + matcher.group(2) + ((matcher.group(3)
+      == null) ? ":00" : matcher.group(3)); // same as our DATE_FORMAT
+    bestRank = rank;
+    if (bestRank == 2)            // is this the original date?
+    {
+      stopped = true;             // no need to read rest of file
+      throw new SAXException("found original date");
     }
   }
 
-  static void putOutComment(String text) // filter for general information
+  static int rank(String uri, String localName)
   {
-    if (debugFlag || (showIndex == 0)) // any message not releated to change
-      putOutput(text);
+    if (EXIF_NAMESPACE.equals(uri) && localName.equals("DateTimeOriginal"))
+      return(2);                  // original date, the best
+    if (XMP_NAMESPACE.equals(uri) && localName.equals("CreateDate"))
+      return(1);                  // creation date, if no original date
+    return(0);                    // not a date that we want
   }
 
-  static void putOutDebug(String text) // filter for debug messages
+  public InputSource resolveEntity(String publicId, String systemId)
   {
-    if (debugFlag)                // if user wants to see details
-      putOutput(text);
+    return(new InputSource(new StringReader(""))); // never fetch a DTD
   }
 
-  static void putOutFailure(String text) // filter for errors on change
+  public void startElement(String uri, String localName, String qName,
+    Attributes attributes) throws SAXException
   {
-    if (debugFlag || (showIndex != 1)) // if failure to change date, name
-      putOutput(text);
-  }
+    int i;                        // index variable
 
-  static void putOutSuccess(String text) // filter for success on change
-  {
-    if (debugFlag || (showIndex != 3)) // if successful change date, name
-      putOutput(text);
+    for (i = 0; i < attributes.getLength(); i ++)
+      offer(rank(attributes.getURI(i), attributes.getLocalName(i)),
+        attributes.getValue(i));
+    textRank = rank(uri, localName); // dates may also be element text
+    text.setLength(0);
   }
 
+} // end of RedatePhotoFile3Sidecar class
+
+// ------------------------------------------------------------------------- //
 
 /*
-  setStatusMessage() method
+  RedatePhotoFile3Slowest class
 
-  Set the text for the status message if we are running as a GUI application.
-  This gives the user some indication of our progress when processing is slow.
-  If the update timer is running, then this message will not appear until the
-  timer kicks in.  This prevents the status from being updated too often, and
-  hence being unreadable.
+  This class keeps the slowest times and their descriptions, from slowest to
+  fastest, up to a fixed number.  Times that aren't slow enough are ignored
+  without changing the list, so that a run with millions of files uses no more
+  memory than a run with a few files.  Callers should ask keeps() before
+  creating a description, so that descriptions are only created if kept.
 */
-  static void setStatusMessage(String text)
+
+class RedatePhotoFile3Slowest
+{
+  int count;                      // number of times in the list
+  long[] millis;                  // times from slowest to fastest
+  String[] texts;                 // description for each time
+
+  public RedatePhotoFile3Slowest(int size)
   {
-    if (mainFrame == null)        // are we running as a console application?
-      return;                     // yes, console doesn't show running status
-    statusPending = text;         // always save caller's status message
-    if (statusTimer.isRunning())  // are we updating on a timed basis?
-      return;                     // yes, wait for the timer to do an update
-    statusDialog.setText(statusPending); // show the status message now
+    this.count = 0;
+    this.millis = new long[size];
+    this.texts = new String[size];
   }
 
+  public void add(long time, String text)
+  {
+    int i;                        // index variable
 
-/*
-  showHelp() method
+    if (keeps(time) == false)     // not slow enough for a full list
+      return;
+    if (count < millis.length)    // is there room for one more?
+      count ++;
+    for (i = count - 1; (i > 0) && (millis[i - 1] < time); i --)
+    {
+      millis[i] = millis[i - 1];  // move faster times down the list
+      texts[i] = texts[i - 1];
+    }
+    millis[i] = time;
+    texts[i] = text;
+  }
 
-  Show the help summary.  This is a UNIX standard and is expected for all
-  console applications, even very simple ones.
-*/
-  static void showHelp()
+  public void clear()
   {
-    System.err.println();
-    System.err.println(PROGRAM_TITLE);
-    System.err.println();
-    System.err.println("  java  RedatePhotoFile3  [options]  [fileOrFolderNames]");
-    System.err.println();
-    System.err.println("Options:");
-    System.err.println("  -? = -help = show summary of command-line syntax");
-    System.err.println("  -a# = number of seconds to add to date and time found (may be negative)");
-    System.err.println("  -d = show debug information (may be verbose)");
-//  System.err.println("  -f0 = find dates, times but do not change file date or rename");
-    System.err.println("  -f1 = change file date in system file directory (default)");
-    System.err.println("  -f2 = rename file with date, time prefix (see -p option)");
-    System.err.println("  -f3 = change file date and rename file with date, time prefix");
-    System.err.println("  -m0 = show all files and general comments (default)");
-    System.err.println("  -m1 = show only files with successful changes");
-    System.err.println("  -m2 = show files with changes or with errors");
-    System.err.println("  -m3 = show only files with failures to change");
-    System.err.println("  -p# = SimpleDateFormat for renaming; default is -p\"" + RENAME_FORMAT + "\"");
-    System.err.println("  -s0 = do only given files or folders, no subfolders (default)");
-    System.err.println("  -s1 = -s = process files, folders, and subfolders");
-    System.err.println("  -t0 = find oldest (original) date and time (default)");
-    System.err.println("  -t1 = -t = find newest (modified) date and time");
-    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
-    System.err.println("      example: -u16");
-    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
-    System.err.println("      example: -w(50,50,700,500)");
-    System.err.println("  -x = maximize application window; default is normal window");
-    System.err.println();
-    System.err.println("Output may be redirected with the \">\" operator.  If no file or folder names");
-    System.err.println("are given on the command line, then a graphical interface will open.");
-    System.err.println();
-    System.err.println(COPYRIGHT_NOTICE);
-//  System.err.println();
-
-  } // end of showHelp() method
+    count = 0;                    // old descriptions are replaced later
+  }
 
+  public boolean keeps(long time)
+  {
+    return((count < millis.length) || (time > millis[count - 1]));
+  }
 
-/*
-  sortFileList() method
+} // end of RedatePhotoFile3Slowest class
 
-  When we ask for a list of files or subfolders in a directory, the list is not
-  likely to be in our preferred order.  Java does not guarantee any particular
-  order, and the observed order is whatever is supplied by the underlying file
-  system (which can be very jumbled for FAT16/FAT32).  We would like the file
-  names to be sorted, and since we recurse on subfolders, we also want the
-  subfolders to appear in order.
+// ------------------------------------------------------------------------- //
 
-  The caller's parameter may be <null> and this may happen if the caller asks
-  File.listFiles() for the contents of a protected system directory.  All calls
-  to listFiles() in this program are wrapped inside a call to us, so we replace
-  a null parameter with an empty array as our result.
+/*
+  RedatePhotoFile3Template class
+
+  This class is a rename template (-p option), compiled once into a list of
+  parts, and then used to create a new name for each file.  Parts are literal
+  text or tokens in braces:
+
+      {date}          date and time, same as default -p option
+      {date:pattern}  date and time with a SimpleDateFormat pattern
+      {camera}        camera model from Exif data, or "unknown"
+      {seq:04}        sequence number in this run, with at least 4 digits,
+                      not allowed with worker processes (-j option)
+      {name}          old file name without the extension
+      {ext}           old file extension, with the period
+
+  A slash (/) in the template puts files in subfolders of their current
+  folder.  The new name is built in one buffer that is reused for each file.
 */
-  static File[] sortFileList(File[] input)
+
+class RedatePhotoFile3Template
+{
+  static final String BAD_CHARS = "\\/:*?\"<>|"; // not allowed in camera
+  static final int PART_CAMERA = 1; // part types, <kinds> array
+  static final int PART_DATE = 2;
+  static final int PART_EXT = 3;
+  static final int PART_NAME = 4;
+  static final int PART_SEQ = 5;
+  static final int PART_TEXT = 0;
+
+  StringBuffer buffer;            // reused for building each name
+  int count;                      // number of parts in arrays
+  SimpleDateFormat[] formats;     // date format for each date part
+  int[] kinds;                    // type of each part
+  boolean modelFlag;              // true if any part is camera model
+  int sequence;                   // sequence number for last name
+  boolean sequenceFlag;           // true if any part is sequence number
+  String[] texts;                 // literal text for each text part
+  int[] widths;                   // minimum digits for sequence parts
+
+  public RedatePhotoFile3Template(String text)
   {
-    String fileName;              // file name without the path
+    int end;                      // index of closing brace
     int i;                        // index variable
-    TreeMap list;                 // our list of files
-    File[] result;                // our result
-    StringBuffer sortKey;         // created sorting key for each file
-
-    if (input == null)            // were we given a null pointer?
-      result = new File[0];       // yes, replace with an empty array
-    else if (input.length < 2)    // don't sort lists with zero or one element
-      result = input;             // just copy input array as result array
-    else
+    String name, value;           // token name and value after colon
+    int start;                    // index of opening brace
+
+    this.buffer = new StringBuffer();
+    this.count = 0;
+    this.formats = new SimpleDateFormat[text.length()]; // each part has at
+    this.kinds = new int[text.length()]; // ... least one character, so
+    this.texts = new String[text.length()]; // ... there can't be more parts
+    this.widths = new int[text.length()]; // ... than characters
+    this.modelFlag = false;
+    this.sequence = 0;
+    this.sequenceFlag = false;
+    if (text.startsWith("/") || (text.indexOf("..") >= 0))
+      throw new IllegalArgumentException("template must stay in folder");
+    i = 0;
+    while (i < text.length())     // for each part of template
     {
-      /* First, create a sorted list with our choice of index keys and the File
-      objects as data.  Names are sorted as files or folders, then in lowercase
-      to ignore differences in uppercase versus lowercase, then in the original
-      form for systems where case is distinct. */
-
-      list = new TreeMap();       // create empty sorted list with keys
-      sortKey = new StringBuffer(); // allocate empty string buffer for keys
-      for (i = 0; i < input.length; i ++)
+      if ((start = text.indexOf('{', i)) < 0) // any more tokens?
+        start = text.length();
+      if (start > i)              // literal text before token?
       {
-        sortKey.setLength(0);     // empty any previous contents of buffer
-        if (input[i].isDirectory()) // is this "file" actually a folder?
-          sortKey.append("2 ");   // yes, put subfolders after files
-        else                      // must be a file or an unknown object
-          sortKey.append("1 ");   // put files before subfolders
-
-        fileName = input[i].getName(); // get the file name without the path
-        sortKey.append(fileName.toLowerCase()); // start by ignoring case
-        sortKey.append(" ");      // separate lowercase from original case
-        sortKey.append(fileName); // then sort file name on original case
-        list.put(sortKey.toString(), input[i]); // put file into sorted list
+        kinds[count] = PART_TEXT;
+        texts[count ++] = text.substring(i, start);
       }
-
-      /* Second, now that the TreeMap object has done all the hard work of
-      sorting, pull the File objects from the list in order as determined by
-      the sort keys that we created. */
-
-      result = (File[]) list.values().toArray(new File[0]);
+      if (start >= text.length()) // no more tokens
+        break;
+      if ((end = text.indexOf('}', start)) < 0)
+        throw new IllegalArgumentException("missing } after "
+          + text.substring(start));
+      name = text.substring(start + 1, end);
+      value = null;               // assume no value after colon
+      if (name.indexOf(':') >= 0) // is there a value?
+      {
+        value = name.substring(name.indexOf(':') + 1);
+        name = name.substring(0, name.indexOf(':'));
+      }
+      if (name.equals("camera"))
+      {
+        kinds[count ++] = PART_CAMERA;
+        modelFlag = true;         // need to read camera model from Exif
+      }
+      else if (name.equals("date")) // bad pattern throws exception for us
+      {
+        formats[count] = new SimpleDateFormat((value == null)
+          ? RedatePhotoFile3.RENAME_FORMAT.trim() : value);
+        kinds[count ++] = PART_DATE;
+      }
+      else if (name.equals("ext"))
+        kinds[count ++] = PART_EXT;
+      else if (name.equals("name"))
+        kinds[count ++] = PART_NAME;
+      else if (name.equals("seq") && ((value == null)
+        || value.matches("[0-9]{1,2}")))
+      {
+        widths[count] = (value == null) ? 1 : Integer.parseInt(value);
+        kinds[count ++] = PART_SEQ;
+        sequenceFlag = true;      // names depend on order of files
+      }
+      else
+        throw new IllegalArgumentException("unknown token {"
+          + text.substring(start + 1, end) + "}");
+      i = end + 1;                // continue after closing brace
     }
-    return(result);               // give caller whatever we could find
-
-  } // end of sortFileList() method
-
+  }
 
-/*
-  userButton() method
+  /* Return the new name for one file, given the date and time, the camera
+  model (may be null), and the old file name.  Each call is the next number in
+  the sequence.  Return null if the name would leave the folder, which can
+  happen when a date pattern or camera model has periods. */
 
-  This method is called by our action listener actionPerformed() to process
-  buttons, in the context of the main RedatePhotoFile3 class.
-*/
-  static void userButton(ActionEvent event)
+  public String format(Date date, String model, String fileName)
   {
-    Object source = event.getSource(); // where the event came from
-    if (source == cancelButton)   // "Cancel" button
-    {
-      doCancelButton();           // stop opening files or folders
-    }
-    else if (source == debugCheckbox) // if we show debug information
-    {
-      debugFlag = debugCheckbox.isSelected();
-    }
-    else if (source == exitButton) // "Exit" button
+    char ch;                      // one character from camera model
+    String digits;                // digits for sequence number
+    int dot;                      // index of period before extension
+    int i, k;                     // index variables
+    int start;                    // index of first character in folder name
+
+    buffer.setLength(0);          // reuse the same buffer for each name
+    dot = fileName.lastIndexOf('.');
+    sequence ++;                  // one more name in this run
+    for (i = 0; i < count; i ++)
     {
-      System.exit(0);             // always exit with zero status from GUI
+      switch (kinds[i])
+      {
+        case (PART_CAMERA):       // replace characters not allowed in names
+          model = ((model == null) || (model.trim().length() == 0))
+            ? "unknown" : model.trim();
+          for (k = 0; k < model.length(); k ++)
+          {
+            ch = model.charAt(k);
+            buffer.append(((ch < ' ') || (BAD_CHARS.indexOf(ch) >= 0))
+              ? '_' : ch);
+          }
+          break;
+        case (PART_DATE):
+          buffer.append(formats[i].format(date));
+          break;
+        case (PART_EXT):
+          if (dot > 0) buffer.append(fileName.substring(dot));
+          break;
+        case (PART_NAME):
+          buffer.append((dot > 0) ? fileName.substring(0, dot) : fileName);
+          break;
+        case (PART_SEQ):
+          digits = String.valueOf(sequence);
+          for (k = digits.length(); k < widths[i]; k ++)
+            buffer.append('0');   // leading zeros for minimum width
+          buffer.append(digits);
+          break;
+        default:                  // literal text
+          buffer.append(texts[i]);
+          break;
+      }
     }
-    else if (source == fontNameDialog) // font name for output text area
-    {
-      /* We can safely assume that the font name is valid, because we obtained
-      the names from getAvailableFontFamilyNames(), and the user can't edit
-      this dialog field. */
 
-      fontName = (String) fontNameDialog.getSelectedItem();
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    }
-    else if (source == fontSizeDialog) // point size for output text area
-    {
-      /* We can safely parse the point size as an integer, because we supply
-      the only choices allowed, and the user can't edit this dialog field. */
+    /* Check each folder name and the file name in the result.  None may be
+    empty (a leading slash or two slashes together), "." or "..". */
 
-      fontSize = Integer.parseInt((String) fontSizeDialog.getSelectedItem());
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    }
-    else if (source == newDateCheckbox) // if we find newest (modified) dates
+    start = 0;
+    for (i = 0; i <= buffer.length(); i ++)
     {
-      oldDateFlag = ! newDateCheckbox.isSelected();
-      oldDateCheckbox.setSelected(oldDateFlag); // fake radio button
-    }
-    else if (source == oldDateCheckbox) // if we find oldest (original) dates
-    {
-      oldDateFlag = oldDateCheckbox.isSelected();
-      newDateCheckbox.setSelected(! oldDateFlag); // fake radio button
-    }
-    else if (source == openButton) // "Open" button for files or folders
-    {
-      doOpenButton();             // open files or folders for processing
-    }
-    else if (source == recurseCheckbox) // if we search folders and subfolders
-    {
-      recurseFlag = recurseCheckbox.isSelected();
-    }
-    else if (source == redateCheckbox) // if we change file modification date
-    {
-      redateFlag = redateCheckbox.isSelected();
-    }
-    else if (source == renameCheckbox) // if we rename file with date prefix
-    {
-      renameFlag = renameCheckbox.isSelected();
-    }
-    else if (source == renameFormatButton) // "Format" button for renaming
-    {
-      doFormatButton();           // edit and test new date, time format
-    }
-    else if (source == renameTestButton) // "Test" button while editing format
-    {
-      doFormatTest();             // attempt to format with current pattern
-    }
-    else if (source == saveButton) // "Save Output" button
-    {
-      doSaveButton();             // write output text area to a file
-    }
-    else if (source == showDialog) // which files or conditions to report
-    {
-      showIndex = showDialog.getSelectedIndex(); // no meaning assigned here
-    }
-    else if (source == statusTimer) // update timer for status message text
-    {
-      if (statusPending.equals(statusDialog.getText()) == false)
-        statusDialog.setText(statusPending); // new status, update the display
-    }
-    else                          // fault in program logic, not by user
-    {
-      System.err.println("Error in userButton(): unknown ActionEvent: "
-        + event);                 // should never happen, so write on console
+      ch = (i < buffer.length()) ? buffer.charAt(i) : '/'; // end is a slash
+      if ((ch != '/') && (ch != File.separatorChar)) // not end of a name?
+        continue;
+      if ((i == start) || ((buffer.charAt(start) == '.') && (((i - start)
+        == 1) || (((i - start) == 2) && (buffer.charAt(start + 1) == '.')))))
+      {
+        return(null);             // name would leave folder, or is empty
+      }
+      start = i + 1;              // next name starts after this slash
     }
-  } // end of userButton() method
+    return(buffer.toString());
+  }
 
-} // end of RedatePhotoFile3 class
+} // end of RedatePhotoFile3Template class
 
 // ------------------------------------------------------------------------- //
 
 /*
-  RedatePhotoFile3User class
+  RedatePhotoFile3Unit class
 
-  This class listens to input from the user and passes back event parameters to
-  a static method in the main class.
+  This class is one unit of work for worker processes (-k option): either one
+  folder, or some file names from a folder or from the command line.  The
+  weight is a guess for the number of files, and sorts heavier units first.
+  The number of files done is counted for a history of folder sizes.
 */
 
-class RedatePhotoFile3User implements ActionListener, Runnable
+class RedatePhotoFile3Unit implements Comparable
 {
-  /* empty constructor */
-
-  public RedatePhotoFile3User() { }
-
-  /* button listener, dialog boxes, etc */
-
-  public void actionPerformed(ActionEvent event)
+  long files;                     // number of files done by workers
+  File folder;                    // folder for this unit, or null
+  Vector names;                   // file or folder names given to workers
+  RedatePhotoFile3Unit parent;    // unit for folder above us, or null
+  long weight;                    // guess for number of files
+
+  public RedatePhotoFile3Unit(File folder, RedatePhotoFile3Unit parent,
+    long weight)
   {
-    RedatePhotoFile3.userButton(event);
+    this.files = 0;
+    this.folder = folder;
+    this.names = new Vector();
+    this.parent = parent;
+    this.weight = weight;
+    if (folder != null)           // a folder is given as one name
+      this.names.add(folder.getPath());
   }
 
-  /* separate heavy-duty processing thread */
-
-  public void run()
+  public int compareTo(Object other) // largest units first
   {
-    RedatePhotoFile3.doOpenRunner();
+    long difference = ((RedatePhotoFile3Unit) other).weight - this.weight;
+    return((difference < 0) ? -1 : ((difference > 0) ? 1 : 0));
   }
 
-} // end of RedatePhotoFile3User class
+} // end of RedatePhotoFile3Unit class
 
 /* Copyright (c) 2017 by Keith Fenske.  Apache License or GNU GPL. */